@@ -4,6 +4,10 @@ import android.Manifest;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
 import android.location.Location;
 import android.media.MediaPlayer;
 import android.media.Ringtone;
@@ -24,25 +28,33 @@ import android.util.Log;
 import com.ddelp.volvoce.fragments.SettingsFragment;
 import com.ddelp.volvoce.fragments.WorksiteListFragment;
 import com.ddelp.volvoce.helpers.BluetoothHelper;
+import com.ddelp.volvoce.helpers.GPSCodec;
 import com.ddelp.volvoce.helpers.LocationHelper;
-import com.firebase.client.DataSnapshot;
-import com.firebase.client.Firebase;
-import com.firebase.client.FirebaseError;
-import com.firebase.client.ValueEventListener;
+import com.ddelp.volvoce.helpers.MotionDetector;
+import com.ddelp.volvoce.helpers.RealtimeStore;
+import com.ddelp.volvoce.helpers.SamplingPolicy;
+import com.ddelp.volvoce.helpers.SyncQueue;
+import com.ddelp.volvoce.helpers.UploadGate;
+import com.ddelp.volvoce.objects.Position;
+import com.ddelp.volvoce.objects.Worker;
 import com.vistrav.ask.Ask;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ControlActivity extends AppCompatActivity {
 
     private static final String TAG = ControlActivity.class.getSimpleName();
-    private static final int LOCATION_UPDATE_RATE = 2000;
     private static final int ALERT_DELAY_TIME = 2000;
-    private static boolean alert = false;
+    private static volatile boolean alert = false;
     private static String myAddress;
+    /** Worksite this device is assigned to, positions are written under it */
+    private static volatile String myWorksite;
 
-    private Firebase firebaseRef;
+    /** Realtime database the app syncs through */
+    private RealtimeStore store;
     private SharedPreferences prefs;
 
     private TabLayout tabLayout;
@@ -54,6 +66,23 @@ public class ControlActivity extends AppCompatActivity {
 
     /** GPS stuff */
     LocationHelper locationHelper;
+    /** Decides which fixes are worth uploading */
+    private final UploadGate uploadGate = new UploadGate();
+    /** Decides how often fixes are taken */
+    private final SamplingPolicy samplingPolicy = new SamplingPolicy();
+    /** Wakes sampling from the low rate when the device starts moving */
+    private final MotionDetector motionDetector = new MotionDetector();
+    private SensorManager sensorManager;
+    /** Accelerometer, null if the device has none */
+    private Sensor accelerometer;
+    /** Flag if the accelerometer is registered */
+    private boolean motionWake = false;
+    /** How often the heartbeat offers the last fix to the upload gate, in milliseconds */
+    private static final long HEARTBEAT_CHECK_RATE = 1000;
+    /** Speed of the newest fix in m/s */
+    private volatile double mySpeed = 0;
+    /** Outbound writes, kept while offline */
+    private SyncQueue syncQueue;
     /** Bluetooth low energy stuff */
     BluetoothHelper bleHelper;
 
@@ -74,7 +103,14 @@ public class ControlActivity extends AppCompatActivity {
         tabLayout.getTabAt(1).setIcon(tabIcons[1]);
 
         locationHelper = LocationHelper.getInstance(this);
-        new Handler().postDelayed(getLocation, LOCATION_UPDATE_RATE);
+        locationHelper.addGPSListener(locationListener);
+        locationHelper.getLocationHandler().postDelayed(heartbeat, HEARTBEAT_CHECK_RATE);
+        sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if(accelerometer == null) {
+            Log.i(TAG, "No accelerometer, keeping the low sampling rate short");
+            samplingPolicy.setLowInterval(SamplingPolicy.MEDIUM_INTERVAL);
+        }
 
         bleHelper = BluetoothHelper.getInstance(this); // Register/start ble scan
         //bleHelper.startScan(); // TODO: change to manual connection with selected MAC address
@@ -94,21 +130,24 @@ public class ControlActivity extends AppCompatActivity {
         // Set alert listener for our MAC address from shared preferences
         prefs = getSharedPreferences(SplashActivity.MY_PREFERENCES, Context.MODE_PRIVATE);
         myAddress = prefs.getString(SplashActivity.MAC_ADDRESS_KEY, null).replace(":","");
-        firebaseRef = new Firebase(getResources().getString(R.string.firebase_app));
-        Firebase alertRef = firebaseRef.child("alerts").child(myAddress);
-        if(alertRef != null) {
-            alertRef.addValueEventListener(alertListener);
-        } else {
-            Log.d(TAG, "Alert Reference is wrong: " + myAddress);
-        }
+        store = VolvoCE.getStore();
+        syncQueue = SyncQueue.getInstance(this);
+        store.addValueListener("alerts/" + myAddress, alertListener);
+        // Find which worksite to report our position to
+        store.addValueListener("workers/" + myAddress, workerInfoListener);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         if(locationHelper != null) {
+            locationHelper.removeGPSListener(locationListener);
+            locationHelper.getLocationHandler().removeCallbacks(heartbeat);
             locationHelper.stopUsingGPS();
         }
+        if(sensorManager != null) {
+            sensorManager.unregisterListener(motionListener);
+        }
         if(bleHelper != null) {
             bleHelper.stopScan();
             bleHelper.disconnect();
@@ -146,22 +185,144 @@ public class ControlActivity extends AppCompatActivity {
     }
 
     /**
-     * Get the users location and report it to firebase (persists until app is destroyed...)
+     * Report each fused fix to firebase as it arrives if it moved, or as a heartbeat.
+     * Called on the location thread.
      */
-    private final Runnable getLocation = new Runnable() {
+    private final LocationHelper.GPSListener locationListener = new LocationHelper.GPSListener() {
+        @Override
+        public void onGPSChanged(Location myLocation) {
+            uploadLocation(myLocation);
+            mySpeed = myLocation.hasSpeed() ? myLocation.getSpeed() : 0;
+            updateSamplingRate();
+        }
+    };
+
+    /**
+     * Runnable offering the last fix to the upload gate on the location thread, so the
+     * heartbeat still goes out once maxSilence has passed when the providers deliver
+     * nothing (no GPS fix, standing still, network provider off)
+     */
+    private final Runnable heartbeat = new Runnable() {
         @Override
         public void run() {
-            // only report if the location is different
             Location myLocation = locationHelper.getCurrentBestLocation();
             if(myLocation != null) {
-                Firebase myGPSRef = firebaseRef.child("workers").child(myAddress).child("gps");
-                double latitude = myLocation.getLatitude();
-                double longitude = myLocation.getLongitude();
-                String gps = latitude + "," + longitude;
-                myGPSRef.setValue(gps);
-                //Log.i(TAG, "Sending users location to firebase: " + gps);
+                uploadLocation(myLocation);
+            }
+            locationHelper.getLocationHandler().postDelayed(heartbeat, HEARTBEAT_CHECK_RATE);
+        }
+    };
+
+    /**
+     * Send a fix to firebase if the upload gate lets it through. Replayed fixes are never
+     * sent, they would show up on the live worksite as this worker's position.
+     * @param myLocation Fused fix
+     */
+    private void uploadLocation(Location myLocation) {
+        if(locationHelper.isReplaying()) {
+            return;
+        }
+        double latitude = myLocation.getLatitude();
+        double longitude = myLocation.getLongitude();
+        double speed = myLocation.hasSpeed() ? myLocation.getSpeed() : 0;
+        double heading = myLocation.hasBearing() ? myLocation.getBearing() : 0;
+        long now = System.currentTimeMillis();
+        String worksite = myWorksite;
+        if(worksite != null) {
+            synchronized (uploadGate) {
+                if(uploadGate.shouldSend(latitude, longitude, speed, heading,
+                        myLocation.getTime(), now)) {
+                    // Send velocity/heading with the fix so the worksite can predict collisions
+                    Map<String, Object> update = new HashMap<>();
+                    update.put("kind", Position.KIND_WORKER);
+                    update.put("latitudeE7", GPSCodec.encode(latitude));
+                    update.put("longitudeE7", GPSCodec.encode(longitude));
+                    // Drop the legacy string left by older versions of the app
+                    update.put("gps", null);
+                    update.put("velocity", speed);
+                    update.put("direction", heading);
+                    update.put("timestamp", myLocation.getTime());
+                    // Queued so fixes taken without a connection replay once it returns
+                    syncQueue.write("positions/" + worksite + "/" + myAddress, update);
+                    uploadGate.sent(latitude, longitude, speed, heading, myLocation.getTime(), now);
+                    //Log.i(TAG, "Sending users location to firebase: " + latitude + "," + longitude);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sample fast while near a machine, slowly while idle away from them. Called
+     * for every fix, when the alert changes and when the accelerometer sees the device
+     * start moving, so an alert or starting to walk speeds sampling up at once. The
+     * accelerometer is only registered while sampling at the low rate.
+     */
+    private void updateSamplingRate() {
+        synchronized (samplingPolicy) {
+            long interval = samplingPolicy.update(alert, mySpeed, System.currentTimeMillis());
+            locationHelper.setUpdateInterval(interval, samplingPolicy.getMinDistance());
+            boolean still = samplingPolicy.isStill() && accelerometer != null;
+            if(still && !motionWake) {
+                motionDetector.reset();
+                sensorManager.registerListener(motionListener, accelerometer,
+                        SensorManager.SENSOR_DELAY_NORMAL, locationHelper.getLocationHandler());
+            } else if(!still && motionWake) {
+                sensorManager.unregisterListener(motionListener);
             }
-            new Handler().postDelayed(getLocation, LOCATION_UPDATE_RATE);
+            motionWake = still;
+        }
+    }
+
+    /**
+     * Listener waking sampling from the low rate once the device moves. Called on the
+     * location thread.
+     */
+    private final SensorEventListener motionListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            synchronized (samplingPolicy) {
+                if(!motionWake || !motionDetector.update(event.values[0], event.values[1],
+                        event.values[2], event.timestamp / 1000000)) {
+                    return;
+                }
+                Log.i(TAG, "Movement detected, leaving the low sampling rate");
+                samplingPolicy.motionDetected(System.currentTimeMillis());
+                updateSamplingRate();
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    /**
+     * Listener to track the worksite this device is assigned to
+     */
+    RealtimeStore.ValueListener workerInfoListener = new RealtimeStore.ValueListener() {
+        @Override
+        public void onDataChange(RealtimeStore.Snapshot dataSnapshot) {
+            Worker worker = dataSnapshot.getValue(Worker.class);
+            String worksite = worker != null ? worker.getWorksite() : null;
+            if(myWorksite != null && !myWorksite.equals(worksite)) {
+                // Leave the old worksite so it stops checking this worker for collisions
+                syncQueue.write("positions/" + myWorksite + "/" + myAddress, null);
+            }
+            if(worksite == null) {
+                Log.i(TAG, "Not assigned to a worksite, not reporting location");
+            } else if(!worksite.equals(myWorksite)) {
+                Log.i(TAG, "Reporting location to worksite: " + worksite);
+                synchronized (uploadGate) {
+                    uploadGate.reset(); // Send the next fix straight away to the new worksite
+                }
+            }
+            myWorksite = worksite;
+        }
+
+        @Override
+        public void onCancelled(String error) {
+            Log.i(TAG, "Couldn't download worker information");
+            showErrorDialog(error);
         }
     };
 
@@ -183,14 +344,19 @@ public class ControlActivity extends AppCompatActivity {
     /**
      * Listener to detect if this device has an active alert
      */
-    ValueEventListener alertListener = new ValueEventListener() {
+    RealtimeStore.ValueListener alertListener = new RealtimeStore.ValueListener() {
         @Override
-        public void onDataChange(DataSnapshot dataSnapshot) {
+        public void onDataChange(RealtimeStore.Snapshot dataSnapshot) {
             if(dataSnapshot.getValue() == null) {
                 Log.i(TAG, "Alert is null");
                 return;
             }
-            alert = (boolean)dataSnapshot.getValue();
+            boolean newAlert = (boolean)dataSnapshot.getValue();
+            if(newAlert == alert) {
+                return; // Not a transition, don't restart the sound or resend BLE
+            }
+            alert = newAlert;
+            updateSamplingRate();
             if(alert) {
                 Log.i(TAG, "Alarm Status: on");
                 new Handler().post(playAlertSound);
@@ -203,9 +369,9 @@ public class ControlActivity extends AppCompatActivity {
         }
 
         @Override
-        public void onCancelled(FirebaseError firebaseError) {
+        public void onCancelled(String error) {
             Log.i(TAG, "Couldn't download worksite list");
-            showErrorDialog(firebaseError.toString());
+            showErrorDialog(error);
         }
     };
 
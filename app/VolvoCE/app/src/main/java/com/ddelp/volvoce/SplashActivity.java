@@ -15,16 +15,18 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.ddelp.volvoce.helpers.DatabaseHelper;
+import com.ddelp.volvoce.helpers.RealtimeStore;
+import com.ddelp.volvoce.objects.HazardEnvelope;
 import com.ddelp.volvoce.objects.Machine;
+import com.ddelp.volvoce.objects.Position;
 import com.ddelp.volvoce.objects.Worker;
 import com.ddelp.volvoce.objects.Worksite;
 import com.firebase.client.AuthData;
-import com.firebase.client.DataSnapshot;
 import com.firebase.client.Firebase;
 import com.firebase.client.FirebaseError;
-import com.firebase.client.ValueEventListener;
 
 import java.net.NetworkInterface;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -44,6 +46,8 @@ public class SplashActivity extends AppCompatActivity {
     private ProgressBar progressBar;
 
     private Firebase firebaseRef;
+    /** Realtime database the app syncs through */
+    private RealtimeStore store;
     private SharedPreferences prefs;
 
     @Override
@@ -76,6 +80,7 @@ public class SplashActivity extends AppCompatActivity {
         if(FIREBASE_ACTIVE) {
             status.setText(getString(R.string.firebase_connecting));
             firebaseRef = new Firebase(getResources().getString(R.string.firebase_app));
+            store = VolvoCE.getStore();
             firebaseRef.authAnonymously(loginResultHandler);
         } else {
             new Handler().postDelayed(openWorksiteSelectActivity, SPLASH_DISPLAY_TIME);
@@ -115,8 +120,7 @@ public class SplashActivity extends AppCompatActivity {
                 setUpFirebaseDB(); // Reset our database to default values...
             }
             status.setText(getString(R.string.firebase_dl_data));
-            Firebase worksiteListRef = firebaseRef.child("worksites");
-            worksiteListRef.addListenerForSingleValueEvent(worksitesDownloadListener);
+            store.addSingleValueListener("worksites", worksitesDownloadListener);
         }
 
         @Override
@@ -129,22 +133,39 @@ public class SplashActivity extends AppCompatActivity {
     /**
      * worksiteListDownload
      */
-    ValueEventListener worksitesDownloadListener = new ValueEventListener() {
+    RealtimeStore.ValueListener worksitesDownloadListener = new RealtimeStore.ValueListener() {
         @Override
-        public void onDataChange(DataSnapshot dataSnapshot) {
+        public void onDataChange(RealtimeStore.Snapshot dataSnapshot) {
             DatabaseHelper databaseHelper = DatabaseHelper.getInstance(getApplicationContext());
-            for (DataSnapshot worksiteSnapshot: dataSnapshot.getChildren()) {
-                String worksiteName = worksiteSnapshot.getKey();
-                //Log.i(TAG, "Worksite name: " + worksiteName);
-                databaseHelper.addWorksiteToList(worksiteName);
+            List<Worksite> worksites = new ArrayList<>();
+            for (RealtimeStore.Snapshot worksiteSnapshot: dataSnapshot.getChildren()) {
+                Worksite worksite = worksiteSnapshot.getValue(Worksite.class);
+                if (worksite == null) {
+                    continue;
+                }
+                worksite.setName(worksiteSnapshot.getKey()); // The key is the name
+                worksites.add(worksite);
             }
-            new Handler().postDelayed(openWorksiteSelectActivity, SPLASH_DISPLAY_TIME);
+            // One transaction for the whole download, worksites removed upstream are dropped
+            databaseHelper.syncWorksitesAsync(worksites, new DatabaseHelper.ResultListener<DatabaseHelper.SyncResult>() {
+                @Override
+                public void onResult(DatabaseHelper.SyncResult result) {
+                    Log.i(TAG, "Synced worksites: " + result);
+                    new Handler().postDelayed(openWorksiteSelectActivity, SPLASH_DISPLAY_TIME);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    // Carry on with whatever is cached
+                    new Handler().postDelayed(openWorksiteSelectActivity, SPLASH_DISPLAY_TIME);
+                }
+            });
         }
 
         @Override
-        public void onCancelled(FirebaseError firebaseError) {
+        public void onCancelled(String error) {
             Log.i(TAG, "Couldn't download worksite list");
-            showErrorDialog(firebaseError.toString());
+            showErrorDialog(error);
         }
     };
 
@@ -209,14 +230,46 @@ public class SplashActivity extends AppCompatActivity {
         workersList.put("5430AF01EB82", new Worker("5430AF01EB82", "Bro2", "37.435500,-122.178000", "worksite1"));
         workersList.put("5430AF01EB83", new Worker("5430AF01EB83", "Bro3", "37.426000,-122.171747", "worksite2"));
         workersList.put("5430AF01EB84", new Worker("5430AF01EB84", "Bro4", "37.423550,-122.175514", "worksite3"));
-        Firebase workersRef = firebaseRef.child("workers");
-        workersRef.setValue(workersList);
+        store.setValue("workers", workersList);
 
         // Save a list of machines(ID is MAC address of device.. then username, GPS)
         Map<String, Machine> machinesList = new HashMap<>();
         machinesList.put("5430AF01EB89", new Machine("5430AF01EB89", Machine.MACHINE_TYPE_NONE, "37.43500,-122.177000", "worksite1"));
-        Firebase machinesRef = firebaseRef.child("machines");
-        machinesRef.setValue(machinesList);
+        store.setValue("machines", machinesList);
+
+        // Save the hazard envelope of each machine type (meters, x right and y ahead of the machine)
+        Map<String, HazardEnvelope> envelopes = new HashMap<>();
+        HazardEnvelope excavator = new HazardEnvelope(Machine.MACHINE_TYPE_EXCAVATOR, "Excavator swing radius", 9.0);
+        HazardEnvelope haulTruck = new HazardEnvelope(Machine.MACHINE_TYPE_HAUL_TRUCK, "Haul truck body and rear blind spot", 3.0);
+        haulTruck.addVertex(-3.0, 6.0);
+        haulTruck.addVertex(3.0, 6.0);
+        haulTruck.addVertex(3.0, -8.0);
+        haulTruck.addVertex(5.0, -20.0);
+        haulTruck.addVertex(-5.0, -20.0);
+        haulTruck.addVertex(-3.0, -8.0);
+        envelopes.put(String.valueOf(Machine.MACHINE_TYPE_EXCAVATOR), excavator);
+        envelopes.put(String.valueOf(Machine.MACHINE_TYPE_HAUL_TRUCK), haulTruck);
+        store.setValue("hazard_envelopes", envelopes);
+
+        // Save the latest positions, streamed by each worksite from positions/<worksite>
+        Map<String, Map<String, Position>> positions = new HashMap<>();
+        for(Worker worker : workersList.values()) {
+            if(!positions.containsKey(worker.getWorksite())) {
+                positions.put(worker.getWorksite(), new HashMap<String, Position>());
+            }
+            positions.get(worker.getWorksite()).put(worker.getID(),
+                    new Position(Position.KIND_WORKER, Machine.MACHINE_TYPE_NONE,
+                            worker.getLatitudeE7(), worker.getLongitudeE7()));
+        }
+        for(Machine machine : machinesList.values()) {
+            if(!positions.containsKey(machine.getWorksite())) {
+                positions.put(machine.getWorksite(), new HashMap<String, Position>());
+            }
+            positions.get(machine.getWorksite()).put(machine.getID(),
+                    new Position(Position.KIND_MACHINE, machine.getType(),
+                            machine.getLatitudeE7(), machine.getLongitudeE7()));
+        }
+        store.setValue("positions", positions);
 
         // Save the worksite information
         Map<String, Worksite> worksites = new HashMap<>();
@@ -231,8 +284,7 @@ public class SplashActivity extends AppCompatActivity {
         worksites.put("worksite1", w1);
         worksites.put("worksite2", w2);
         worksites.put("worksite3", w3);
-        Firebase worksitesRef = firebaseRef.child("worksites");
-        worksitesRef.setValue(worksites);
+        store.setValue("worksites", worksites);
 
         // Notify user db was reset
         Toast.makeText(this, "Firebase information has been reset", Toast.LENGTH_SHORT).show();
@@ -1,20 +1,59 @@
 package com.ddelp.volvoce;
 
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
 
+import com.ddelp.volvoce.helpers.FirebaseStore;
+import com.ddelp.volvoce.helpers.LoopbackStore;
+import com.ddelp.volvoce.helpers.RealtimeStore;
 import com.firebase.client.Firebase;
 
+import java.util.concurrent.Executor;
+
 /**
  * Created by Denny on 5/8/16.
  */
 public class VolvoCE extends android.app.Application {
     public static SharedPreferences prefs;
     public static SharedPreferences.Editor prefsEditor;
+    /** Realtime database every activity syncs through */
+    private static RealtimeStore store;
+    /** Runs store callbacks on the main thread, where FirebaseStore delivers them */
+    private static final Executor MAIN_THREAD = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable runnable) {
+            handler.post(runnable);
+        }
+    };
 
     @Override
     public void onCreate() {
         super.onCreate();
         Firebase.setAndroidContext(this); //set system-wide context for firebase
+        store = new FirebaseStore(new Firebase(getResources().getString(R.string.firebase_app)));
     }
 
-}
\ No newline at end of file
+    /**
+     * @return the realtime database, Firebase unless replaced with setStore
+     */
+    public static RealtimeStore getStore() {
+        return store;
+    }
+
+    /**
+     * Replace the realtime database, e.g. with a LoopbackStore to load test offline.
+     * Call before any activity starts syncing. A LoopbackStore is set to call its
+     * listeners on the main thread, as the activities expect.
+     *
+     * @param realtimeStore Store to use from now on
+     */
+    public static void setStore(RealtimeStore realtimeStore) {
+        if (realtimeStore instanceof LoopbackStore) {
+            ((LoopbackStore) realtimeStore).setCallbackExecutor(MAIN_THREAD);
+        }
+        store = realtimeStore;
+    }
+}
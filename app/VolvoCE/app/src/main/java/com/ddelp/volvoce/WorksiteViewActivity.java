@@ -12,17 +12,21 @@ import android.util.Log;
 import android.view.WindowManager;
 
 import com.davemorrissey.labs.subscaleview.ImageSource;
-import com.ddelp.volvoce.helpers.CollisionDetecter;
+import com.ddelp.volvoce.helpers.GPSCodec;
+import com.ddelp.volvoce.helpers.LocalProjection;
+import com.ddelp.volvoce.helpers.RealtimeStore;
+import com.ddelp.volvoce.helpers.SyncQueue;
+import com.ddelp.volvoce.helpers.WorksiteMonitor;
+import com.ddelp.volvoce.objects.HazardEnvelope;
 import com.ddelp.volvoce.objects.Machine;
+import com.ddelp.volvoce.objects.Position;
 import com.ddelp.volvoce.objects.Worker;
 import com.ddelp.volvoce.objects.Worksite;
 import com.ddelp.volvoce.helpers.WorksiteView;
-import com.firebase.client.DataSnapshot;
-import com.firebase.client.Firebase;
-import com.firebase.client.FirebaseError;
-import com.firebase.client.ValueEventListener;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class WorksiteViewActivity extends AppCompatActivity {
@@ -33,8 +37,8 @@ public class WorksiteViewActivity extends AppCompatActivity {
     private WorksiteView worksiteView;
     /** Name of worksite */
     private String worksiteName;
-    /** App Firebase reference */
-    private Firebase firebaseRef;
+    /** Realtime database the app syncs through */
+    private RealtimeStore store;
     /** Reference to shared preferences */
     private SharedPreferences prefs;
     /** The worksite we are viewing */
@@ -43,9 +47,22 @@ public class WorksiteViewActivity extends AppCompatActivity {
     Map<String, Worker> workers;
     /** The Machines in the Worksite */
     Map<String, Machine> machines;
-
-    private CollisionDetecter collisionDetecter;
-    private static final int COLLISION_DETECTION_RATE = 1000;
+    /** Collision detection, prediction and alert state of the worksite */
+    private WorksiteMonitor worksiteMonitor;
+    /** Re-evaluate collisions as positions arrive instead of recomputing every pair each tick */
+    private static final boolean INCREMENTAL_COLLISION_DETECTION = true;
+    private static final int MONITOR_TICK_RATE = 250;
+    private final Handler monitorHandler = new Handler();
+    /** Path of the streamed positions of the worksite, null until the worksite is loaded */
+    private String positionsPath;
+    /** Outbound writes, kept while offline */
+    private SyncQueue syncQueue;
+    /** Last alert value written to Firebase for each Worker/Machine ID */
+    private final Map<String, Boolean> publishedAlerts = new HashMap<>();
+    /** Alert changes waiting to go out in the next batch, keyed by Worker/Machine ID */
+    private final Map<String, Object> pendingAlerts = new HashMap<>();
+    /** Flag if flushAlerts is already posted */
+    private boolean alertFlushPosted = false;
 
 
     @Override
@@ -92,24 +109,36 @@ public class WorksiteViewActivity extends AppCompatActivity {
         });
 
         // Start loading worksite from Firebase
-        firebaseRef = new Firebase(getResources().getString(R.string.firebase_app));
+        store = VolvoCE.getStore();
+        syncQueue = SyncQueue.getInstance(this);
         Log.i(TAG, "Loading worksite from Firebase: " + worksiteName);
-        Firebase worksiteRef = firebaseRef.child("worksites").child(worksiteName);
-        if(worksiteRef != null) {
-            worksiteRef.addListenerForSingleValueEvent(worksiteListener);
-        } else {
-            Log.i(TAG, "Firebase worksite reference null: " + worksiteName);
-            showErrorDialog("Firebase worksite reference null: " + worksiteName);
-        }
+        store.addSingleValueListener("worksites/" + worksiteName, worksiteListener);
 
         workers = new HashMap<>();
         machines = new HashMap<>();
-        collisionDetecter = new CollisionDetecter(this);
-        Firebase alertThresholdRef = firebaseRef.child("alert_threshold"); // TODO: Test this
-        if(alertThresholdRef != null) {
-            alertThresholdRef.addValueEventListener(alertThresholdListener);
+        worksiteMonitor = new WorksiteMonitor(INCREMENTAL_COLLISION_DETECTION);
+        worksiteMonitor.setAlertListener(alertListener);
+        store.addValueListener("alert_threshold", alertThresholdListener); // TODO: Test this
+        store.addValueListener("alert_exit_margin", alertExitMarginListener);
+        store.addValueListener("hazard_envelopes", hazardEnvelopesListener);
+        store.addValueListener("prediction_horizon", predictionHorizonListener);
+        monitorHandler.postDelayed(monitorTick, MONITOR_TICK_RATE);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        monitorHandler.removeCallbacks(monitorTick);
+        monitorHandler.removeCallbacks(flushAlerts);
+        flushAlerts.run(); // Don't drop changes queued in the last tick
+        // The store would otherwise keep this activity and its monitor alive and fed
+        store.removeValueListener("alert_threshold", alertThresholdListener);
+        store.removeValueListener("alert_exit_margin", alertExitMarginListener);
+        store.removeValueListener("hazard_envelopes", hazardEnvelopesListener);
+        store.removeValueListener("prediction_horizon", predictionHorizonListener);
+        if(positionsPath != null) {
+            store.removeChildListener(positionsPath, positionsListener);
         }
-        new Handler().postDelayed(checkCollisions, COLLISION_DETECTION_RATE);
     }
 
     public Map<String,Worker> getWorkers() {
@@ -121,29 +150,65 @@ public class WorksiteViewActivity extends AppCompatActivity {
     }
 
     /**
-     * Runnable to open the worksite select activity after all data is loaded
+     * Runnable to tick the worksite monitor (persists until activity is destroyed...)
+     */
+    private final Runnable monitorTick = new Runnable() {
+        @Override
+        public void run() {
+            worksiteMonitor.tick(System.currentTimeMillis());
+            monitorHandler.postDelayed(monitorTick, MONITOR_TICK_RATE);
+        }
+    };
+
+    /**
+     * Listener to report alert transitions to Firebase
+     */
+    private final WorksiteMonitor.AlertListener alertListener = new WorksiteMonitor.AlertListener() {
+        @Override
+        public void onAlertChanged(String id, boolean alert) {
+            publishAlert(id, alert);
+        }
+    };
+
+    /**
+     * Queue an alert for Firebase if it differs from the last value published. Everything
+     * queued while handling one message (a tick or a burst of position updates) is sent
+     * together by flushAlerts.
+     * @param id Worker/Machine ID
+     * @param alert Alert value
+     */
+    private void publishAlert(String id, boolean alert) {
+        Boolean published = publishedAlerts.get(id);
+        if(published != null && published == alert) {
+            pendingAlerts.remove(id); // Changed back before it went out
+            return;
+        }
+        pendingAlerts.put(id, alert);
+        if(!alertFlushPosted) {
+            alertFlushPosted = true;
+            monitorHandler.post(flushAlerts);
+        }
+    }
+
+    /**
+     * Runnable to queue every alert change, sent together as one multi-path update
      */
-    private final Runnable checkCollisions = new Runnable() {
+    private final Runnable flushAlerts = new Runnable() {
         @Override
         public void run() {
-            Map<String, Boolean> collisions = collisionDetecter.detectCollisions(workers, machines);
-            for(Worker worker : workers.values()) {
-                Firebase alertRef = firebaseRef.child("alerts").child(worker.getID());
-                if(collisions.containsKey(worker.getID())) {
-                    alertRef.setValue(true);
-                } else {
-                    alertRef.setValue(false);
-                }
+            alertFlushPosted = false;
+            if(pendingAlerts.isEmpty()) {
+                return;
             }
-            for(Machine machine : machines.values()) {
-                Firebase alertRef = firebaseRef.child("alerts").child(machine.getID());
-                if(collisions.containsKey(machine.getID())) {
-                    alertRef.setValue(true);
-                } else {
-                    alertRef.setValue(false);
-                }
+            Map<String, Object> writes = new HashMap<>();
+            for(Map.Entry<String, Object> entry : pendingAlerts.entrySet()) {
+                publishedAlerts.put(entry.getKey(), (Boolean) entry.getValue());
+                writes.put("alerts/" + entry.getKey(), entry.getValue());
             }
-            new Handler().postDelayed(checkCollisions, COLLISION_DETECTION_RATE);
+            Log.d(TAG, "Publishing " + pendingAlerts.size() + " alert changes");
+            // Queued so alerts raised without a connection replay once it returns
+            syncQueue.writeAll(writes);
+            pendingAlerts.clear();
         }
     };
 
@@ -153,101 +218,198 @@ public class WorksiteViewActivity extends AppCompatActivity {
     /**
      * worksiteListener
      */
-    ValueEventListener worksiteListener = new ValueEventListener() {
+    RealtimeStore.ValueListener worksiteListener = new RealtimeStore.ValueListener() {
         @Override
-        public void onDataChange(DataSnapshot dataSnapshot) {
+        public void onDataChange(RealtimeStore.Snapshot dataSnapshot) {
+            if(isDestroyed()) {
+                return; // Arrived after onDestroy, the positions listener would never be removed
+            }
             if(dataSnapshot.getValue() == null) {
                 Log.i(TAG, "Worksite referenced from list, not found in worksites");
                 showErrorDialog("Worksite not found: ");
                 return;
             }
             thisWorksite = dataSnapshot.getValue(Worksite.class);
-            worksiteView.setWorksiteGPS(thisWorksite.getTopLeft(), thisWorksite.getBottomRight());
-            for(String workerID : thisWorksite.getWorkers().keySet()) {
-                Firebase workerRef = firebaseRef.child("workers").child(workerID);
-                if(workerRef != null) {
-                    workerRef.addValueEventListener(workerListener);
-                }
+            // Numeric bounds, or the legacy strings of worksites written before them
+            long topLeft = GPSCodec.read(thisWorksite.getTopE7(), thisWorksite.getLeftE7(),
+                    thisWorksite.getTopLeft());
+            long bottomRight = GPSCodec.read(thisWorksite.getBottomE7(), thisWorksite.getRightE7(),
+                    thisWorksite.getBottomRight());
+            worksiteView.setWorksiteGPS(topLeft, bottomRight);
+            // Measure distances in meters around the worksite centre
+            LocalProjection projection = LocalProjection.fromBounds(topLeft, bottomRight);
+            if(projection != null) {
+                worksiteMonitor.setProjection(projection);
             }
-            for(String machineID : thisWorksite.getMachines().keySet()) {
-                Firebase machineRef = firebaseRef.child("machines").child(machineID);
-                if(machineRef != null) {
-                    machineRef.addValueEventListener(machineListener);
-                }
-            }
-
+            // Stream every Worker/Machine position on the worksite from a single node
+            positionsPath = "positions/" + worksiteName;
+            store.addChildListener(positionsPath, positionsListener);
         }
 
         @Override
-        public void onCancelled(FirebaseError firebaseError) {
+        public void onCancelled(String error) {
             Log.i(TAG, "Couldn't download worksite list");
-            showErrorDialog(firebaseError.toString());
+            showErrorDialog(error);
         }
     };
 
     /**
-     * workerListener
+     * positionsListener
      */
-    ValueEventListener workerListener = new ValueEventListener() {
+    RealtimeStore.ChildListener positionsListener = new RealtimeStore.ChildListener() {
         @Override
-        public void onDataChange(DataSnapshot dataSnapshot) {
+        public void onChildAdded(RealtimeStore.Snapshot dataSnapshot) {
+            positionUpdated(dataSnapshot);
+        }
+
+        @Override
+        public void onChildChanged(RealtimeStore.Snapshot dataSnapshot) {
+            positionUpdated(dataSnapshot);
+        }
+
+        @Override
+        public void onChildRemoved(RealtimeStore.Snapshot dataSnapshot) {
+            String id = dataSnapshot.getKey();
+            Log.i(TAG, "positionsListener: " + id + " left the worksite");
+            // Stops it colliding and publishes alerts/<id> = false if it was alerting
+            worksiteMonitor.entityRemoved(id, System.currentTimeMillis());
+            if(workers.remove(id) != null) {
+                worksiteView.removeWorker(id);
+            }
+            if(machines.remove(id) != null) {
+                worksiteView.removeMachine(id);
+            }
+        }
+
+        @Override
+        public void onCancelled(String error) {
+            Log.i(TAG, "Couldn't stream worksite positions");
+            showErrorDialog(error);
+        }
+    };
+
+    /**
+     * Apply a Worker/Machine position from the worksite's positions node
+     * @param dataSnapshot Snapshot of positions/<worksite>/<id>
+     */
+    private void positionUpdated(RealtimeStore.Snapshot dataSnapshot) {
+        String id = dataSnapshot.getKey();
+        Position position = dataSnapshot.getValue(Position.class);
+        if(position == null) {
+            return;
+        }
+        if(Position.KIND_MACHINE.equals(position.getKind())) {
+            Machine machine = machines.get(id);
+            if(machine == null) {
+                machine = new Machine(id, position.getType());
+                machine.setWorksite(worksiteName);
+                machines.put(id, machine);
+            }
+            machine.setType(position.getType());
+            machine.setLatitudeE7(position.getLatitudeE7());
+            machine.setLongitudeE7(position.getLongitudeE7());
+            machine.setGPS(position.getGPS());
+            machine.setVelocity(position.getVelocity());
+            machine.setDirection(position.getDirection());
+            machine.setTimestamp(position.getTimestamp());
+            worksiteMonitor.machineUpdated(machine, System.currentTimeMillis());
+            worksiteView.setMachine(machine);
+        } else {
+            Worker worker = workers.get(id);
+            if(worker == null) {
+                worker = new Worker(id);
+                worker.setWorksite(worksiteName);
+                workers.put(id, worker);
+            }
+            worker.setLatitudeE7(position.getLatitudeE7());
+            worker.setLongitudeE7(position.getLongitudeE7());
+            worker.setGPS(position.getGPS());
+            worker.setVelocity(position.getVelocity());
+            worker.setDirection(position.getDirection());
+            worker.setTimestamp(position.getTimestamp());
+            worksiteMonitor.workerUpdated(worker, System.currentTimeMillis());
+            worksiteView.setWorker(worker);
+        }
+    }
+
+    /**
+     * alertThresholdListener
+     */
+    RealtimeStore.ValueListener alertThresholdListener = new RealtimeStore.ValueListener() {
+        @Override
+        public void onDataChange(RealtimeStore.Snapshot dataSnapshot) {
             if(dataSnapshot.getValue() == null) {
-                Log.i(TAG, "Worker referenced in worksite, not found in workers");
+                Log.i(TAG, "No value found in alert threshold in Firebase");
                 return;
             }
-            Worker worker = dataSnapshot.getValue(Worker.class);
-            workers.put(worker.getID(), worker);
-            worksiteView.setWorker(worker);
-            Log.i(TAG, "workerDownloadListener: " + worker.getID() + " added to database");
+            worksiteMonitor.setAlertThreshold(((Number) dataSnapshot.getValue()).doubleValue());
         }
 
         @Override
-        public void onCancelled(FirebaseError firebaseError) {
-            Log.i(TAG, "Couldn't download worker");
-            showErrorDialog(firebaseError.toString());
+        public void onCancelled(String error) {
+            Log.i(TAG, "Couldn't download alert threshold");
+            showErrorDialog(error);
         }
     };
 
     /**
-     * machineListener
+     * alertExitMarginListener
      */
-    ValueEventListener machineListener = new ValueEventListener() {
+    RealtimeStore.ValueListener alertExitMarginListener = new RealtimeStore.ValueListener() {
         @Override
-        public void onDataChange(DataSnapshot dataSnapshot) {
+        public void onDataChange(RealtimeStore.Snapshot dataSnapshot) {
             if(dataSnapshot.getValue() == null) {
-                Log.i(TAG, "Machine referenced in worksite, not found in machines");
+                Log.i(TAG, "No value found in alert exit margin in Firebase");
                 return;
             }
-            Machine machine = dataSnapshot.getValue(Machine.class);
-            machines.put(machine.getID(), machine);
-            worksiteView.setMachine(machine);
-            Log.i(TAG, "machineListener: " + machine.getID() + " added to database");
+            worksiteMonitor.setExitMargin(((Number) dataSnapshot.getValue()).doubleValue());
         }
 
         @Override
-        public void onCancelled(FirebaseError firebaseError) {
-            Log.i(TAG, "Couldn't download machine");
-            showErrorDialog(firebaseError.toString());
+        public void onCancelled(String error) {
+            Log.i(TAG, "Couldn't download alert exit margin");
+            showErrorDialog(error);
         }
     };
 
     /**
-     * alertThresholdListener
+     * hazardEnvelopesListener
+     */
+    RealtimeStore.ValueListener hazardEnvelopesListener = new RealtimeStore.ValueListener() {
+        @Override
+        public void onDataChange(RealtimeStore.Snapshot dataSnapshot) {
+            List<HazardEnvelope> envelopes = new ArrayList<>();
+            for(RealtimeStore.Snapshot envelopeSnapshot : dataSnapshot.getChildren()) {
+                envelopes.add(envelopeSnapshot.getValue(HazardEnvelope.class));
+            }
+            Log.i(TAG, "Loaded " + envelopes.size() + " hazard envelopes");
+            worksiteMonitor.setHazardEnvelopes(envelopes);
+        }
+
+        @Override
+        public void onCancelled(String error) {
+            Log.i(TAG, "Couldn't download hazard envelopes");
+            showErrorDialog(error);
+        }
+    };
+
+    /**
+     * predictionHorizonListener
      */
-    ValueEventListener alertThresholdListener = new ValueEventListener() {
+    RealtimeStore.ValueListener predictionHorizonListener = new RealtimeStore.ValueListener() {
         @Override
-        public void onDataChange(DataSnapshot dataSnapshot) {
+        public void onDataChange(RealtimeStore.Snapshot dataSnapshot) {
             if(dataSnapshot.getValue() == null) {
-                Log.i(TAG, "No value found in alert threshold in Firebase");
+                Log.i(TAG, "No value found in prediction horizon in Firebase");
                 return;
             }
-            collisionDetecter.setAlertThreshold ((double) dataSnapshot.getValue());
+            worksiteMonitor.setPredictionHorizon(((Number) dataSnapshot.getValue()).doubleValue());
         }
 
         @Override
-        public void onCancelled(FirebaseError firebaseError) {
-            Log.i(TAG, "Couldn't download alert threshold");
-            showErrorDialog(firebaseError.toString());
+        public void onCancelled(String error) {
+            Log.i(TAG, "Couldn't download prediction horizon");
+            showErrorDialog(error);
         }
     };
 
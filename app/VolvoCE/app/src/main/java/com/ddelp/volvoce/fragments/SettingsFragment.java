@@ -92,7 +92,7 @@ public class SettingsFragment extends Fragment{
                 updateUILocation(location);
             }
         };
-        locationHelper.setGPSListener(locationListener);
+        locationHelper.addGPSListener(locationListener);
 
         bConnect.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -148,6 +148,7 @@ public class SettingsFragment extends Fragment{
     public void onDestroyView() {
         super.onDestroyView();
         Log.d(TAG, "Removing callbacks from settings fragment here!");
+        locationHelper.removeGPSListener(locationListener);
     }
 
     public void updateUIConnectionStatus(final boolean connection) {
@@ -166,8 +167,10 @@ public class SettingsFragment extends Fragment{
         });
     }
 
-    public void updateUILocation(final Location location) {
+    public void updateUILocation(Location fix) {
         if(getActivity() == null) return;
+        // Fixes arrive on the location thread and the helper reuses the object, keep a copy
+        final Location location = new Location(fix);
         getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
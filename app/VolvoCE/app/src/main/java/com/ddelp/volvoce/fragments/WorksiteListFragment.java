@@ -41,11 +41,33 @@ public class WorksiteListFragment extends Fragment{
         // Inflate the layout for this fragment
         View rootView = inflater.inflate(R.layout.fragment_worksite_list, container, false);
 
-        // Load worksites into ListView
+        // Load worksites into ListView once they're read off the main thread
         worksiteSummaries = new ArrayList<>();
+        ListView rideHistoryView = (ListView) rootView.findViewById(R.id.worksite_list_view);
+        worksiteListAdapter = new WorksiteListAdapter(getActivity(), R.layout.worksite_list_row, worksiteSummaries);
+        rideHistoryView.setAdapter(worksiteListAdapter);
+        Log.i(TAG, "ListView adapter set");
+        rideHistoryView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> av, View v, int pos, long id) {
+                openWorksite(pos);
+            }
+        });
         databaseHelper = DatabaseHelper.getInstance(getActivity());
-        ArrayList<String> worksites = databaseHelper.getWorksiteList();
-        try {
+        databaseHelper.getWorksiteListAsync(worksiteListListener);
+        return rootView;
+    }
+
+    /**
+     * Listener filling the list with the worksite names read from the database
+     */
+    private final DatabaseHelper.ResultListener<ArrayList<String>> worksiteListListener =
+            new DatabaseHelper.ResultListener<ArrayList<String>>() {
+        @Override
+        public void onResult(ArrayList<String> worksites) {
+            if (!isAdded()) {
+                return;
+            }
             for(String worksiteName : worksites) {
                 WorksiteSummary worksiteSummary = new WorksiteSummary(R.drawable.worksite1, worksiteName);
                 if(worksiteName.contentEquals("worksite1")) {
@@ -57,21 +79,14 @@ public class WorksiteListFragment extends Fragment{
                 }
                 worksiteSummaries.add(worksiteSummary);
             }
-            ListView rideHistoryView = (ListView) rootView.findViewById(R.id.worksite_list_view);
-            worksiteListAdapter = new WorksiteListAdapter(getActivity(), R.layout.worksite_list_row, worksiteSummaries);
-            rideHistoryView.setAdapter(worksiteListAdapter);
-            Log.i(TAG, "ListView adapter set");
-            rideHistoryView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-                @Override
-                public void onItemClick(AdapterView<?> av, View v, int pos, long id) {
-                    openWorksite(pos);
-                }
-            });
-        } catch (Exception e) {
+            worksiteListAdapter.notifyDataSetChanged();
+        }
+
+        @Override
+        public void onError(Exception e) {
             Log.i(TAG, "Error generating worksite select list");
         }
-        return rootView;
-    }
+    };
 
        void openWorksite(int pos) {
            Log.i(TAG, getString(R.string.app_name) + ": Starting worksite view activity");
@@ -5,17 +5,36 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
 import com.ddelp.volvoce.objects.Worker;
 import com.ddelp.volvoce.objects.Worksite;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Helper to store and retrieve worksite and worker information in a
  * local SQLite database. Uses singleton instance to prevent memory leaks.
  *
+ * The database runs in write-ahead logging mode so reads don't wait on a
+ * write in progress. Writes from the UI should go through submitWrite, a
+ * single background writer that keeps them in order, and reads through
+ * submitRead; results come back on the main thread.
+ *
  * @author  Denny Delp
  * @version 1.0
  * @since   2016-05-5
@@ -29,12 +48,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
     // Database Info
     private static final String DATABASE_NAME = "VolvoCEDatabase";
-    private static final int DATABASE_VERSION = 1;
+    // 4: UNIQUE worksite names and worker IDs, index on the worker's worksite
+    private static final int DATABASE_VERSION = 4;
 
     // Table Names
     private static final String TABLE_WORKSITE_LIST = "worksiteList";
     private static final String TABLE_WORKSITES = "worksites";
     private static final String TABLE_WORKERS = "workers";
+    private static final String TABLE_PENDING_WRITES = "pendingWrites";
 
     // WorksiteList Table Columns
     private static final String KEY_WORKSITE_LIST_ID = "id";
@@ -43,14 +64,41 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     // Worksite Table Columns
     private static final String KEY_WORKSITE_ID = "id";
     private static final String KEY_WORKSITE_NAME = "worksiteName";
-    private static final String KEY_WORKSITE_TOP_LEFT_GPS = "worksiteTopLeftGPS";
-    private static final String KEY_WORKSITE_BOTTOM_RIGHT_GPS = "worksiteBottomRightGPS";
+    // Bounds in 1e-7 degree, see GPSCodec
+    private static final String KEY_WORKSITE_TOP = "worksiteTop";
+    private static final String KEY_WORKSITE_LEFT = "worksiteLeft";
+    private static final String KEY_WORKSITE_BOTTOM = "worksiteBottom";
+    private static final String KEY_WORKSITE_RIGHT = "worksiteRight";
 
     // Worker Table Columns
     private static final String KEY_WORKER_ID = "id";
     private static final String KEY_WORKER_NAME = "workerId";
     private static final String KEY_WORKER_WORKSITE_NAME = "workerWorksiteName";
-    private static final String KEY_WORKER_GPS = "workerGPS";
+    // Location in 1e-7 degree, see GPSCodec
+    private static final String KEY_WORKER_LATITUDE = "workerLatitude";
+    private static final String KEY_WORKER_LONGITUDE = "workerLongitude";
+
+    // PendingWrites Table Columns
+    private static final String KEY_PENDING_WRITE_ID = "id";
+    private static final String KEY_PENDING_WRITE_PATH = "path";
+    private static final String KEY_PENDING_WRITE_VALUE = "value";
+
+    // Indexes
+    private static final String INDEX_WORKER_WORKSITE = "workerWorksiteIndex";
+
+    // Upserts, compiled once on first use. Guarded by this
+    private SQLiteStatement worksiteListUpsert;
+    private SQLiteStatement worksiteUpsert;
+    private SQLiteStatement workerUpsert;
+    private SQLiteStatement workerAssign;
+
+    // Background threads, one writer so writes never contend and a few readers
+    private static final int READER_THREADS = 2;
+    private final ExecutorService writeExecutor =
+            Executors.newSingleThreadExecutor(new DatabaseThreadFactory("DatabaseWriter"));
+    private final ExecutorService readExecutor =
+            Executors.newFixedThreadPool(READER_THREADS, new DatabaseThreadFactory("DatabaseReader"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     // Call getInstance rather than regular constructor.. prevents memory leaks
     public static synchronized DatabaseHelper getInstance(Context context) {
@@ -75,37 +123,64 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public void onConfigure(SQLiteDatabase db) {
         super.onConfigure(db);
         db.setForeignKeyConstraintsEnabled(true);
+        // Readers get their own connections and see the last commit while a write is in progress
+        db.enableWriteAheadLogging();
     }
 
     // Called when the database is created for the FIRST time.
     // If a database already exists on disk with the same DATABASE_NAME, this method will NOT be called.
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createCacheTables(db);
+
+        // One row per path, a newer write to the same path replaces the row
+        String CREATE_PENDING_WRITES_TABLE = "CREATE TABLE " + TABLE_PENDING_WRITES +
+                "(" +
+                KEY_PENDING_WRITE_ID + " INTEGER PRIMARY KEY," +
+                KEY_PENDING_WRITE_PATH + " TEXT UNIQUE," +
+                KEY_PENDING_WRITE_VALUE + " TEXT" +
+                ")";
+        db.execSQL(CREATE_PENDING_WRITES_TABLE);
+    }
+
+    /**
+     * Create the tables caching Firebase data, which can be dropped and downloaded again
+     * @param db Database being created or upgraded
+     */
+    private void createCacheTables(SQLiteDatabase db) {
         String CREATE_WORKSITE_LIST_TABLE = "CREATE TABLE " + TABLE_WORKSITE_LIST +
                 "(" +
                 KEY_WORKSITE_LIST_ID + " INTEGER PRIMARY KEY," +
-                KEY_WORKSITE_LIST_NAME + " TEXT" +
+                KEY_WORKSITE_LIST_NAME + " TEXT NOT NULL UNIQUE" +
                 ")";
 
         String CREATE_WORKSITE_TABLE = "CREATE TABLE " + TABLE_WORKSITES +
                 "(" +
                 KEY_WORKSITE_ID + " INTEGER PRIMARY KEY," +
-                KEY_WORKSITE_NAME + " TEXT," +
-                KEY_WORKSITE_TOP_LEFT_GPS + " TEXT," +
-                KEY_WORKSITE_BOTTOM_RIGHT_GPS + " TEXT" +
+                KEY_WORKSITE_NAME + " TEXT NOT NULL UNIQUE," +
+                KEY_WORKSITE_TOP + " INTEGER," +
+                KEY_WORKSITE_LEFT + " INTEGER," +
+                KEY_WORKSITE_BOTTOM + " INTEGER," +
+                KEY_WORKSITE_RIGHT + " INTEGER" +
                 ")";
 
         String CREATE_WORKERS_TABLE = "CREATE TABLE " + TABLE_WORKERS +
                 "(" +
                 KEY_WORKER_ID + " INTEGER PRIMARY KEY," +
-                KEY_WORKER_NAME + " TEXT," +
+                KEY_WORKER_NAME + " TEXT NOT NULL UNIQUE," +
                 KEY_WORKER_WORKSITE_NAME + " TEXT," +
-                KEY_WORKER_GPS + " TEXT" +
+                KEY_WORKER_LATITUDE + " INTEGER," +
+                KEY_WORKER_LONGITUDE + " INTEGER" +
                 ")";
 
+        // Workers are looked up by worksite when a worksite is loaded
+        String CREATE_WORKER_WORKSITE_INDEX = "CREATE INDEX " + INDEX_WORKER_WORKSITE +
+                " ON " + TABLE_WORKERS + "(" + KEY_WORKER_WORKSITE_NAME + ")";
+
         db.execSQL(CREATE_WORKSITE_LIST_TABLE);
         db.execSQL(CREATE_WORKSITE_TABLE);
         db.execSQL(CREATE_WORKERS_TABLE);
+        db.execSQL(CREATE_WORKER_WORKSITE_INDEX);
     }
 
     // Called when the database needs to be upgraded.
@@ -113,43 +188,162 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     // but the DATABASE_VERSION is different than the version of the database that exists on disk.
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (oldVersion != newVersion) {
-            Log.w("DBAdapter", "Upgrading from version " + oldVersion + " to "
-                    + newVersion + ", destroy old data and recreate.");
-            // Simplest implementation is to drop all old table and recreate
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_WORKSITE_LIST);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_WORKSITES);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_WORKERS);
+        Log.w(TAG, "Upgrading from version " + oldVersion + " to " + newVersion);
+        if (oldVersion < 3) {
+            // Before the pending writes table, simplest is to drop all old tables and recreate
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_PENDING_WRITES);
+            dropCacheTables(db);
             onCreate(db);
+            return;
+        }
+        if (oldVersion < 4) {
+            // Constraints can't be added to existing tables, recreate the cache and keep pending writes
+            dropCacheTables(db);
+            createCacheTables(db);
+        }
+    }
+
+    /**
+     * Drop the tables caching Firebase data, they're filled again on the next download
+     * @param db Database being upgraded
+     */
+    private void dropCacheTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_WORKSITE_LIST);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_WORKSITES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_WORKERS);
+    }
+
+    //--------------------------------- BACKGROUND EXECUTORS ----------------------------------//
+
+    /**
+     * Run a write on the background writer, after every write submitted before it
+     * @param task Write to run, e.g. a call to syncWorksites
+     * @param listener Listener for the result on the main thread, may be null
+     * @return Future of the result
+     */
+    public <T> Future<T> submitWrite(Callable<T> task, ResultListener<T> listener) {
+        return submit(writeExecutor, task, listener);
+    }
+
+    /**
+     * Run a read on a background reader, concurrently with other reads and the writer
+     * @param task Read to run, e.g. a call to getWorksites
+     * @param listener Listener for the result on the main thread, may be null
+     * @return Future of the result
+     */
+    public <T> Future<T> submitRead(Callable<T> task, ResultListener<T> listener) {
+        return submit(readExecutor, task, listener);
+    }
+
+    /**
+     * syncWorksites on the background writer
+     * @param worksites Every worksite in the snapshot, with its workers
+     * @param listener Listener for the counts on the main thread, may be null
+     * @return Future of the counts
+     */
+    public Future<SyncResult> syncWorksitesAsync(final Collection<Worksite> worksites,
+                                                 ResultListener<SyncResult> listener) {
+        return submitWrite(new Callable<SyncResult>() {
+            @Override
+            public SyncResult call() {
+                return syncWorksites(worksites);
+            }
+        }, listener);
+    }
+
+    /**
+     * getWorksiteList on a background reader
+     * @param listener Listener for the worksite names on the main thread, may be null
+     * @return Future of the worksite names
+     */
+    public Future<ArrayList<String>> getWorksiteListAsync(ResultListener<ArrayList<String>> listener) {
+        return submitRead(new Callable<ArrayList<String>>() {
+            @Override
+            public ArrayList<String> call() {
+                return getWorksiteList();
+            }
+        }, listener);
+    }
+
+    private <T> Future<T> submit(ExecutorService executor, final Callable<T> task,
+                                 final ResultListener<T> listener) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    final T result = task.call();
+                    if (listener != null) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onResult(result);
+                            }
+                        });
+                    }
+                    return result;
+                } catch (final Exception e) {
+                    Log.d(TAG, "Background task Error: " + e.getMessage());
+                    if (listener != null) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onError(e);
+                            }
+                        });
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Interface definition for the result of a background task, called on the main thread
+     */
+    public interface ResultListener<T> {
+        public void onResult(T result);
+        public void onError(Exception e);
+    }
+
+    /**
+     * Names the background threads and keeps them below the UI thread's priority
+     */
+    private static class DatabaseThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DatabaseThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 
     //---------------------------- GETTERS/SETTERS FOR ALL TABLES -----------------------------//
 
     /**
-     * Add a worksite to the worksite list
+     * Add a worksite to the worksite list, if it isn't there already
      * @param worksiteName Worksite name
      */
-    public void addWorksiteToList(String worksiteName) {
+    public synchronized void addWorksiteToList(String worksiteName) {
         SQLiteDatabase db = getWritableDatabase();
-        db.beginTransaction();
         try {
-            ContentValues values = new ContentValues();
-            values.put(KEY_WORKSITE_LIST_NAME, worksiteName);
-            int rows = db.update(TABLE_WORKSITE_LIST, values, KEY_WORKSITE_LIST_NAME + "= ?",
-                    new String[]{worksiteName});
-            if (rows == 1) {
-                //Log.d(TAG, "Worksite successfully updated in list: " + worksiteName);
-            } else {
-                // Worksite with this name did not already exist, so insert new worksite
-                //Log.d(TAG, "Creating new worksite in list: " + worksiteName);
-                db.insertOrThrow(TABLE_WORKSITE_LIST, null, values);
-                db.setTransactionSuccessful();
-            }
+            SQLiteStatement statement = getWorksiteListUpsert(db);
+            statement.bindString(1, worksiteName);
+            statement.executeInsert();
         } catch (Exception e) {
             Log.d(TAG, "addWorksiteToList Error: " + worksiteName);
-        } finally {
-            db.endTransaction();
         }
     }
 
@@ -180,48 +374,46 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Insert or update a worker in the database
-     * Since SQLite doesn't support "upsert" we need to fall back on an attempt to UPDATE (in case the
-     * worker already exists) optionally followed by an INSERT (in case the user does not already exist).
-     * Unfortunately, there is a bug with the insertOnConflict method
-     * (https://code.google.com/p/android/issues/detail?id=13045) so we need to fall back to the more
-     * verbose option of querying for the user's primary key if we did an update.
+     * Insert or update a worksite in the database
+     * The worksite name is UNIQUE, so a single INSERT OR REPLACE through a precompiled statement
+     * replaces an existing row. ON CONFLICT DO UPDATE would keep the row id, but needs SQLite 3.24
+     * (Android 11), and nothing references the id.
      *
      * @param worksite Worksite to add or update
      */
-    public void addOrUpdateWorksite(Worksite worksite) {
-        // The database connection is cached so it's not expensive to call getWriteableDatabase()
-        // multiple times.
+    public synchronized void addOrUpdateWorksite(Worksite worksite) {
         SQLiteDatabase db = getWritableDatabase();
-        // It's a good idea to wrap our insert in a transaction. This helps with performance and ensures
-        // consistency of the database.
-        db.beginTransaction();
         try {
-            ContentValues values = new ContentValues();
-            values.put(KEY_WORKSITE_NAME, worksite.name);
-            values.put(KEY_WORKSITE_TOP_LEFT_GPS, worksite.getTopLeft());
-            values.put(KEY_WORKSITE_BOTTOM_RIGHT_GPS, worksite.getBottomRight());
-            // First try to update the worksite in case the it already exists in the database
-            // This assumes worksite names are unique
-            int rows = db.update(TABLE_WORKSITES, values, KEY_WORKER_NAME + "= ?", new String[]{worksite.name});
-
-            // Check if update succeeded
-            if (rows == 1) {
-                //Log.d(TAG, "Worksite successfully updated: " + worksite.name);
-            } else {
-                // Worksite with this name did not already exist, so insert new worksite
-                //Log.d(TAG, "Creating new worksite: " + worksite.name);
-                db.insertOrThrow(TABLE_WORKSITES, null, values);
-                db.setTransactionSuccessful();
-            }
-
+            bindWorksite(getWorksiteUpsert(db), worksite).executeInsert();
         } catch (Exception e) {
             Log.d(TAG, "addOrUpdateWorksite Error: " + worksite.getName());
-        } finally {
-            db.endTransaction();
         }
     }
 
+    /**
+     * Bind a worksite to the worksite upsert
+     * @param statement Statement from getWorksiteUpsert
+     * @param worksite Worksite to bind
+     * @return the statement
+     */
+    private SQLiteStatement bindWorksite(SQLiteStatement statement, Worksite worksite) {
+        statement.clearBindings();
+        statement.bindString(1, worksite.getName());
+        // Numeric bounds, or the legacy strings of worksites written before them
+        long topLeft = GPSCodec.read(worksite.getTopE7(), worksite.getLeftE7(), worksite.getTopLeft());
+        long bottomRight = GPSCodec.read(worksite.getBottomE7(), worksite.getRightE7(),
+                worksite.getBottomRight());
+        if (topLeft != GPSCodec.INVALID) {
+            statement.bindLong(2, GPSCodec.latitude(topLeft));
+            statement.bindLong(3, GPSCodec.longitude(topLeft));
+        }
+        if (bottomRight != GPSCodec.INVALID) {
+            statement.bindLong(4, GPSCodec.latitude(bottomRight));
+            statement.bindLong(5, GPSCodec.longitude(bottomRight));
+        }
+        return statement;
+    }
+
     /**
      * containsWorksite
      * @param worksite Worksite object to check
@@ -253,57 +445,65 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
     /**
      * getWorksite
-     * @return Worksite
+     * @return Worksite with its worker IDs, or null if it isn't stored
      */
     public Worksite getWorksite(String worksiteName) {
-        String WORKSITE_SELECT_QUERY = KEY_WORKSITE_NAME + "=?";
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.query(TABLE_WORKSITES, null, WORKSITE_SELECT_QUERY,
-                new String[] { worksiteName }, null, null, null);
-        try {
-            if (cursor.getCount() < 1) {
-                cursor.close();
-                return null;
-            }
-            String topLeft = cursor.getString(cursor.getColumnIndex(KEY_WORKSITE_TOP_LEFT_GPS));
-            String bottomRight = cursor.getString(cursor.getColumnIndex(KEY_WORKSITE_BOTTOM_RIGHT_GPS));
-            Worksite worksite = new Worksite(worksiteName, topLeft, bottomRight);
-            ArrayList<Worker> workers = getWorkers(worksiteName);
-            worksite.addWorkers(workers);
-            return worksite;
-        } catch (Exception e) {
-            Log.d(TAG, "getWorksite Error: " + worksiteName);
-            return null;
-        } finally {
-            if (cursor != null && !cursor.isClosed()) {
-                cursor.close();
-            }
-        }
+        ArrayList<Worksite> worksites = queryWorksites(
+                " WHERE w." + KEY_WORKSITE_NAME + "=?", new String[] { worksiteName });
+        return worksites.isEmpty() ? null : worksites.get(0);
     }
 
     /**
      * getWorksites
-     * @return ArrayList of worksites
+     * @return ArrayList of worksites with their worker IDs
      */
     public ArrayList<Worksite> getWorksites() {
+        return queryWorksites("", null);
+    }
+
+    /**
+     * Read worksites together with their worker IDs in one pass over a join, rather than one
+     * workers query per worksite. Rows of a worksite are adjacent since the join is ordered
+     * by worksite name. Not by id, since every upsert replaces the row and gives it a new one.
+     * @param where WHERE clause on the worksites table aliased w, empty for all worksites
+     * @param args Arguments of the WHERE clause
+     * @return ArrayList of worksites ordered by name
+     */
+    private ArrayList<Worksite> queryWorksites(String where, String[] args) {
         ArrayList<Worksite> worksites = new ArrayList<>();
-        String WORKSITES_SELECT_QUERY = "SELECT * FROM " + TABLE_WORKSITES;
+        String WORKSITES_SELECT_QUERY = "SELECT w." + KEY_WORKSITE_NAME + ", " +
+                KEY_WORKSITE_TOP + ", " + KEY_WORKSITE_LEFT + ", " +
+                KEY_WORKSITE_BOTTOM + ", " + KEY_WORKSITE_RIGHT + ", " + KEY_WORKER_NAME +
+                " FROM " + TABLE_WORKSITES + " w" +
+                " LEFT JOIN " + TABLE_WORKERS + " k ON k." + KEY_WORKER_WORKSITE_NAME + "=w." + KEY_WORKSITE_NAME +
+                where +
+                " ORDER BY w." + KEY_WORKSITE_NAME;
         SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery(WORKSITES_SELECT_QUERY, null);
+        Cursor cursor = db.rawQuery(WORKSITES_SELECT_QUERY, args);
         try {
-            if (cursor.moveToFirst()) {
-                do {
-                    String worksiteName = cursor.getString(cursor.getColumnIndex(KEY_WORKSITE_NAME));
-                    String topLeft = cursor.getString(cursor.getColumnIndex(KEY_WORKSITE_TOP_LEFT_GPS));
-                    String bottomRight = cursor.getString(cursor.getColumnIndex(KEY_WORKSITE_BOTTOM_RIGHT_GPS));
-                    Worksite worksite = new Worksite(worksiteName, topLeft, bottomRight);
-                    ArrayList<Worker> workers = getWorkers(worksiteName);
-                    worksite.addWorkers(workers);
+            int nameIndex = cursor.getColumnIndexOrThrow(KEY_WORKSITE_NAME);
+            int topIndex = cursor.getColumnIndexOrThrow(KEY_WORKSITE_TOP);
+            int leftIndex = cursor.getColumnIndexOrThrow(KEY_WORKSITE_LEFT);
+            int bottomIndex = cursor.getColumnIndexOrThrow(KEY_WORKSITE_BOTTOM);
+            int rightIndex = cursor.getColumnIndexOrThrow(KEY_WORKSITE_RIGHT);
+            int workerIndex = cursor.getColumnIndexOrThrow(KEY_WORKER_NAME);
+            Worksite worksite = null;
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(nameIndex);
+                if (worksite == null || !name.equals(worksite.getName())) {
+                    worksite = new Worksite(name);
+                    worksite.setTopE7(cursor.getInt(topIndex));
+                    worksite.setLeftE7(cursor.getInt(leftIndex));
+                    worksite.setBottomE7(cursor.getInt(bottomIndex));
+                    worksite.setRightE7(cursor.getInt(rightIndex));
                     worksites.add(worksite);
-                } while(cursor.moveToNext());
+                }
+                if (!cursor.isNull(workerIndex)) {
+                    worksite.addWorker(cursor.getString(workerIndex));
+                }
             }
         } catch (Exception e) {
-            Log.d(TAG, "Error while trying to get worksites from database");
+            Log.d(TAG, "Error while trying to get worksites from database: " + e.getMessage());
         } finally {
             if (cursor != null && !cursor.isClosed()) {
                 cursor.close();
@@ -313,57 +513,48 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     *
+     * Insert or update a worker in the database, see addOrUpdateWorksite
      * @param worker Worker to add or update
      */
-    public void addOrUpdateWorker(Worker worker) {
+    public synchronized void addOrUpdateWorker(Worker worker) {
         SQLiteDatabase db = getWritableDatabase();
-        db.beginTransaction();
         try {
-            ContentValues values = new ContentValues();
-            values.put(KEY_WORKER_NAME, worker.getID());
-            values.put(KEY_WORKER_WORKSITE_NAME, worker.getWorksite());
-            values.put(KEY_WORKER_GPS, worker.getGPS());
-            int rows = db.update(TABLE_WORKERS, values, KEY_WORKER_NAME + "= ?", new String[]{worker.getID()});
-            if (rows == 1) {
-                Log.d(TAG, "Worker successfully updated: " + worker.getID());
-            } else {
-                Log.d(TAG, "Creating new worker: " + worker.getID());
-                db.insertOrThrow(TABLE_WORKERS, null, values);
-                db.setTransactionSuccessful();
-            }
+            bindWorker(getWorkerUpsert(db), worker).executeInsert();
         } catch (Exception e) {
             Log.d(TAG, "addOrUpdateWorker Error: " + worker.getID());
-        } finally {
-            db.endTransaction();
         }
     }
 
+    /**
+     * Bind a worker to the worker upsert
+     * @param statement Statement from getWorkerUpsert
+     * @param worker Worker to bind
+     * @return the statement
+     */
+    private SQLiteStatement bindWorker(SQLiteStatement statement, Worker worker) {
+        statement.clearBindings();
+        statement.bindString(1, worker.getID());
+        if (worker.getWorksite() != null) {
+            statement.bindString(2, worker.getWorksite());
+        }
+        long location = GPSCodec.read(worker.getLatitudeE7(), worker.getLongitudeE7(), worker.getGPS());
+        if (location != GPSCodec.INVALID) {
+            statement.bindLong(3, GPSCodec.latitude(location));
+            statement.bindLong(4, GPSCodec.longitude(location));
+        }
+        return statement;
+    }
+
     /**
      * getWorker
      * @param id The workers id
-     * @return the Worker
+     * @return the Worker, or null if it isn't stored
      */
     public Worker getWorker(String id) {
-        String WORKER_SELECT_QUERY = KEY_WORKER_NAME + "=?";
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.query(TABLE_WORKERS, null, WORKER_SELECT_QUERY,
-                new String[] { id }, null, null, null);
-        try {
-            if (cursor.getCount() < 1) {
-                cursor.close();
-                return null;
-            }
-            String gps = cursor.getString(cursor.getColumnIndex(KEY_WORKER_GPS));
-            return new Worker(id, gps);
-        } catch (Exception e) {
-            Log.d(TAG, "Error trying to get worker from database: " + id);
-            return null;
-        } finally {
-            if (cursor != null && !cursor.isClosed()) {
-                cursor.close();
-            }
-        }
+        String SELECT_QUERY = "SELECT * FROM " + TABLE_WORKERS +
+                " WHERE " + KEY_WORKER_NAME + "=?";
+        ArrayList<Worker> workers = getWorkerQuery(SELECT_QUERY, new String[] { id });
+        return workers.isEmpty() ? null : workers.get(0);
     }
 
     /**
@@ -372,7 +563,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     public ArrayList<Worker> getWorkers() {
         String SELECT_QUERY = "SELECT * FROM " + TABLE_WORKERS;
-        return getWorkerQuery(SELECT_QUERY);
+        return getWorkerQuery(SELECT_QUERY, null);
     }
 
     /**
@@ -382,36 +573,273 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     public ArrayList<Worker> getWorkers(String worksiteName) {
         String SELECT_QUERY = "SELECT * FROM " + TABLE_WORKERS +
-                " WHERE " + KEY_WORKSITE_NAME + "=" + worksiteName;
-        return getWorkerQuery(SELECT_QUERY);
+                " WHERE " + KEY_WORKER_WORKSITE_NAME + "=?";
+        return getWorkerQuery(SELECT_QUERY, new String[] { worksiteName });
     }
 
     /**
      * getWorkerQuery
-     * @param query Structured database query
+     * @param query Structured database query over the workers table
+     * @param args Arguments of the query
      * @return ArrayList of Workers
      */
-    private ArrayList<Worker> getWorkerQuery (String query) {
+    private ArrayList<Worker> getWorkerQuery(String query, String[] args) {
         ArrayList<Worker> workers = new ArrayList<>();
         SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery(query, null);
+        Cursor cursor = db.rawQuery(query, args);
+        try {
+            int idIndex = cursor.getColumnIndexOrThrow(KEY_WORKER_NAME);
+            int worksiteIndex = cursor.getColumnIndexOrThrow(KEY_WORKER_WORKSITE_NAME);
+            int latitudeIndex = cursor.getColumnIndexOrThrow(KEY_WORKER_LATITUDE);
+            int longitudeIndex = cursor.getColumnIndexOrThrow(KEY_WORKER_LONGITUDE);
+            while (cursor.moveToNext()) {
+                Worker worker = new Worker(cursor.getString(idIndex));
+                worker.setWorksite(cursor.getString(worksiteIndex));
+                worker.setLatitudeE7(cursor.getInt(latitudeIndex));
+                worker.setLongitudeE7(cursor.getInt(longitudeIndex));
+                workers.add(worker);
+            }
+        } catch (Exception e) {
+            Log.d(TAG, "getWorkerQuery Error: " + query);
+        } finally {
+            if (cursor != null && !cursor.isClosed()) {
+                cursor.close();
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * Make the worksite list, worksites and workers match a downloaded snapshot of all worksites,
+     * in one transaction. Worksites and workers missing from the snapshot are deleted, workers
+     * already stored keep their last known location.
+     *
+     * @param worksites Every worksite in the snapshot, with its workers
+     * @return counts of rows added, updated and deleted, or null if the sync failed and was rolled back
+     */
+    public synchronized SyncResult syncWorksites(Collection<Worksite> worksites) {
+        SyncResult result = new SyncResult();
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement deleteListed = null;
+        SQLiteStatement deleteWorksite = null;
+        SQLiteStatement deleteWorker = null;
+        db.beginTransaction();
+        try {
+            Set<String> staleListed = queryKeys(db, TABLE_WORKSITE_LIST, KEY_WORKSITE_LIST_NAME);
+            Set<String> staleWorksites = queryKeys(db, TABLE_WORKSITES, KEY_WORKSITE_NAME);
+            Set<String> staleWorkers = queryKeys(db, TABLE_WORKERS, KEY_WORKER_NAME);
+            Set<String> syncedWorkers = new HashSet<>();
+            SQLiteStatement listUpsert = getWorksiteListUpsert(db);
+            SQLiteStatement worksiteUpsert = getWorksiteUpsert(db);
+            SQLiteStatement workerAssign = getWorkerAssign(db);
+            for (Worksite worksite : worksites) {
+                String name = worksite.getName();
+                if (staleWorksites.remove(name)) {
+                    result.worksitesUpdated++;
+                } else {
+                    result.worksitesAdded++;
+                }
+                bindWorksite(worksiteUpsert, worksite).executeInsert();
+                if (!staleListed.remove(name)) {
+                    listUpsert.bindString(1, name);
+                    listUpsert.executeInsert();
+                }
+                if (worksite.getWorkers() == null) {
+                    continue;
+                }
+                for (String id : worksite.getWorkers().keySet()) {
+                    if (!syncedWorkers.add(id)) {
+                        continue; // Listed on two worksites, the first one wins
+                    }
+                    if (staleWorkers.remove(id)) {
+                        result.workersUpdated++;
+                    } else {
+                        result.workersAdded++;
+                    }
+                    workerAssign.bindString(1, id);
+                    workerAssign.bindString(2, name);
+                    workerAssign.bindString(3, id);
+                    workerAssign.bindString(4, id);
+                    workerAssign.executeInsert();
+                }
+            }
+
+            deleteListed = db.compileStatement("DELETE FROM " + TABLE_WORKSITE_LIST +
+                    " WHERE " + KEY_WORKSITE_LIST_NAME + "=?");
+            for (String name : staleListed) {
+                deleteListed.bindString(1, name);
+                deleteListed.executeUpdateDelete();
+            }
+            deleteWorksite = db.compileStatement("DELETE FROM " + TABLE_WORKSITES +
+                    " WHERE " + KEY_WORKSITE_NAME + "=?");
+            for (String name : staleWorksites) {
+                deleteWorksite.bindString(1, name);
+                result.worksitesDeleted += deleteWorksite.executeUpdateDelete();
+            }
+            deleteWorker = db.compileStatement("DELETE FROM " + TABLE_WORKERS +
+                    " WHERE " + KEY_WORKER_NAME + "=?");
+            for (String id : staleWorkers) {
+                deleteWorker.bindString(1, id);
+                result.workersDeleted += deleteWorker.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+            Log.d(TAG, "syncWorksites: " + result);
+            return result;
+        } catch (Exception e) {
+            Log.d(TAG, "syncWorksites Error: " + e.getMessage());
+            return null;
+        } finally {
+            db.endTransaction();
+            closeStatement(deleteListed);
+            closeStatement(deleteWorksite);
+            closeStatement(deleteWorker);
+        }
+    }
+
+    /**
+     * Counts of rows changed by syncWorksites
+     */
+    public static class SyncResult {
+        public int worksitesAdded;
+        public int worksitesUpdated;
+        public int worksitesDeleted;
+        public int workersAdded;
+        public int workersUpdated;
+        public int workersDeleted;
+
+        @Override
+        public String toString() {
+            return "worksites +" + worksitesAdded + " ~" + worksitesUpdated + " -" + worksitesDeleted +
+                    ", workers +" + workersAdded + " ~" + workersUpdated + " -" + workersDeleted;
+        }
+    }
+
+    /**
+     * @param db Database to read
+     * @param table Table to read
+     * @param column Unique key column
+     * @return every key in the table
+     */
+    private Set<String> queryKeys(SQLiteDatabase db, String table, String column) {
+        Set<String> keys = new HashSet<>();
+        Cursor cursor = db.query(table, new String[] { column }, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                keys.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return keys;
+    }
+
+    private void closeStatement(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+    }
+
+    /**
+     * Insert or replace the queued write to a Firebase path
+     * @param path Path from the database root
+     * @param value Value encoded by SyncQueue
+     */
+    public void addOrUpdatePendingWrite(String path, String value) {
+        SQLiteDatabase db = getWritableDatabase();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(KEY_PENDING_WRITE_PATH, path);
+            values.put(KEY_PENDING_WRITE_VALUE, value);
+            // The path is UNIQUE, so this replaces an older write and moves it to the back
+            db.replaceOrThrow(TABLE_PENDING_WRITES, null, values);
+        } catch (Exception e) {
+            Log.d(TAG, "addOrUpdatePendingWrite Error: " + path);
+        }
+    }
+
+    /**
+     * getPendingWrites
+     * @return Map of path to encoded value, oldest first
+     */
+    public LinkedHashMap<String, String> getPendingWrites() {
+        LinkedHashMap<String, String> writes = new LinkedHashMap<>();
+        String SELECT_QUERY = "SELECT * FROM " + TABLE_PENDING_WRITES +
+                " ORDER BY " + KEY_PENDING_WRITE_ID;
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(SELECT_QUERY, null);
         try {
             if (cursor.moveToFirst()) {
+                int pathIndex = cursor.getColumnIndex(KEY_PENDING_WRITE_PATH);
+                int valueIndex = cursor.getColumnIndex(KEY_PENDING_WRITE_VALUE);
                 do {
-                    String id = cursor.getString(cursor.getColumnIndex(KEY_WORKER_NAME));
-                    String gps = cursor.getString(cursor.getColumnIndex(KEY_WORKER_GPS));
-                    Worker worker = new Worker(id, gps);
-                    workers.add(worker);
+                    writes.put(cursor.getString(pathIndex), cursor.getString(valueIndex));
                 } while(cursor.moveToNext());
             }
         } catch (Exception e) {
-            Log.d(TAG, "getWorkerQuery Error" + query);
+            Log.d(TAG, "Error while trying to get pending writes from database");
         } finally {
             if (cursor != null && !cursor.isClosed()) {
                 cursor.close();
             }
         }
-        return workers;
+        return writes;
+    }
+
+    /**
+     * deletePendingWrite
+     * @param path Path of the write the server acknowledged
+     * @return Number of table entries deleted
+     */
+    public int deletePendingWrite(String path) {
+        SQLiteDatabase db = getWritableDatabase();
+        try {
+            return db.delete(TABLE_PENDING_WRITES, KEY_PENDING_WRITE_PATH + "=?", new String[] { path });
+        } catch (Exception e) {
+            Log.d(TAG, "deletePendingWrite Error: " + path);
+            return 0;
+        }
+    }
+
+    //---------------------------------- PRECOMPILED UPSERTS -----------------------------------//
+
+    private SQLiteStatement getWorksiteListUpsert(SQLiteDatabase db) {
+        if (worksiteListUpsert == null) {
+            worksiteListUpsert = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_WORKSITE_LIST +
+                    "(" + KEY_WORKSITE_LIST_NAME + ") VALUES (?)");
+        }
+        return worksiteListUpsert;
+    }
+
+    private SQLiteStatement getWorksiteUpsert(SQLiteDatabase db) {
+        if (worksiteUpsert == null) {
+            worksiteUpsert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_WORKSITES +
+                    "(" + KEY_WORKSITE_NAME + "," + KEY_WORKSITE_TOP + "," + KEY_WORKSITE_LEFT + "," +
+                    KEY_WORKSITE_BOTTOM + "," + KEY_WORKSITE_RIGHT + ") VALUES (?,?,?,?,?)");
+        }
+        return worksiteUpsert;
+    }
+
+    private SQLiteStatement getWorkerUpsert(SQLiteDatabase db) {
+        if (workerUpsert == null) {
+            workerUpsert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_WORKERS +
+                    "(" + KEY_WORKER_NAME + "," + KEY_WORKER_WORKSITE_NAME + "," +
+                    KEY_WORKER_LATITUDE + "," + KEY_WORKER_LONGITUDE + ") VALUES (?,?,?,?)");
+        }
+        return workerUpsert;
+    }
+
+    // Moves a worker to a worksite, keeping the location it already has
+    private SQLiteStatement getWorkerAssign(SQLiteDatabase db) {
+        if (workerAssign == null) {
+            workerAssign = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_WORKERS +
+                    "(" + KEY_WORKER_NAME + "," + KEY_WORKER_WORKSITE_NAME + "," +
+                    KEY_WORKER_LATITUDE + "," + KEY_WORKER_LONGITUDE + ") VALUES (?,?," +
+                    "(SELECT " + KEY_WORKER_LATITUDE + " FROM " + TABLE_WORKERS +
+                    " WHERE " + KEY_WORKER_NAME + "=?)," +
+                    "(SELECT " + KEY_WORKER_LONGITUDE + " FROM " + TABLE_WORKERS +
+                    " WHERE " + KEY_WORKER_NAME + "=?))");
+        }
+        return workerAssign;
     }
 
     //--------------------------- ABSTRACTED HELPERS FOR ALL TABLES ---------------------------//
@@ -460,7 +888,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         SQLiteDatabase db = getWritableDatabase();
         db.beginTransaction();
         try {
-            return db.delete(table, query, new String[] { id });
+            int rows = db.delete(table, query, new String[] { id });
+            db.setTransactionSuccessful();
+            return rows;
         } catch (Exception e) {
             Log.d(TAG, "deleteTableEntry Error: " + table + ", " + id);
             return 0;
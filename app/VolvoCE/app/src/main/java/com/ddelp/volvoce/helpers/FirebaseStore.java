@@ -0,0 +1,211 @@
+package com.ddelp.volvoce.helpers;
+
+import com.firebase.client.ChildEventListener;
+import com.firebase.client.DataSnapshot;
+import com.firebase.client.Firebase;
+import com.firebase.client.FirebaseError;
+import com.firebase.client.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RealtimeStore backed by the Firebase client. Callbacks arrive on the
+ * main thread, as with Firebase itself.
+ */
+public class FirebaseStore implements RealtimeStore {
+
+    /** Firebase database root */
+    private final Firebase firebaseRef;
+    /** Firebase listener wrapping each registered listener, keyed by path and listener */
+    private final Map<Registration, Object> firebaseListeners = new HashMap<>();
+
+    /**
+     * @param firebaseRef Firebase database root
+     */
+    public FirebaseStore(Firebase firebaseRef) {
+        this.firebaseRef = firebaseRef;
+    }
+
+    /**
+     * @return the Firebase database root, for calls outside RealtimeStore such as authentication
+     */
+    public Firebase getFirebase() {
+        return firebaseRef;
+    }
+
+    @Override
+    public void setValue(String path, Object value) {
+        ref(path).setValue(value);
+    }
+
+    @Override
+    public void setValue(String path, Object value, CompletionListener listener) {
+        ref(path).setValue(value, wrap(listener));
+    }
+
+    @Override
+    public void updateChildren(String path, Map<String, Object> update, CompletionListener listener) {
+        ref(path).updateChildren(update, wrap(listener));
+    }
+
+    @Override
+    public void addValueListener(String path, ValueListener listener) {
+        ValueEventListener firebaseListener = wrap(listener);
+        firebaseListeners.put(new Registration(path, listener), firebaseListener);
+        ref(path).addValueEventListener(firebaseListener);
+    }
+
+    @Override
+    public void addSingleValueListener(String path, ValueListener listener) {
+        ref(path).addListenerForSingleValueEvent(wrap(listener));
+    }
+
+    @Override
+    public void removeValueListener(String path, ValueListener listener) {
+        Object firebaseListener = firebaseListeners.remove(new Registration(path, listener));
+        if (firebaseListener != null) {
+            ref(path).removeEventListener((ValueEventListener) firebaseListener);
+        }
+    }
+
+    @Override
+    public void addChildListener(String path, final ChildListener listener) {
+        ChildEventListener firebaseListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+                listener.onChildAdded(new FirebaseSnapshot(dataSnapshot));
+            }
+
+            @Override
+            public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+                listener.onChildChanged(new FirebaseSnapshot(dataSnapshot));
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot dataSnapshot) {
+                listener.onChildRemoved(new FirebaseSnapshot(dataSnapshot));
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+            }
+
+            @Override
+            public void onCancelled(FirebaseError firebaseError) {
+                listener.onCancelled(firebaseError.toString());
+            }
+        };
+        firebaseListeners.put(new Registration(path, listener), firebaseListener);
+        ref(path).addChildEventListener(firebaseListener);
+    }
+
+    @Override
+    public void removeChildListener(String path, ChildListener listener) {
+        Object firebaseListener = firebaseListeners.remove(new Registration(path, listener));
+        if (firebaseListener != null) {
+            ref(path).removeEventListener((ChildEventListener) firebaseListener);
+        }
+    }
+
+    /********************************** Adapter helpers **********************************/
+
+    private Firebase ref(String path) {
+        return path.isEmpty() ? firebaseRef : firebaseRef.child(path);
+    }
+
+    private static ValueEventListener wrap(final ValueListener listener) {
+        return new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                listener.onDataChange(new FirebaseSnapshot(dataSnapshot));
+            }
+
+            @Override
+            public void onCancelled(FirebaseError firebaseError) {
+                listener.onCancelled(firebaseError.toString());
+            }
+        };
+    }
+
+    private static Firebase.CompletionListener wrap(final CompletionListener listener) {
+        if (listener == null) {
+            return null;
+        }
+        return new Firebase.CompletionListener() {
+            @Override
+            public void onComplete(FirebaseError firebaseError, Firebase firebase) {
+                listener.onComplete(firebaseError != null ? firebaseError.getMessage() : null);
+            }
+        };
+    }
+
+    /**
+     * Snapshot over a Firebase DataSnapshot
+     */
+    private static class FirebaseSnapshot implements Snapshot {
+        private final DataSnapshot dataSnapshot;
+
+        FirebaseSnapshot(DataSnapshot dataSnapshot) {
+            this.dataSnapshot = dataSnapshot;
+        }
+
+        @Override
+        public String getKey() {
+            return dataSnapshot.getKey();
+        }
+
+        @Override
+        public Object getValue() {
+            return dataSnapshot.getValue();
+        }
+
+        @Override
+        public <T> T getValue(Class<T> type) {
+            return dataSnapshot.getValue(type);
+        }
+
+        @Override
+        public boolean exists() {
+            return dataSnapshot.exists();
+        }
+
+        @Override
+        public Iterable<Snapshot> getChildren() {
+            List<Snapshot> children = new ArrayList<>();
+            for (DataSnapshot child : dataSnapshot.getChildren()) {
+                children.add(new FirebaseSnapshot(child));
+            }
+            return children;
+        }
+    }
+
+    /**
+     * Path and listener a Firebase listener was registered for
+     */
+    private static class Registration {
+        private final String path;
+        private final Object listener;
+
+        Registration(String path, Object listener) {
+            this.path = path;
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Registration)) {
+                return false;
+            }
+            Registration other = (Registration) o;
+            return path.equals(other.path) && listener == other.listener;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode() + System.identityHashCode(listener);
+        }
+    }
+}
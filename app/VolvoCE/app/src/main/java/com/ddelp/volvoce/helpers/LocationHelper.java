@@ -9,13 +9,30 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.support.v4.app.ActivityCompat;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 
 /**
  * http://stackoverflow.com/questions/1513485/how-do-i-get-the-current-gps-location-programmatically-in-android
+ *
+ * Fixes from the GPS and network providers are fused by a LocationFilter
+ * weighted by their accuracy, so the location handed out is smoothed and
+ * carries the filter's speed and bearing rather than either raw fix.
+ *
+ * Fixes are delivered on a background thread and pushed to every registered
+ * GPSListener as soon as they are fused, so listeners must not block and
+ * must hop to the main thread themselves to touch views.
  */
 public class LocationHelper extends Service {
 
@@ -29,19 +46,40 @@ public class LocationHelper extends Service {
     boolean isGPSEnabled = false;
     /** Flag if network location is enabled */
     boolean isNetworkEnabled = false;
-    /** Location */
-    private Location currentBestLocation;
-    /** The minimum distance to change Updates in meters */
-    private static final long MIN_DISTANCE_CHANGE = 0;
-    /** The minimum time between updates in milliseconds */
+    /** Newest fused location, null until the first fix */
+    private volatile Location currentBestLocation;
+    /** Fuses the providers' fixes */
+    private final LocationFilter filter = new LocationFilter();
+    /** Reused for every fused fix so a fix allocates nothing */
+    private final Location fusedLocation = new Location(FUSED_PROVIDER);
+    /** The minimum distance to change Updates in meters until setUpdateInterval is called */
+    private static final float MIN_DISTANCE_CHANGE = 0;
+    /** The minimum time between updates in milliseconds until setUpdateInterval is called */
     private static final long MIN_TIME_CHANGE = 0;
+    /** Current minimum time between updates in milliseconds */
+    private long updateInterval = MIN_TIME_CHANGE;
+    /** Current minimum distance between updates in meters */
+    private float updateDistance = MIN_DISTANCE_CHANGE;
+    /** Flag if the providers are registered */
+    private boolean requesting = false;
     /** Location Manager for this service */
     protected LocationManager locationManager;
 
-    /** Listener for gps callbacks */
-    private GPSListener listener;
+    /** Listeners for gps callbacks */
+    private final List<GPSListener> listeners = new CopyOnWriteArrayList<>();
+    /** Thread the providers deliver fixes on */
+    private final HandlerThread locationThread;
+    /** Handler running replays on the location thread */
+    private final Handler locationHandler;
+    /** Trace raw fixes are recorded to, null when not recording */
+    private LocationTrace.Writer traceWriter;
+    /** Replay in progress, null while live */
+    private volatile TraceReplayer replayer;
+    /** Reused for every replayed fix */
+    private final Location replayLocation = new Location(LocationManager.GPS_PROVIDER);
 
-    private static final int TWO_MINUTES = 1000 * 60 * 2;
+    /** Provider name of the fused location */
+    public static final String FUSED_PROVIDER = "fused";
 
     /**
      * Call getInstance to prevent memory leaks.
@@ -63,7 +101,9 @@ public class LocationHelper extends Service {
      */
     private LocationHelper(Context context) {
         this.context = context;
-        this.listener = null;
+        locationThread = new HandlerThread(TAG);
+        locationThread.start();
+        locationHandler = new Handler(locationThread.getLooper());
         getLocation();
     }
 
@@ -72,7 +112,7 @@ public class LocationHelper extends Service {
      *
      * @return Location of device
      */
-    public Location getLocation() {
+    public synchronized Location getLocation() {
         Location location = null;
 
         if (ActivityCompat.checkSelfPermission(context.getApplicationContext(),
@@ -92,9 +132,8 @@ public class LocationHelper extends Service {
             if (!isGPSEnabled && !isNetworkEnabled) {
                 Log.i(TAG, "GPS and Network provider disabled. Can't get location");
             } else {
+                requestUpdates();
                 if (isNetworkEnabled) {
-                    locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER,
-                            MIN_TIME_CHANGE, MIN_DISTANCE_CHANGE, locationListenerNetwork);
                     if (locationManager != null) {
                         location = locationManager
                                 .getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
@@ -102,8 +141,6 @@ public class LocationHelper extends Service {
                 }
                 // If GPS enabled, get latitude/longitude using GPS Services
                 if (isGPSEnabled) {
-                    locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER,
-                                MIN_TIME_CHANGE, MIN_DISTANCE_CHANGE, locationListenerGps);
                     if (locationManager != null) {
                         location = locationManager
                                 .getLastKnownLocation(LocationManager.GPS_PROVIDER);
@@ -116,15 +153,82 @@ public class LocationHelper extends Service {
         return location;
     }
 
+    /**
+     * @return handler on the location thread the GPSListeners are called on, for
+     * periodic work that shouldn't race them
+     */
+    public Handler getLocationHandler() {
+        return locationHandler;
+    }
+
+    /**
+     * @return a copy of the newest fused location, or null before the first fix
+     */
     public Location getCurrentBestLocation() {
-        return currentBestLocation;
+        Location location = currentBestLocation;
+        if (location == null) {
+            return null;
+        }
+        synchronized (location) {
+            return new Location(location);
+        }
+    }
+
+    /**
+     * Change how often the providers deliver fixes
+     *
+     * @param milliseconds Minimum time between fixes, e.g. from a SamplingPolicy
+     */
+    public void setUpdateInterval(long milliseconds) {
+        setUpdateInterval(milliseconds, MIN_DISTANCE_CHANGE);
+    }
+
+    /**
+     * Change how often the providers deliver fixes. The providers are only
+     * re-registered when the interval or distance actually changes, since that
+     * restarts their scheduling.
+     *
+     * @param milliseconds Minimum time between fixes, e.g. from a SamplingPolicy
+     * @param meters Minimum movement between fixes, 0 for fixes regardless of movement
+     */
+    public synchronized void setUpdateInterval(long milliseconds, float meters) {
+        if (milliseconds == updateInterval && meters == updateDistance) {
+            return;
+        }
+        updateInterval = milliseconds;
+        updateDistance = meters;
+        if (requesting) {
+            Log.i(TAG, "Taking fixes every " + milliseconds + " ms and " + meters + " m");
+            try {
+                requestUpdates();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Register the enabled providers at the current interval, replacing any earlier request
+     */
+    private void requestUpdates() {
+        if (isNetworkEnabled) {
+            locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER,
+                    updateInterval, updateDistance, locationListenerNetwork,
+                    locationThread.getLooper());
+        }
+        if (isGPSEnabled) {
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER,
+                    updateInterval, updateDistance, locationListenerGps,
+                    locationThread.getLooper());
+        }
+        requesting = true;
     }
 
     /**
      * Stop using GPS listener
      * Calling this function will stop using GPS in your app.
      **/
-    public void stopUsingGPS() {
+    public synchronized void stopUsingGPS() {
         if (locationManager != null) {
             if (ActivityCompat.checkSelfPermission(context.getApplicationContext(),
                     Manifest.permission.ACCESS_FINE_LOCATION)
@@ -137,6 +241,8 @@ public class LocationHelper extends Service {
             Log.i(TAG, "Removing updates from location manager");
             locationManager.removeUpdates(locationListenerGps);
             locationManager.removeUpdates(locationListenerNetwork);
+            requesting = false;
+            filter.reset(); // Fixes after a restart may be far from the old estimate
         } else {
             Log.i(TAG, "Location manager was null, no updates to remove");
         }
@@ -144,14 +250,8 @@ public class LocationHelper extends Service {
 
     LocationListener locationListenerGps = new LocationListener() {
         public void onLocationChanged(Location location) {
-            if(isBestLocation(location)) {
-//                Log.i(TAG, "New Best GPS location: " +
-//                        location.getLatitude() + ", " + location.getLongitude());
-                currentBestLocation = location;
-                if(listener != null) {
-                    listener.onGPSChanged(location);
-                }
-            }
+            record(location);
+            onFix(location);
         }
         public void onProviderDisabled(String provider) {}
         public void onProviderEnabled(String provider) {}
@@ -160,14 +260,8 @@ public class LocationHelper extends Service {
 
     LocationListener locationListenerNetwork = new LocationListener() {
         public void onLocationChanged(Location location) {
-            if(isBestLocation(location)) {
-//                Log.i(TAG, "New Best Network location: " +
-//                        location.getLatitude() + ", " + location.getLongitude());
-                currentBestLocation = location;
-                if(listener != null) {
-                    listener.onGPSChanged(location);
-                }
-            }
+            record(location);
+            onFix(location);
         }
         public void onProviderDisabled(String provider) {}
         public void onProviderEnabled(String provider) {}
@@ -179,59 +273,178 @@ public class LocationHelper extends Service {
         return null;
     }
 
-    /********************************** Best Location Checker **********************************/
+    /********************************** Trace Record/Replay **********************************/
 
-    /** Determines whether one Location reading is better than the current Location fix
-     * @param location  The new Location that you want to evaluate
+    /**
+     * Record every raw fix from both providers to a LocationTrace, replacing
+     * any recording in progress
+     *
+     * @param file File to write the trace to
+     * @return flag if recording started
      */
-    protected boolean isBestLocation(Location location) {
-        if (currentBestLocation == null) {
-            // A new location is always better than no location
+    public synchronized boolean startRecording(File file) {
+        stopRecording();
+        try {
+            traceWriter = new LocationTrace.Writer(new FileOutputStream(file));
+            Log.i(TAG, "Recording fixes to " + file);
             return true;
+        } catch (IOException e) {
+            Log.i(TAG, "Couldn't start recording to " + file + ": " + e.getMessage());
+            return false;
         }
+    }
 
-        // Check whether the new location fix is newer or older
-        long timeDelta = location.getTime() - currentBestLocation.getTime();
-        boolean isSignificantlyNewer = timeDelta > TWO_MINUTES;
-        boolean isSignificantlyOlder = timeDelta < -TWO_MINUTES;
-        boolean isNewer = timeDelta > 0;
+    /**
+     * Stop recording and close the trace
+     */
+    public synchronized void stopRecording() {
+        if (traceWriter == null) {
+            return;
+        }
+        try {
+            traceWriter.close();
+            Log.i(TAG, "Recorded " + traceWriter.getCount() + " fixes");
+        } catch (IOException e) {
+            Log.i(TAG, "Couldn't close trace: " + e.getMessage());
+        }
+        traceWriter = null;
+    }
 
-        // If it's been more than two minutes since the current location, use the new location
-        // because the user has likely moved
-        if (isSignificantlyNewer) {
-            return true;
-            // If the new location is more than two minutes older, it must be worse
-        } else if (isSignificantlyOlder) {
-            return false;
+    /**
+     * Append a raw fix to the trace if recording, on the location thread
+     */
+    private synchronized void record(Location location) {
+        if (traceWriter == null) {
+            return;
+        }
+        try {
+            traceWriter.write(LocationTrace.providerCode(location.getProvider()), location.getTime(),
+                    location.getElapsedRealtimeNanos(),
+                    GPSCodec.encode(location.getLatitude()), GPSCodec.encode(location.getLongitude()),
+                    location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                    location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                    location.hasBearing() ? location.getBearing() : Float.NaN);
+        } catch (IOException e) {
+            Log.i(TAG, "Couldn't record fix, stopping: " + e.getMessage());
+            stopRecording();
         }
+    }
 
-        // Check whether the new location fix is more or less accurate
-        int accuracyDelta = (int) (location.getAccuracy() - currentBestLocation.getAccuracy());
-        boolean isLessAccurate = accuracyDelta > 0;
-        boolean isMoreAccurate = accuracyDelta < 0;
-        boolean isSignificantlyLessAccurate = accuracyDelta > 200;
+    /**
+     * Replay a recorded trace through the same filter and listeners as live
+     * fixes. The providers are stopped for the replay and restarted after it.
+     * Listeners that publish the device's position must check isReplaying, the
+     * replayed fixes are not where the device is.
+     *
+     * @param file Trace recorded by startRecording
+     * @param realtime Flag to replay at the recorded pace, otherwise as fast as possible
+     * @return flag if the replay started
+     */
+    public boolean startReplay(final File file, boolean realtime) {
+        final TraceReplayer replay;
+        try {
+            replay = new TraceReplayer(new FileInputStream(file), realtime);
+        } catch (IOException e) {
+            Log.i(TAG, "Couldn't replay " + file + ": " + e.getMessage());
+            return false;
+        }
+        stopReplay();
+        stopUsingGPS();
+        replayer = replay;
+        locationHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long count = replay.run(replayListener);
+                    Log.i(TAG, "Replayed " + count + " fixes from " + file);
+                } catch (IOException e) {
+                    Log.i(TAG, "Replay of " + file + " failed: " + e.getMessage());
+                }
+                if (replayer == replay) {
+                    replayer = null;
+                    // Don't let a replayed fix pass for the device's position afterwards
+                    filter.reset();
+                    currentBestLocation = null;
+                    getLocation();
+                }
+            }
+        });
+        return true;
+    }
 
-        // Check if the old and new location are from the same provider
-        boolean isFromSameProvider = isSameProvider(location.getProvider(),
-                currentBestLocation.getProvider());
+    /**
+     * @return flag if the fixes going to the listeners are replayed rather than live
+     */
+    public boolean isReplaying() {
+        return replayer != null;
+    }
 
-        // Determine location quality using a combination of timeliness and accuracy
-        if (isMoreAccurate) {
-            return true;
-        } else if (isNewer && !isLessAccurate) {
-            return true;
-        } else if (isNewer && !isSignificantlyLessAccurate && isFromSameProvider) {
-            return true;
+    /**
+     * Stop a replay in progress, live fixes resume once it has stopped
+     */
+    public void stopReplay() {
+        TraceReplayer replay = replayer;
+        if (replay != null) {
+            replay.stop();
         }
-        return false;
     }
 
-    /** Checks whether two providers are the same */
-    private boolean isSameProvider(String provider1, String provider2) {
-        if (provider1 == null) {
-            return provider2 == null;
+    /**
+     * Turns replayed fixes back into Locations for the filter, on the location thread
+     */
+    private final TraceReplayer.FixListener replayListener = new TraceReplayer.FixListener() {
+        @Override
+        public void onFix(LocationTrace.Fix fix) {
+            replayLocation.reset();
+            replayLocation.setProvider(LocationTrace.providerName(fix.provider));
+            replayLocation.setTime(fix.time);
+            replayLocation.setElapsedRealtimeNanos(fix.elapsedRealtimeNanos);
+            replayLocation.setLatitude(GPSCodec.decode(fix.latitudeE7));
+            replayLocation.setLongitude(GPSCodec.decode(fix.longitudeE7));
+            if (!Float.isNaN(fix.accuracy)) {
+                replayLocation.setAccuracy(fix.accuracy);
+            }
+            if (!Float.isNaN(fix.speed)) {
+                replayLocation.setSpeed(fix.speed);
+            }
+            if (!Float.isNaN(fix.bearing)) {
+                replayLocation.setBearing(fix.bearing);
+            }
+            LocationHelper.this.onFix(replayLocation);
+        }
+    };
+
+
+    /********************************** Location Fusion **********************************/
+
+    /**
+     * Fold a fix from either provider into the filter and push the result to
+     * the listeners, on the location thread
+     *
+     * @param location The new fix
+     */
+    private void onFix(Location location) {
+        // Elapsed realtime is monotonic and shared by both providers, unlike getTime
+        long time = location.getElapsedRealtimeNanos() / 1000000;
+        if (!filter.update(location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : 0, time)) {
+            return; // Older than what the filter has already seen
+        }
+//        Log.i(TAG, "Fused " + location.getProvider() + " location: " +
+//                filter.getLatitude() + ", " + filter.getLongitude());
+        synchronized (fusedLocation) {
+            fusedLocation.setTime(location.getTime());
+            fusedLocation.setElapsedRealtimeNanos(location.getElapsedRealtimeNanos());
+            fusedLocation.setLatitude(filter.getLatitude());
+            fusedLocation.setLongitude(filter.getLongitude());
+            fusedLocation.setAccuracy((float) filter.getAccuracy());
+            fusedLocation.setSpeed((float) filter.getSpeed());
+            fusedLocation.setBearing((float) filter.getHeading());
+        }
+        currentBestLocation = fusedLocation;
+        for (GPSListener listener : listeners) {
+            listener.onGPSChanged(fusedLocation);
         }
-        return provider1.equals(provider2);
     }
 
 
@@ -239,18 +452,30 @@ public class LocationHelper extends Service {
 
 
     /**
-     * Interface definition for GPS callback
+     * Interface definition for GPS callback. Called on the location thread
+     * with a Location that is reused for the next fix, copy it to keep it.
      */
     public interface GPSListener {
         public void onGPSChanged(Location location);
     }
 
     /**
-     * Assign the listener implementing events interface that will receive the events
+     * Add a listener implementing events interface that will receive the events
+     *
+     * @param listener
+     */
+    public void addGPSListener(GPSListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Stop a listener receiving the events
      *
      * @param listener
      */
-    public void setGPSListener(GPSListener listener) {
-        this.listener = listener;
+    public void removeGPSListener(GPSListener listener) {
+        listeners.remove(listener);
     }
 }
\ No newline at end of file
@@ -0,0 +1,305 @@
+package com.ddelp.volvoce.helpers;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.ddelp.volvoce.VolvoCE;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Outbound position and alert writes, queued through a WriteQueue persisted
+ * in the DatabaseHelper so they survive losing LTE on site (and the app
+ * being killed meanwhile).
+ *
+ * Writes are compacted to the latest value per path and sent as multi-path
+ * updates of at most BATCH_SIZE paths, one batch in flight at a time and
+ * only while the store reports a connection. Writes queued by one writeAll
+ * always go out in the same update, however many there are. A failed batch
+ * is retried with exponential backoff from RETRY_DELAY up to MAX_RETRY_DELAY.
+ *
+ * Safe to call from any thread, location fixes are written from the location
+ * thread; the journal is written on the database's background writer so
+ * write never blocks on disk.
+ */
+public class SyncQueue {
+
+    /** Tag for logging */
+    private static final String TAG = "SyncQueue";
+    /** Singleton so every activity shares one queue */
+    private static SyncQueue sInstance;
+    /** Maximum number of paths in one update */
+    private static final int BATCH_SIZE = 50;
+    /** Delay before the first retry of a failed batch in ms */
+    private static final long RETRY_DELAY = 1000;
+    /** Longest delay between retries in ms */
+    private static final long MAX_RETRY_DELAY = 1000 * 60;
+    /** Key of the value in an encoded journal entry */
+    private static final String KEY_VALUE = "value";
+    /** Key of the flag in an encoded journal entry if the value replaces the node */
+    private static final String KEY_REPLACE = "replace";
+    /** Realtime database the writes go to */
+    private final RealtimeStore store;
+    /** Persistent copy of the queue */
+    private final DatabaseHelper db;
+    /** Compacted queue of outbound writes */
+    private final WriteQueue writeQueue;
+    /** Flag if the store is connected */
+    private boolean connected = false;
+    /** Batch waiting for the server to acknowledge it */
+    private WriteQueue.Batch inFlight = null;
+    /** Handler the retries are posted to */
+    private final Handler retryHandler = new Handler(Looper.getMainLooper());
+    /** Delay before the next retry in ms, doubled after every failure */
+    private long retryDelay = RETRY_DELAY;
+
+    /**
+     * Call getInstance to prevent memory leaks.
+     *
+     * @param context Application context
+     * @return the shared queue
+     */
+    public static synchronized SyncQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Private constructor only getInstance can call.
+     *
+     * @param context Application context
+     */
+    private SyncQueue(Context context) {
+        store = VolvoCE.getStore();
+        db = DatabaseHelper.getInstance(context);
+        writeQueue = new WriteQueue(journal);
+        Map<String, String> pendingWrites = db.getPendingWrites();
+        writeQueue.restore(decodeAll(pendingWrites), replacedPaths(pendingWrites));
+        store.addValueListener(RealtimeStore.CONNECTED_PATH, connectedListener);
+    }
+
+    /**
+     * Queue a write and send it as soon as the connection allows
+     *
+     * @param path Path from the database root, e.g. "alerts/<id>"
+     * @param value New value, a Map of fields to update or null to delete the node
+     */
+    public synchronized void write(String path, Object value) {
+        writeQueue.put(path, value);
+        flush();
+    }
+
+    /**
+     * Queue several writes and send them together as one atomic update
+     *
+     * @param writes Path from the database root to new value
+     */
+    public synchronized void writeAll(Map<String, Object> writes) {
+        writeQueue.putAll(writes);
+        flush();
+    }
+
+    /**
+     * @return number of paths waiting to be sent
+     */
+    public synchronized int size() {
+        return writeQueue.size();
+    }
+
+    /**
+     * Send the next batch if connected and nothing is in flight
+     */
+    private void flush() {
+        if (!connected || inFlight != null) {
+            return;
+        }
+        inFlight = writeQueue.nextBatch(BATCH_SIZE);
+        if (inFlight == null) {
+            return;
+        }
+        store.updateChildren("", inFlight.getUpdate(), batchListener);
+    }
+
+    /**
+     * Listener for the acknowledgement of the batch in flight
+     */
+    private final RealtimeStore.CompletionListener batchListener = new RealtimeStore.CompletionListener() {
+        @Override
+        public void onComplete(String error) {
+            synchronized (SyncQueue.this) {
+                WriteQueue.Batch batch = inFlight;
+                inFlight = null;
+                if (error != null) {
+                    // Stays queued, retried after the backoff or on the next write or reconnect
+                    Log.i(TAG, "Batch of " + batch.size() + " writes failed: " + error
+                            + ", retrying in " + retryDelay + " ms");
+                    retryHandler.removeCallbacks(retry);
+                    retryHandler.postDelayed(retry, retryDelay);
+                    retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+                    return;
+                }
+                retryDelay = RETRY_DELAY;
+                writeQueue.completed(batch);
+                flush();
+            }
+        }
+    };
+
+    /**
+     * Runnable to retry after a failed batch
+     */
+    private final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SyncQueue.this) {
+                flush();
+            }
+        }
+    };
+
+    /**
+     * Listener for the connection state
+     */
+    private final RealtimeStore.ValueListener connectedListener = new RealtimeStore.ValueListener() {
+        @Override
+        public void onDataChange(RealtimeStore.Snapshot dataSnapshot) {
+            Boolean value = dataSnapshot.getValue(Boolean.class);
+            synchronized (SyncQueue.this) {
+                connected = value != null && value;
+                Log.i(TAG, (connected ? "Connected, " : "Disconnected, ") + writeQueue.size()
+                        + " writes queued");
+                flush();
+            }
+        }
+
+        @Override
+        public void onCancelled(String error) {
+            Log.i(TAG, "Couldn't track connection state: " + error);
+        }
+    };
+
+    /********************************** Journal helpers **********************************/
+
+    /**
+     * Journal writing the queue to the database on the background thread
+     */
+    private final WriteQueue.Journal journal = new WriteQueue.Journal() {
+        @Override
+        public void write(final String path, Object value, boolean replace) {
+            final String encoded = encode(value, replace);
+            db.submitWrite(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    db.addOrUpdatePendingWrite(path, encoded);
+                    return null;
+                }
+            }, null);
+        }
+
+        @Override
+        public void delete(final String path) {
+            db.submitWrite(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    db.deletePendingWrite(path);
+                    return null;
+                }
+            }, null);
+        }
+    };
+
+    /**
+     * Encode a value as JSON, keeping null fields so they still delete on replay
+     *
+     * @param value Boolean, number, String, null or Map of those
+     * @param replace Flag if a Map value replaces the node rather than updating its fields
+     * @return encoded value
+     */
+    @SuppressWarnings("unchecked")
+    private static String encode(Object value, boolean replace) {
+        try {
+            Object json = value;
+            if (value instanceof Map) {
+                JSONObject fields = new JSONObject();
+                for (Map.Entry<String, Object> field : ((Map<String, Object>) value).entrySet()) {
+                    fields.put(field.getKey(), field.getValue() == null ? JSONObject.NULL : field.getValue());
+                }
+                json = fields;
+            }
+            JSONObject entry = new JSONObject().put(KEY_VALUE, json == null ? JSONObject.NULL : json);
+            if (replace) {
+                entry.put(KEY_REPLACE, true);
+            }
+            return entry.toString();
+        } catch (JSONException e) {
+            Log.d(TAG, "encode: Couldn't encode " + value);
+            return null;
+        }
+    }
+
+    /**
+     * @param encoded Value encoded by encode
+     * @return the decoded value
+     */
+    private static Object decode(String encoded) throws JSONException {
+        Object json = new JSONObject(encoded).get(KEY_VALUE);
+        if (json instanceof JSONObject) {
+            JSONObject fields = (JSONObject) json;
+            Map<String, Object> value = new LinkedHashMap<>();
+            Iterator<String> keys = fields.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object field = fields.get(key);
+                value.put(key, field == JSONObject.NULL ? null : field);
+            }
+            return value;
+        }
+        return json == JSONObject.NULL ? null : json;
+    }
+
+    /**
+     * @param encoded Path to encoded value, oldest first
+     * @return Path to decoded value, skipping entries that can't be decoded
+     */
+    private static Map<String, Object> decodeAll(Map<String, String> encoded) {
+        Map<String, Object> writes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : encoded.entrySet()) {
+            try {
+                writes.put(entry.getKey(), decode(entry.getValue()));
+            } catch (Exception e) {
+                Log.d(TAG, "decodeAll: Dropping unreadable write to " + entry.getKey());
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * @param encoded Path to encoded value
+     * @return paths whose value replaces the node, see WriteQueue.Journal.write
+     */
+    private static Set<String> replacedPaths(Map<String, String> encoded) {
+        Set<String> paths = new HashSet<>();
+        for (Map.Entry<String, String> entry : encoded.entrySet()) {
+            try {
+                if (new JSONObject(entry.getValue()).optBoolean(KEY_REPLACE)) {
+                    paths.add(entry.getKey());
+                }
+            } catch (Exception e) {
+                // Dropped by decodeAll
+            }
+        }
+        return paths;
+    }
+}
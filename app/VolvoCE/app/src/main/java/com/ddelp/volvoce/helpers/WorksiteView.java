@@ -60,11 +60,21 @@ public class WorksiteView extends SubsamplingScaleImageView implements View.OnTo
      * @param bottomRight BottomRight GPS coordinates of the image
      */
     public void setWorksiteGPS(String topLeft, String bottomRight) {
-        PointGPS tl = parseGPSPointFromString(topLeft);
-        PointGPS br = parseGPSPointFromString(bottomRight);
-        gps = new WorksiteGPS(tl.latitude, br.latitude, tl.longitude, br.longitude);
-        Log.d(TAG, "WorksiteGPS set: top: " + gps.top + " left: " + gps.left + " bottom: "
-                + gps.bottom + " right: " +gps.right);
+        setWorksiteGPS(GPSCodec.parse(topLeft), GPSCodec.parse(bottomRight));
+    }
+
+    /**
+     * Set the worksites GPS Top,Left,Bottom,Right coordinates
+     *
+     * @param topLeft TopLeft coordinates of the image packed by GPSCodec
+     * @param bottomRight BottomRight coordinates of the image packed by GPSCodec
+     */
+    public void setWorksiteGPS(long topLeft, long bottomRight) {
+        PointGPS tl = toPointGPS(topLeft);
+        PointGPS br = toPointGPS(bottomRight);
+        gps = new WorksiteGPS(tl.getLatitude(), br.getLatitude(), tl.getLongitude(), br.getLongitude());
+        Log.d(TAG, "WorksiteGPS set: top: " + gps.getTop() + " left: " + gps.getLeft() + " bottom: "
+                + gps.getBottom() + " right: " +gps.getRight());
         Log.d(TAG, "WorksiteGPS Height: " + gps.getHeight() + " Width: " + gps.getWidth());
         Log.d(TAG, "ImageDimensions: Height: " + getSHeight() + " Width: " + getSWidth());
     }
@@ -75,7 +85,8 @@ public class WorksiteView extends SubsamplingScaleImageView implements View.OnTo
      * @param worker The Worker to add/update
      */
     public void setWorker(Worker worker) {
-        setIcon(Icon.ICON_TYPE_WORKER, worker.getID(), worker.getGPS());
+        setIcon(Icon.ICON_TYPE_WORKER, worker.getID(),
+                GPSCodec.read(worker.getLatitudeE7(), worker.getLongitudeE7(), worker.getGPS()));
     }
 
     /**
@@ -84,7 +95,8 @@ public class WorksiteView extends SubsamplingScaleImageView implements View.OnTo
      * @param machine The Machine to add/update
      */
     public void setMachine(Machine machine) {
-        setIcon(Icon.ICON_TYPE_MACHINE, machine.getID(), machine.getGPS());
+        setIcon(Icon.ICON_TYPE_MACHINE, machine.getID(),
+                GPSCodec.read(machine.getLatitudeE7(), machine.getLongitudeE7(), machine.getGPS()));
     }
 
     /**
@@ -95,7 +107,18 @@ public class WorksiteView extends SubsamplingScaleImageView implements View.OnTo
      * @param GPS Coordinates formatted "latitude,longitude" in decimal-degree
      */
     public void setIcon(int type, String id, String GPS) {
-        PointGPS gpsPoint = parseGPSPointFromString(GPS);
+        setIcon(type, id, GPSCodec.parse(GPS));
+    }
+
+    /**
+     * Creates or updates an Icon to be drawn on the worksite map
+     *
+     * @param type Type (Worker/Machine)
+     * @param id ID (Usually device MAC address)
+     * @param location Coordinates packed by GPSCodec
+     */
+    public void setIcon(int type, String id, long location) {
+        PointGPS gpsPoint = toPointGPS(location);
         PointF point = convertGPSPointToPixelLocation(gpsPoint);
         Icon icon = icons.get(id);
         if(icon != null) {
@@ -125,21 +148,18 @@ public class WorksiteView extends SubsamplingScaleImageView implements View.OnTo
     }
 
     /**
-     * Parse a string to a PointGPS.
+     * Convert packed coordinates to a PointGPS.
      *
-     * @param gpsPoint The String to parse (formatted "latitude,longitude" in decimal-degree)
-     * @return a PointGPS representing the parsed string
+     * @param location Coordinates packed by GPSCodec
+     * @return a PointGPS at the location, (0,0) if it is GPSCodec.INVALID
      */
-    private PointGPS parseGPSPointFromString(String gpsPoint) {
-        try {
-            String[] coordinates = gpsPoint.split(",");
-            float latitude = Float.parseFloat(coordinates[0]);
-            float longitude = Float.parseFloat(coordinates[1]);
-            return new PointGPS(latitude, longitude);
-        } catch (Exception e) {
-            Log.d(TAG, "parseGPSPointFromString: Invalid formatting of gpsPoint: " + gpsPoint);
+    private PointGPS toPointGPS(long location) {
+        if (location == GPSCodec.INVALID) {
+            Log.d(TAG, "toPointGPS: Invalid location");
             return new PointGPS();
         }
+        return new PointGPS(GPSCodec.decode(GPSCodec.latitude(location)),
+                GPSCodec.decode(GPSCodec.longitude(location)));
     }
 
     /**
@@ -155,10 +175,10 @@ public class WorksiteView extends SubsamplingScaleImageView implements View.OnTo
         float latitudePix;
         float longitudePix;
 
-        if((gps.top > p.latitude || gps.bottom < p.latitude) // latitude check
-                && (gps.left < p.longitude && gps.right > p.longitude)) { // longitude check
-            latitudePix = Math.round(((gps.top - p.latitude)/gps.getHeight())*getSHeight());
-            longitudePix = Math.round(((p.longitude - gps.left)/gps.getWidth())*getSWidth());
+        if((gps.getTop() > p.getLatitude() || gps.getBottom() < p.getLatitude()) // latitude check
+                && (gps.getLeft() < p.getLongitude() && gps.getRight() > p.getLongitude())) { // longitude check
+            latitudePix = Math.round(((gps.getTop() - p.getLatitude())/gps.getHeight())*getSHeight());
+            longitudePix = Math.round(((p.getLongitude() - gps.getLeft())/gps.getWidth())*getSWidth());
         } else { // Icon is out of image frame...
             latitudePix = -50f;
             longitudePix = -50f;
@@ -183,7 +203,9 @@ public class WorksiteView extends SubsamplingScaleImageView implements View.OnTo
     }
 
     private void removeIcon(String id) {
-        icons.remove(id);
+        if(icons.remove(id) != null) {
+            invalidate();
+        }
     }
 
     /**
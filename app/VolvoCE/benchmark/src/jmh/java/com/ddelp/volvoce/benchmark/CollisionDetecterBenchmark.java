@@ -0,0 +1,148 @@
+package com.ddelp.volvoce.benchmark;
+
+import com.ddelp.volvoce.helpers.CollisionDetecter;
+import com.ddelp.volvoce.helpers.CollisionPredictor;
+import com.ddelp.volvoce.helpers.ParallelCollisionDetecter;
+import com.ddelp.volvoce.helpers.PositionStore;
+import com.ddelp.volvoce.objects.HazardEnvelope;
+import com.ddelp.volvoce.objects.Machine;
+import com.ddelp.volvoce.objects.Worker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks of a collision detection pass over a synthetic worksite: a full
+ * recompute, a single incremental update, the parallel engine, prediction
+ * and the map based wrapper that also parses every GPS string.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class CollisionDetecterBenchmark {
+
+    /** Alert distance in meters */
+    private static final double ALERT_DISTANCE = 10;
+
+    @Param({"10", "100", "1000", "10000", "50000"})
+    public int entities;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public SyntheticWorksite.Distribution distribution;
+
+    private SyntheticWorksite site;
+    private PositionStore workers;
+    private PositionStore machines;
+    private CollisionDetecter detecter;
+    private ParallelCollisionDetecter parallelDetecter;
+    private CollisionPredictor predictor;
+    private List<PositionStore> workerSites;
+    private List<PositionStore> machineSites;
+    private Map<String, Worker> workerMap;
+    private Map<String, Machine> machineMap;
+    /** Worker moved by the incremental benchmark */
+    private int nextWorker;
+
+    @Setup
+    public void setUp() {
+        site = new SyntheticWorksite(entities, distribution, 42);
+        workers = site.newWorkerStore();
+        machines = site.newMachineStore();
+        List<HazardEnvelope> envelopes = hazardEnvelopes();
+
+        detecter = new CollisionDetecter();
+        detecter.setAlertDistance(ALERT_DISTANCE);
+        detecter.setHazardEnvelopes(envelopes);
+        detecter.setPositionStores(workers, machines);
+
+        parallelDetecter = new ParallelCollisionDetecter();
+        parallelDetecter.setAlertDistance(ALERT_DISTANCE);
+        parallelDetecter.setHazardEnvelopes(envelopes);
+        workerSites = Collections.singletonList(workers);
+        machineSites = Collections.singletonList(machines);
+
+        predictor = new CollisionPredictor();
+        predictor.setAlertDistance(ALERT_DISTANCE);
+
+        workerMap = new HashMap<>();
+        for (int i = 0; i < site.workerIDs.length; i++) {
+            workerMap.put(site.workerIDs[i], new Worker(site.workerIDs[i], "", site.workerGPS[i]));
+        }
+        machineMap = new HashMap<>();
+        for (int i = 0; i < site.machineIDs.length; i++) {
+            machineMap.put(site.machineIDs[i], new Machine(site.machineIDs[i],
+                    site.machineTypes[i], site.machineGPS[i]));
+        }
+    }
+
+    @Benchmark
+    public int detectCollisions() {
+        return detecter.detectCollisions(workers, machines);
+    }
+
+    @Benchmark
+    public int workerUpdated() {
+        // Move one worker back and forth a meter and re-evaluate only its pairs
+        int index = nextWorker;
+        nextWorker = (nextWorker + 1) % workers.size();
+        workers.put(workers.getID(index), workers.getLatitude(index) + 0.00001,
+                workers.getLongitude(index));
+        detecter.workerUpdated(index);
+        workers.put(workers.getID(index), workers.getLatitude(index) - 0.00001,
+                workers.getLongitude(index));
+        detecter.workerUpdated(index);
+        return detecter.getCollisionCount();
+    }
+
+    @Benchmark
+    public int parallelDetectCollisions() {
+        return parallelDetecter.detectCollisions(workerSites, machineSites);
+    }
+
+    @Benchmark
+    public int predictCollisions() {
+        return predictor.predictCollisions(workers, machines, 0);
+    }
+
+    @Benchmark
+    public Map<String, Boolean> detectCollisionsFromMaps() {
+        return detecter.detectCollisions(workerMap, machineMap);
+    }
+
+    /**
+     * Same envelopes SplashActivity seeds Firebase with
+     */
+    static List<HazardEnvelope> hazardEnvelopes() {
+        List<HazardEnvelope> envelopes = new ArrayList<>();
+        HazardEnvelope excavator = new HazardEnvelope();
+        excavator.setType(Machine.MACHINE_TYPE_EXCAVATOR);
+        excavator.setName("Excavator swing radius");
+        excavator.setRadius(9.0);
+        envelopes.add(excavator);
+        HazardEnvelope haulTruck = new HazardEnvelope();
+        haulTruck.setType(Machine.MACHINE_TYPE_HAUL_TRUCK);
+        haulTruck.setName("Haul truck blind spots");
+        haulTruck.setRadius(3.0);
+        haulTruck.addVertex(-3, 6);
+        haulTruck.addVertex(3, 6);
+        haulTruck.addVertex(3, -8);
+        haulTruck.addVertex(5, -20);
+        haulTruck.addVertex(-5, -20);
+        haulTruck.addVertex(-3, -8);
+        envelopes.add(haulTruck);
+        return envelopes;
+    }
+}
@@ -0,0 +1,77 @@
+package com.ddelp.volvoce.benchmark;
+
+import com.ddelp.volvoce.helpers.LocalProjection;
+import com.ddelp.volvoce.helpers.PositionStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of parsing and projecting the GPS strings of a whole worksite,
+ * as done when updates arrive from Firebase, against the fixed-point
+ * coordinates that replaced them.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class GpsParsingBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "50000"})
+    public int entities;
+
+    private SyntheticWorksite site;
+    private PositionStore store;
+
+    @Setup
+    public void setUp() {
+        site = new SyntheticWorksite(entities, SyntheticWorksite.Distribution.UNIFORM, 42);
+        store = site.newWorkerStore();
+    }
+
+    /**
+     * Re-put every worker into a store that already holds it, the steady state
+     */
+    @Benchmark
+    public PositionStore updateStore() {
+        for (int i = 0; i < site.workerIDs.length; i++) {
+            store.put(site.workerIDs[i], site.workerGPS[i]);
+        }
+        return store;
+    }
+
+    /**
+     * Re-put every worker from fixed-point coordinates, no parsing
+     */
+    @Benchmark
+    public PositionStore updateStoreFixedPoint() {
+        for (int i = 0; i < site.workerIDs.length; i++) {
+            store.put(site.workerIDs[i], site.workerLocations[i]);
+        }
+        return store;
+    }
+
+    /**
+     * Fill an empty store, as when a worksite is first loaded
+     */
+    @Benchmark
+    public PositionStore fillStore() {
+        PositionStore fresh = new PositionStore();
+        fresh.setProjection(site.projection);
+        for (int i = 0; i < site.workerIDs.length; i++) {
+            fresh.put(site.workerIDs[i], site.workerGPS[i]);
+        }
+        return fresh;
+    }
+
+    @Benchmark
+    public LocalProjection projectionFromBounds() {
+        return LocalProjection.fromBounds(site.workerGPS[0], site.workerGPS[site.workerGPS.length - 1]);
+    }
+}
@@ -0,0 +1,328 @@
+package com.ddelp.volvoce.benchmark;
+
+import com.ddelp.volvoce.helpers.GPSCodec;
+import com.ddelp.volvoce.helpers.LoopbackStore;
+import com.ddelp.volvoce.helpers.PositionStore;
+import com.ddelp.volvoce.helpers.RealtimeStore;
+import com.ddelp.volvoce.objects.Position;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator replaying a SyntheticMovement into a LoopbackStore at peak
+ * worksite scale. Every entity publishes its position to
+ * positions/<worksite>/<id> once per tick, as the ControlActivity of each
+ * device would, and a consumer subscribed to positions/<worksite> the way
+ * WorksiteViewActivity is decodes every update into a PositionStore.
+ *
+ * Reports ticks per second, end-to-end latency from the start of the tick
+ * that produced a fix to the consumer callback, and updates dropped by the store. Run with:
+ *   ./gradlew :benchmark:loadgen -PloadArgs="-entities 5000 -rate 2 -latency 50"
+ *
+ * Options (defaults in brackets):
+ *   -entities n    workers and machines on the site, one in ten a machine [1000]
+ *   -rate hz       ticks per second, 0 to replay as fast as possible [1]
+ *   -duration s    simulated seconds to run [30]
+ *   -latency ms    one-way store latency [0]
+ *   -drop p        probability a write is dropped [0]
+ *   -seed n        seed of the site and its movement [42]
+ */
+public class LoadGenerator {
+
+    /** Worksite the positions are published under */
+    private static final String WORKSITE = "loadgen";
+    /** How long to wait for outstanding deliveries after the last tick, in ms */
+    private static final long DRAIN_TIMEOUT = 10000;
+
+    private final SyntheticWorksite site;
+    private final SyntheticMovement movement;
+    private final LoopbackStore store;
+    private final String positionsPath = "positions/" + WORKSITE;
+    /** Entity ID by index, workers then machines */
+    private final String[] ids;
+    private final String[] kinds;
+    private final int[] types;
+    private final Map<String, Integer> indices = new HashMap<>();
+    /** System.nanoTime each tick started publishing, its fixes' time */
+    private long[] tickStartedAt;
+    /** Timestamp of the first tick and between ticks, in ms */
+    private long startMillis;
+    private long stepMillis;
+    /** Consumer side, as WorksiteViewActivity keeps it */
+    private final PositionStore received;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param entities Number of workers and machines
+     * @param latency One-way store latency in ms
+     * @param dropRate Probability a write is dropped
+     * @param seed Seed of the site and its movement
+     */
+    public LoadGenerator(int entities, long latency, double dropRate, long seed) {
+        site = new SyntheticWorksite(entities, SyntheticWorksite.Distribution.CLUSTERED, seed);
+        movement = new SyntheticMovement(site, seed);
+        store = new LoopbackStore(latency, dropRate, seed);
+        int count = movement.size();
+        ids = new String[count];
+        kinds = new String[count];
+        types = new int[count];
+        for (int i = 0; i < count; i++) {
+            boolean worker = i < site.workerIDs.length;
+            ids[i] = worker ? site.workerIDs[i] : site.machineIDs[i - site.workerIDs.length];
+            kinds[i] = worker ? Position.KIND_WORKER : Position.KIND_MACHINE;
+            types[i] = worker ? 0 : site.machineTypes[i - site.workerIDs.length];
+            indices.put(ids[i], i);
+        }
+        received = new PositionStore(count);
+        received.setProjection(site.projection);
+    }
+
+    /**
+     * Replay the movement into the store and wait for it to be delivered
+     *
+     * @param rate Ticks per second, 0 for as fast as possible
+     * @param duration Simulated seconds to run
+     * @return the measurements
+     */
+    public Report run(double rate, double duration) {
+        double step = rate > 0 ? 1 / rate : 1;
+        int ticks = (int) Math.ceil(duration / step);
+        long period = rate > 0 ? (long) (1e9 / rate) : 0;
+        int lateTicks = 0;
+        tickStartedAt = new long[ticks];
+        startMillis = System.currentTimeMillis();
+        stepMillis = Math.max(1, Math.round(step * 1000));
+
+        store.addChildListener(positionsPath, consumer);
+        long start = System.nanoTime();
+        for (int tick = 0; tick < ticks; tick++) {
+            if (period > 0) {
+                long wait = start + tick * period - System.nanoTime();
+                if (wait > 0) {
+                    sleep(wait);
+                } else if (tick > 0) {
+                    lateTicks++;
+                }
+            }
+            movement.step(step);
+            tickStartedAt[tick] = System.nanoTime();
+            // Simulated time, so every tick changes every position even when replayed at full speed
+            publishAll(startMillis + tick * stepMillis);
+        }
+        long publishDone = System.nanoTime();
+        drain();
+        long end = System.nanoTime();
+        store.removeChildListener(positionsPath, consumer);
+        store.shutdown();
+
+        Report report = new Report();
+        report.entities = ids.length;
+        report.ticks = ticks;
+        report.lateTicks = lateTicks;
+        report.ticksPerSecond = ticks / ((publishDone - start) / 1e9);
+        report.published = published.get();
+        report.delivered = delivered.get();
+        report.dropped = store.getDroppedCount();
+        report.failed = failed.get();
+        report.updatesPerSecond = report.delivered / ((end - start) / 1e9);
+        report.latencyMillis = latencies.percentiles(0.5, 0.95, 0.99, 1);
+        return report;
+    }
+
+    /**
+     * Publish every entity's position, one write per entity as each device would
+     *
+     * @param timestamp Time of the fixes in ms
+     */
+    private void publishAll(long timestamp) {
+        for (int i = 0; i < ids.length; i++) {
+            Map<String, Object> update = new HashMap<>();
+            update.put("kind", kinds[i]);
+            update.put("type", types[i]);
+            update.put("latitudeE7", movement.getLatitudeE7(i));
+            update.put("longitudeE7", movement.getLongitudeE7(i));
+            update.put("velocity", movement.getSpeed(i));
+            update.put("direction", movement.getHeading(i));
+            update.put("timestamp", timestamp);
+            published.incrementAndGet();
+            store.updateChildren(positionsPath + "/" + ids[i], update, completion);
+        }
+    }
+
+    /**
+     * Wait until every publish was delivered or dropped
+     */
+    private void drain() {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        while (delivered.get() + failed.get() < published.get()
+                && System.currentTimeMillis() < deadline) {
+            sleep(1000000);
+        }
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counts writes the store rejected
+     */
+    private final RealtimeStore.CompletionListener completion = new RealtimeStore.CompletionListener() {
+        @Override
+        public void onComplete(String error) {
+            if (error != null) {
+                failed.incrementAndGet();
+            }
+        }
+    };
+
+    /**
+     * Consumer decoding updates the way WorksiteViewActivity does
+     */
+    private final RealtimeStore.ChildListener consumer = new RealtimeStore.ChildListener() {
+        @Override
+        public void onChildAdded(RealtimeStore.Snapshot dataSnapshot) {
+            positionUpdated(dataSnapshot);
+        }
+
+        @Override
+        public void onChildChanged(RealtimeStore.Snapshot dataSnapshot) {
+            positionUpdated(dataSnapshot);
+        }
+
+        @Override
+        public void onChildRemoved(RealtimeStore.Snapshot dataSnapshot) {
+        }
+
+        @Override
+        public void onCancelled(String error) {
+            System.err.println("Consumer cancelled: " + error);
+        }
+    };
+
+    private void positionUpdated(RealtimeStore.Snapshot dataSnapshot) {
+        long now = System.nanoTime();
+        Integer index = indices.get(dataSnapshot.getKey());
+        Position position = dataSnapshot.getValue(Position.class);
+        if (index == null || position == null) {
+            return;
+        }
+        received.put(dataSnapshot.getKey(),
+                GPSCodec.pack(position.getLatitudeE7(), position.getLongitudeE7()),
+                position.getVelocity(), position.getDirection(), position.getTimestamp());
+        int tick = (int) ((position.getTimestamp() - startMillis) / stepMillis);
+        latencies.record(now - tickStartedAt[tick]);
+        delivered.incrementAndGet();
+    }
+
+    /**
+     * Measurements of one run
+     */
+    public static class Report {
+        public int entities;
+        public int ticks;
+        /** Ticks that started after their slot, the generator couldn't keep up */
+        public int lateTicks;
+        public double ticksPerSecond;
+        public long published;
+        public long delivered;
+        /** Writes lost by the store */
+        public long dropped;
+        /** Writes whose CompletionListener reported an error */
+        public long failed;
+        public double updatesPerSecond;
+        /** Latency p50, p95, p99 and max in ms */
+        public double[] latencyMillis;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "entities=%d ticks=%d late=%d ticks/s=%.1f%n"
+                            + "published=%d delivered=%d dropped=%d failed=%d updates/s=%.0f%n"
+                            + "latency ms p50=%.3f p95=%.3f p99=%.3f max=%.3f",
+                    entities, ticks, lateTicks, ticksPerSecond,
+                    published, delivered, dropped, failed, updatesPerSecond,
+                    latencyMillis[0], latencyMillis[1], latencyMillis[2], latencyMillis[3]);
+        }
+    }
+
+    /**
+     * Latency samples, kept whole so percentiles are exact
+     */
+    private static class LatencyRecorder {
+        private long[] samples = new long[1024];
+        private int count = 0;
+
+        synchronized void record(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+        }
+
+        synchronized double[] percentiles(double... quantiles) {
+            double[] millis = new double[quantiles.length];
+            if (count == 0) {
+                return millis;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            for (int i = 0; i < quantiles.length; i++) {
+                int rank = (int) Math.ceil(quantiles[i] * count) - 1;
+                millis[i] = sorted[Math.max(0, Math.min(count - 1, rank))] / 1e6;
+            }
+            return millis;
+        }
+    }
+
+    /**
+     * Command line entry point, see the class comment for the options
+     */
+    public static void main(String[] args) {
+        int entities = 1000;
+        double rate = 1;
+        double duration = 30;
+        long latency = 0;
+        double dropRate = 0;
+        long seed = 42;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-entities":
+                    entities = Integer.parseInt(value);
+                    break;
+                case "-rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "-duration":
+                    duration = Double.parseDouble(value);
+                    break;
+                case "-latency":
+                    latency = Long.parseLong(value);
+                    break;
+                case "-drop":
+                    dropRate = Double.parseDouble(value);
+                    break;
+                case "-seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        LoadGenerator generator = new LoadGenerator(entities, latency, dropRate, seed);
+        System.out.println(generator.run(rate, duration));
+    }
+}
@@ -0,0 +1,136 @@
+package com.ddelp.volvoce.benchmark;
+
+import com.ddelp.volvoce.helpers.GPSCodec;
+import com.ddelp.volvoce.helpers.LocationFilter;
+import com.ddelp.volvoce.helpers.LocationTrace;
+import com.ddelp.volvoce.helpers.TraceReplayer;
+import com.ddelp.volvoce.helpers.UploadGate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Benchmarks of one device's location pipeline, replaying a LocationTrace at
+ * maximum speed through the upload gate with and without the LocationFilter.
+ *
+ * The trace is a worker of a SyntheticMovement with 5 m GPS noise every
+ * second and a 30 m network fix every ten, recorded once in setup so every
+ * run replays identical fixes. A trace recorded on a device by
+ * LocationHelper.startRecording can be used instead with -p trace=<file>.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class LocationPipelineBenchmark {
+
+    /** Seconds of synthetic shift, 36000 is a 10-hour shift */
+    @Param({"3600", "36000"})
+    public int seconds;
+
+    /** Recorded trace to replay instead of the synthetic one */
+    @Param({""})
+    public String trace;
+
+    private byte[] traceBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (!trace.isEmpty()) {
+            traceBytes = Files.readAllBytes(Paths.get(trace));
+            return;
+        }
+        SyntheticWorksite site = new SyntheticWorksite(10, SyntheticWorksite.Distribution.UNIFORM, 42);
+        SyntheticMovement movement = new SyntheticMovement(site, 42);
+        Random noise = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(seconds * LocationTrace.RECORD_SIZE * 2);
+        LocationTrace.Writer writer = new LocationTrace.Writer(out);
+        long start = 1500000000000L;
+        for (int second = 0; second < seconds; second++) {
+            movement.step(1);
+            writeFix(writer, movement, noise, LocationTrace.PROVIDER_GPS, 5, start, second * 1000L);
+            if (second % 10 == 0) {
+                writeFix(writer, movement, noise, LocationTrace.PROVIDER_NETWORK, 30, start, second * 1000L + 300);
+            }
+        }
+        writer.close();
+        traceBytes = out.toByteArray();
+    }
+
+    /**
+     * Raw fixes straight into the upload gate, as before the filter
+     *
+     * @return number of uploads
+     */
+    @Benchmark
+    public long replayRaw() throws IOException {
+        final UploadGate gate = new UploadGate();
+        final long[] uploads = new long[1];
+        new TraceReplayer(new ByteArrayInputStream(traceBytes), false).run(new TraceReplayer.FixListener() {
+            @Override
+            public void onFix(LocationTrace.Fix fix) {
+                double latitude = GPSCodec.decode(fix.latitudeE7);
+                double longitude = GPSCodec.decode(fix.longitudeE7);
+                double speed = Float.isNaN(fix.speed) ? 0 : fix.speed;
+                double heading = Float.isNaN(fix.bearing) ? 0 : fix.bearing;
+                if (gate.shouldSend(latitude, longitude, speed, heading, fix.time, fix.time)) {
+                    gate.sent(latitude, longitude, speed, heading, fix.time, fix.time);
+                    uploads[0]++;
+                }
+            }
+        });
+        return uploads[0];
+    }
+
+    /**
+     * Fixes fused by the filter before the upload gate, as LocationHelper does
+     *
+     * @return number of uploads
+     */
+    @Benchmark
+    public long replayFiltered() throws IOException {
+        final LocationFilter filter = new LocationFilter();
+        final UploadGate gate = new UploadGate();
+        final long[] uploads = new long[1];
+        new TraceReplayer(new ByteArrayInputStream(traceBytes), false).run(new TraceReplayer.FixListener() {
+            @Override
+            public void onFix(LocationTrace.Fix fix) {
+                if (!filter.update(GPSCodec.decode(fix.latitudeE7), GPSCodec.decode(fix.longitudeE7),
+                        Float.isNaN(fix.accuracy) ? 0 : fix.accuracy, fix.elapsedRealtimeNanos / 1000000)) {
+                    return;
+                }
+                double latitude = filter.getLatitude();
+                double longitude = filter.getLongitude();
+                if (gate.shouldSend(latitude, longitude, filter.getSpeed(), filter.getHeading(),
+                        fix.time, fix.time)) {
+                    gate.sent(latitude, longitude, filter.getSpeed(), filter.getHeading(), fix.time, fix.time);
+                    uploads[0]++;
+                }
+            }
+        });
+        return uploads[0];
+    }
+
+    private static void writeFix(LocationTrace.Writer writer, SyntheticMovement movement, Random noise,
+                                 byte provider, double accuracy, long start, long offset)
+            throws IOException {
+        // GPSCodec units per meter: 1e7 / METERS_PER_DEGREE, and scaled by cos(latitude) for longitude
+        int latitude = movement.getLatitudeE7(0) + (int) (noise.nextGaussian() * accuracy * 90);
+        int longitude = movement.getLongitudeE7(0) + (int) (noise.nextGaussian() * accuracy * 113);
+        writer.write(provider, start + offset, offset * 1000000L, latitude, longitude, (float) accuracy,
+                Float.NaN, Float.NaN);
+    }
+}
@@ -0,0 +1,86 @@
+package com.ddelp.volvoce.benchmark;
+
+import com.ddelp.volvoce.helpers.PositionStore;
+import com.ddelp.volvoce.helpers.SpatialHash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the broadphase spatial index on its own: building it from a
+ * worksite, moving every entity, and querying the neighbourhood of every
+ * entity. A new index should get the same three benchmarks so they can be
+ * compared side by side.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SpatialIndexBenchmark {
+
+    /** Cell size in meters, about the largest hazard envelope */
+    private static final double CELL_SIZE = 21;
+
+    @Param({"10", "100", "1000", "10000", "50000"})
+    public int entities;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public SyntheticWorksite.Distribution distribution;
+
+    private double[] xs;
+    private double[] ys;
+    private SpatialHash hash;
+    private final SpatialHash.Results results = new SpatialHash.Results();
+    /** Toggled every move so entities actually change cells sometimes */
+    private double offset;
+
+    @Setup
+    public void setUp() {
+        SyntheticWorksite site = new SyntheticWorksite(entities, distribution, 42);
+        PositionStore store = site.newWorkerStore();
+        xs = new double[store.size()];
+        ys = new double[store.size()];
+        for (int i = 0; i < store.size(); i++) {
+            xs[i] = store.getX(i);
+            ys[i] = store.getY(i);
+        }
+        hash = build();
+    }
+
+    @Benchmark
+    public SpatialHash buildSpatialHash() {
+        return build();
+    }
+
+    @Benchmark
+    public SpatialHash moveAll() {
+        offset = offset == 0 ? CELL_SIZE / 2 : 0;
+        for (int i = 0; i < xs.length; i++) {
+            hash.put(i, xs[i] + offset, ys[i]);
+        }
+        return hash;
+    }
+
+    @Benchmark
+    public int queryAll() {
+        int found = 0;
+        for (int i = 0; i < xs.length; i++) {
+            found += hash.queryNeighbours(xs[i], ys[i], results);
+        }
+        return found;
+    }
+
+    private SpatialHash build() {
+        SpatialHash built = new SpatialHash(CELL_SIZE);
+        for (int i = 0; i < xs.length; i++) {
+            built.put(i, xs[i], ys[i]);
+        }
+        return built;
+    }
+}
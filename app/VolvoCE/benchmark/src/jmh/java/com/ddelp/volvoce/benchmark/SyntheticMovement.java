@@ -0,0 +1,260 @@
+package com.ddelp.volvoce.benchmark;
+
+import com.ddelp.volvoce.helpers.GPSCodec;
+import com.ddelp.volvoce.helpers.LocalProjection;
+import com.ddelp.volvoce.objects.Machine;
+
+import java.util.Random;
+
+/**
+ * Seeded movement of the entities of a SyntheticWorksite over time. Workers
+ * random walk at walking pace, haul trucks drive between a loading and a
+ * dump point, excavators creep around their dig face, and everyone stops
+ * for idle periods (breaks, loading, dumping). Positions are kept in local
+ * meters, so stepping allocates nothing.
+ *
+ * Entities are indexed workers first, then machines, in the order of the
+ * site's ID arrays.
+ */
+public class SyntheticMovement {
+
+    /** What an entity is doing */
+    public static final int MODE_WALK = 0;
+    public static final int MODE_HAUL = 1;
+    public static final int MODE_DIG = 2;
+    public static final int MODE_IDLE = 3;
+
+    /** Walking pace in m/s */
+    private static final double WALK_SPEED = 1.4;
+    /** Loaded and empty haul speed in m/s */
+    private static final double HAUL_SPEED = 8;
+    /** Excavator tracking speed in m/s */
+    private static final double DIG_SPEED = 0.5;
+    /** Largest heading change of a walk step in degrees per second */
+    private static final double WALK_TURN = 30;
+    /** Chance per second that a walking or digging entity stops */
+    private static final double IDLE_CHANCE = 0.01;
+    /** Shortest and longest idle period in seconds */
+    private static final double IDLE_MIN = 5;
+    private static final double IDLE_MAX = 60;
+    /** Distance from its waypoint at which a truck has arrived, in meters */
+    private static final double ARRIVED = 5;
+    /** Largest distance of a haul route end from the truck's start, in meters */
+    private static final double HAUL_RANGE = 800;
+    /** Largest distance an excavator strays from its dig face, in meters */
+    private static final double DIG_RANGE = 15;
+
+    private final Random random;
+    private final LocalProjection projection;
+    private final double halfSite;
+    private final int workers;
+
+    private final double[] x;
+    private final double[] y;
+    private final double[] speed;
+    private final double[] heading;
+    private final int[] mode;
+    /** Mode to return to after idling */
+    private final int[] activeMode;
+    /** Seconds left of the idle period */
+    private final double[] idleLeft;
+    /** Haul route ends (loading point, dump point), or the dig face of an excavator */
+    private final double[] homeX;
+    private final double[] homeY;
+    private final double[] awayX;
+    private final double[] awayY;
+    /** Flag if a truck is heading away from home */
+    private final boolean[] outbound;
+
+    /**
+     * @param site Site the entities start from
+     * @param seed Random seed, the same seed always gives the same movement
+     */
+    public SyntheticMovement(SyntheticWorksite site, long seed) {
+        random = new Random(seed);
+        projection = site.projection;
+        halfSite = SyntheticWorksite.SITE_SIZE / 2;
+        workers = site.workerIDs.length;
+        int count = workers + site.machineIDs.length;
+        x = new double[count];
+        y = new double[count];
+        speed = new double[count];
+        heading = new double[count];
+        mode = new int[count];
+        activeMode = new int[count];
+        idleLeft = new double[count];
+        homeX = new double[count];
+        homeY = new double[count];
+        awayX = new double[count];
+        awayY = new double[count];
+        outbound = new boolean[count];
+
+        for (int i = 0; i < count; i++) {
+            long location = i < workers ? site.workerLocations[i]
+                    : GPSCodec.parse(site.machineGPS[i - workers]);
+            x[i] = projection.toX(GPSCodec.decode(GPSCodec.longitude(location)));
+            y[i] = projection.toY(GPSCodec.decode(GPSCodec.latitude(location)));
+            heading[i] = random.nextDouble() * 360;
+            homeX[i] = x[i];
+            homeY[i] = y[i];
+            if (i < workers) {
+                activeMode[i] = MODE_WALK;
+            } else if (site.machineTypes[i - workers] == Machine.MACHINE_TYPE_HAUL_TRUCK) {
+                activeMode[i] = MODE_HAUL;
+                awayX[i] = clamp(x[i] + (random.nextDouble() * 2 - 1) * HAUL_RANGE);
+                awayY[i] = clamp(y[i] + (random.nextDouble() * 2 - 1) * HAUL_RANGE);
+                outbound[i] = true;
+            } else {
+                activeMode[i] = MODE_DIG;
+            }
+            mode[i] = activeMode[i];
+            // Start some of the site on a break so idling isn't synchronised
+            if (random.nextDouble() < 0.2) {
+                idle(i);
+            }
+        }
+    }
+
+    /**
+     * @return number of entities, workers and machines
+     */
+    public int size() {
+        return x.length;
+    }
+
+    /**
+     * @return number of workers, the first entities
+     */
+    public int getWorkerCount() {
+        return workers;
+    }
+
+    /**
+     * Move every entity forward in time
+     *
+     * @param seconds Time step, a fraction of a second for realistic paths
+     */
+    public void step(double seconds) {
+        for (int i = 0; i < x.length; i++) {
+            switch (mode[i]) {
+                case MODE_IDLE:
+                    idleLeft[i] -= seconds;
+                    if (idleLeft[i] <= 0) {
+                        mode[i] = activeMode[i];
+                    }
+                    break;
+                case MODE_WALK:
+                    heading[i] += (random.nextDouble() * 2 - 1) * WALK_TURN * seconds;
+                    speed[i] = WALK_SPEED;
+                    advance(i, seconds);
+                    maybeIdle(i, seconds);
+                    break;
+                case MODE_DIG:
+                    // Turn back towards the dig face once too far out
+                    if (Math.hypot(x[i] - homeX[i], y[i] - homeY[i]) > DIG_RANGE) {
+                        heading[i] = bearing(x[i], y[i], homeX[i], homeY[i]);
+                    } else {
+                        heading[i] += (random.nextDouble() * 2 - 1) * WALK_TURN * seconds;
+                    }
+                    speed[i] = DIG_SPEED;
+                    advance(i, seconds);
+                    maybeIdle(i, seconds);
+                    break;
+                case MODE_HAUL:
+                    double targetX = outbound[i] ? awayX[i] : homeX[i];
+                    double targetY = outbound[i] ? awayY[i] : homeY[i];
+                    if (Math.hypot(targetX - x[i], targetY - y[i]) <= ARRIVED) {
+                        // Loading or dumping
+                        outbound[i] = !outbound[i];
+                        idle(i);
+                        break;
+                    }
+                    heading[i] = bearing(x[i], y[i], targetX, targetY);
+                    speed[i] = HAUL_SPEED;
+                    advance(i, seconds);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @param i Entity index
+     * @return the current mode, one of the MODE constants
+     */
+    public int getMode(int i) {
+        return mode[i];
+    }
+
+    /**
+     * @param i Entity index
+     * @return the latitude in GPSCodec units
+     */
+    public int getLatitudeE7(int i) {
+        return GPSCodec.encode(projection.getOriginLatitude() + y[i] / LocalProjection.METERS_PER_DEGREE);
+    }
+
+    /**
+     * @param i Entity index
+     * @return the longitude in GPSCodec units
+     */
+    public int getLongitudeE7(int i) {
+        return GPSCodec.encode(projection.getOriginLongitude() + x[i] / (LocalProjection.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(projection.getOriginLatitude()))));
+    }
+
+    /**
+     * @param i Entity index
+     * @return the speed in m/s, 0 while idle
+     */
+    public double getSpeed(int i) {
+        return speed[i];
+    }
+
+    /**
+     * @param i Entity index
+     * @return the heading in degrees clockwise from north, between 0 and 360
+     */
+    public double getHeading(int i) {
+        return heading[i];
+    }
+
+    /********************************** Movement helpers **********************************/
+
+    private void advance(int i, double seconds) {
+        heading[i] = (heading[i] % 360 + 360) % 360;
+        double radians = Math.toRadians(heading[i]);
+        double nextX = x[i] + Math.sin(radians) * speed[i] * seconds;
+        double nextY = y[i] + Math.cos(radians) * speed[i] * seconds;
+        // Bounce off the edge of the site
+        if (Math.abs(nextX) > halfSite) {
+            heading[i] = 360 - heading[i];
+            nextX = clamp(nextX);
+        }
+        if (Math.abs(nextY) > halfSite) {
+            heading[i] = (540 - heading[i]) % 360;
+            nextY = clamp(nextY);
+        }
+        x[i] = nextX;
+        y[i] = nextY;
+    }
+
+    private void maybeIdle(int i, double seconds) {
+        if (random.nextDouble() < IDLE_CHANCE * seconds) {
+            idle(i);
+        }
+    }
+
+    private void idle(int i) {
+        mode[i] = MODE_IDLE;
+        speed[i] = 0;
+        idleLeft[i] = IDLE_MIN + random.nextDouble() * (IDLE_MAX - IDLE_MIN);
+    }
+
+    private double clamp(double coordinate) {
+        return Math.max(-halfSite, Math.min(halfSite, coordinate));
+    }
+
+    private static double bearing(double fromX, double fromY, double toX, double toY) {
+        return (Math.toDegrees(Math.atan2(toX - fromX, toY - fromY)) + 360) % 360;
+    }
+}
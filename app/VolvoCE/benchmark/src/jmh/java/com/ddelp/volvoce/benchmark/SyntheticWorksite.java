@@ -0,0 +1,129 @@
+package com.ddelp.volvoce.benchmark;
+
+import com.ddelp.volvoce.helpers.GPSCodec;
+import com.ddelp.volvoce.helpers.LocalProjection;
+import com.ddelp.volvoce.helpers.PositionStore;
+import com.ddelp.volvoce.objects.Machine;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Seeded synthetic worksite for the benchmarks. One in ten entities is a
+ * machine, the rest are workers, all placed inside a square site either
+ * uniformly or in a few dense clusters (crews around a dig face, trucks at
+ * a loading point), which is the worst case for a uniform grid.
+ */
+public class SyntheticWorksite {
+
+    /** How entities are spread over the site */
+    public enum Distribution {
+        UNIFORM,
+        CLUSTERED
+    }
+
+    /** Site centre, near the original test worksites */
+    public static final double ORIGIN_LATITUDE = 37.4300;
+    public static final double ORIGIN_LONGITUDE = -122.1700;
+    /** Side of the square site in meters */
+    public static final double SITE_SIZE = 2000;
+    /** Standard deviation of a cluster in meters */
+    private static final double CLUSTER_SPREAD = 25;
+    /** Number of clusters a clustered site is built from */
+    private static final int CLUSTERS = 8;
+
+    public final String[] workerIDs;
+    public final String[] workerGPS;
+    /** workerGPS packed by GPSCodec, as the numeric Firebase fields arrive */
+    public final long[] workerLocations;
+    public final String[] machineIDs;
+    public final String[] machineGPS;
+    public final double[] machineSpeeds;
+    public final double[] machineHeadings;
+    public final int[] machineTypes;
+    public final LocalProjection projection =
+            new LocalProjection(ORIGIN_LATITUDE, ORIGIN_LONGITUDE);
+
+    /**
+     * @param entities Total number of workers and machines
+     * @param distribution How to place them
+     * @param seed Random seed, the same seed always gives the same site
+     */
+    public SyntheticWorksite(int entities, Distribution distribution, long seed) {
+        Random random = new Random(seed);
+        int machines = Math.max(1, entities / 10);
+        int workers = Math.max(1, entities - machines);
+        double[] clusterX = new double[CLUSTERS];
+        double[] clusterY = new double[CLUSTERS];
+        for (int i = 0; i < CLUSTERS; i++) {
+            clusterX[i] = (random.nextDouble() - 0.5) * SITE_SIZE;
+            clusterY[i] = (random.nextDouble() - 0.5) * SITE_SIZE;
+        }
+
+        workerIDs = new String[workers];
+        workerGPS = new String[workers];
+        workerLocations = new long[workers];
+        for (int i = 0; i < workers; i++) {
+            workerIDs[i] = String.format(Locale.US, "w%06d", i);
+            workerGPS[i] = place(random, distribution, clusterX, clusterY);
+            workerLocations[i] = GPSCodec.parse(workerGPS[i]);
+        }
+        machineIDs = new String[machines];
+        machineGPS = new String[machines];
+        machineSpeeds = new double[machines];
+        machineHeadings = new double[machines];
+        machineTypes = new int[machines];
+        for (int i = 0; i < machines; i++) {
+            machineIDs[i] = String.format(Locale.US, "m%06d", i);
+            machineGPS[i] = place(random, distribution, clusterX, clusterY);
+            machineSpeeds[i] = random.nextDouble() * 10;
+            machineHeadings[i] = random.nextDouble() * 360;
+            machineTypes[i] = random.nextBoolean()
+                    ? Machine.MACHINE_TYPE_EXCAVATOR : Machine.MACHINE_TYPE_HAUL_TRUCK;
+        }
+    }
+
+    /**
+     * @return a worker store filled with the site's workers
+     */
+    public PositionStore newWorkerStore() {
+        PositionStore store = new PositionStore(workerIDs.length);
+        store.setProjection(projection);
+        for (int i = 0; i < workerIDs.length; i++) {
+            store.put(workerIDs[i], workerGPS[i]);
+        }
+        return store;
+    }
+
+    /**
+     * @return a machine store filled with the site's machines
+     */
+    public PositionStore newMachineStore() {
+        PositionStore store = new PositionStore(machineIDs.length);
+        store.setProjection(projection);
+        for (int i = 0; i < machineIDs.length; i++) {
+            int index = store.put(machineIDs[i], machineGPS[i], machineSpeeds[i],
+                    machineHeadings[i], 0);
+            store.setType(index, machineTypes[i]);
+        }
+        return store;
+    }
+
+    private String place(Random random, Distribution distribution,
+                         double[] clusterX, double[] clusterY) {
+        double x;
+        double y;
+        if (distribution == Distribution.CLUSTERED) {
+            int cluster = random.nextInt(CLUSTERS);
+            x = clusterX[cluster] + random.nextGaussian() * CLUSTER_SPREAD;
+            y = clusterY[cluster] + random.nextGaussian() * CLUSTER_SPREAD;
+        } else {
+            x = (random.nextDouble() - 0.5) * SITE_SIZE;
+            y = (random.nextDouble() - 0.5) * SITE_SIZE;
+        }
+        double latitude = ORIGIN_LATITUDE + y / LocalProjection.METERS_PER_DEGREE;
+        double longitude = ORIGIN_LONGITUDE + x / (LocalProjection.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(ORIGIN_LATITUDE)));
+        return String.format(Locale.US, "%.7f,%.7f", latitude, longitude);
+    }
+}
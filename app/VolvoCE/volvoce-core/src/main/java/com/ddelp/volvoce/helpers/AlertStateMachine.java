@@ -0,0 +1,117 @@
+package com.ddelp.volvoce.helpers;
+
+import java.util.Arrays;
+
+/**
+ * Per entity alert state with hysteresis and minimum dwell times.
+ *
+ * An entity enters the alert state when it is inside the enter zone (the
+ * alert distance or hazard envelope) and only leaves it once it is outside
+ * the wider exit zone. On top of that an alert stays on for at least
+ * minOnTime and stays off for at least minOffTime, so GPS jitter around the
+ * threshold doesn't sound the horn, send BLE packets and write to Firebase
+ * on every tick.
+ *
+ * Entities are identified by their index in a PositionStore. update reports
+ * only real transitions; a transition held back by a dwell time is picked up
+ * by a later update, so callers should re-evaluate every entity periodically.
+ */
+public class AlertStateMachine {
+
+    /** Default minimum time an alert stays on, in milliseconds */
+    public static final long DEFAULT_MIN_ON_TIME = 3000;
+    /** Default minimum time an alert stays off, in milliseconds */
+    public static final long DEFAULT_MIN_OFF_TIME = 1000;
+
+    private long minOnTime = DEFAULT_MIN_ON_TIME;
+    private long minOffTime = DEFAULT_MIN_OFF_TIME;
+    /** Current state, indexed by entity */
+    private boolean[] alerting = new boolean[16];
+    /** Flag if the entity has been evaluated at least once */
+    private boolean[] known = new boolean[16];
+    /** Time of the last transition in milliseconds */
+    private long[] lastChange = new long[16];
+
+    /**
+     * @param onTime Minimum time in milliseconds an alert stays on
+     * @param offTime Minimum time in milliseconds an alert stays off
+     */
+    public void setDwellTimes(long onTime, long offTime) {
+        minOnTime = Math.max(onTime, 0);
+        minOffTime = Math.max(offTime, 0);
+    }
+
+    /**
+     * Feed the current zone of an entity into its state machine.
+     *
+     * @param index Index of the entity
+     * @param enter Flag if the entity is inside the enter zone
+     * @param hold Flag if the entity is inside the exit zone
+     * @param now Current time in milliseconds
+     * @return flag if the alert state changed, including the first evaluation
+     * of an entity
+     */
+    public boolean update(int index, boolean enter, boolean hold, long now) {
+        ensureCapacity(index + 1);
+        if (!known[index]) {
+            known[index] = true;
+            alerting[index] = enter;
+            lastChange[index] = now;
+            return true;
+        }
+        long dwell = now - lastChange[index];
+        if (alerting[index]) {
+            if (enter || hold || dwell < minOnTime) {
+                return false;
+            }
+        } else if (!enter || dwell < minOffTime) {
+            return false;
+        }
+        alerting[index] = !alerting[index];
+        lastChange[index] = now;
+        return true;
+    }
+
+    /**
+     * @param index Index of the entity
+     * @return flag if the entity is in the alert state
+     */
+    public boolean isAlerting(int index) {
+        return index < alerting.length && alerting[index];
+    }
+
+    /**
+     * Switch an entity's alert off straight away, ignoring the dwell time,
+     * e.g. when it leaves the worksite
+     *
+     * @param index Index of the entity
+     * @param now Current time in milliseconds
+     * @return flag if the entity was alerting
+     */
+    public boolean release(int index, long now) {
+        ensureCapacity(index + 1);
+        boolean wasAlerting = alerting[index];
+        known[index] = true;
+        alerting[index] = false;
+        lastChange[index] = now;
+        return wasAlerting;
+    }
+
+    /**
+     * Forget every entity, e.g. when the stores are rebuilt
+     */
+    public void clear() {
+        Arrays.fill(alerting, false);
+        Arrays.fill(known, false);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= alerting.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, alerting.length * 2);
+        alerting = Arrays.copyOf(alerting, newCapacity);
+        known = Arrays.copyOf(known, newCapacity);
+        lastChange = Arrays.copyOf(lastChange, newCapacity);
+    }
+}
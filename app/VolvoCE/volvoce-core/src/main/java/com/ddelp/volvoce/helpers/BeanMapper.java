@@ -0,0 +1,269 @@
+package com.ddelp.volvoce.helpers;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts between beans and the plain tree LoopbackStore keeps, following
+ * the conventions Firebase's mapper uses on the same classes: properties
+ * come from public getters and fields, "getGPS" becomes "gps", whole
+ * numbers are Long and fractions Double. Unknown properties are ignored.
+ */
+class BeanMapper {
+
+    private BeanMapper() {
+    }
+
+    /**
+     * @param value Any value accepted by RealtimeStore
+     * @return the value as Boolean, Long, Double, String, List, Map or null
+     */
+    @SuppressWarnings("unchecked")
+    static Object toTree(Object value) {
+        if (value == null || value instanceof Boolean || value instanceof String) {
+            return value;
+        }
+        if (value instanceof Number) {
+            return normalise((Number) value);
+        }
+        if (value instanceof Map) {
+            Map<String, Object> tree = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                Object child = toTree(entry.getValue());
+                if (child != null) {
+                    tree.put(entry.getKey(), child);
+                }
+            }
+            return tree.isEmpty() ? null : tree;
+        }
+        if (value instanceof List) {
+            List<Object> tree = new ArrayList<>();
+            for (Object element : (List<Object>) value) {
+                tree.add(toTree(element));
+            }
+            return tree.isEmpty() ? null : tree;
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        return beanToTree(value);
+    }
+
+    /**
+     * @param tree Value in tree form
+     * @param type Class to convert to
+     * @return the converted value, null for a null tree
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T fromTree(Object tree, Class<T> type) {
+        return (T) convert(tree, type, null);
+    }
+
+    /**
+     * Deep copy of a tree, so snapshots don't change under their listeners
+     */
+    @SuppressWarnings("unchecked")
+    static Object copy(Object tree) {
+        if (tree instanceof Map) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) tree).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
+        }
+        if (tree instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (List<Object>) tree) {
+                copy.add(copy(element));
+            }
+            return copy;
+        }
+        return tree;
+    }
+
+    /********************************** Conversion helpers **********************************/
+
+    private static Object normalise(Number number) {
+        if (number instanceof Double || number instanceof Float) {
+            return number.doubleValue();
+        }
+        return number.longValue();
+    }
+
+    private static Map<String, Object> beanToTree(Object bean) {
+        Map<String, Object> tree = new LinkedHashMap<>();
+        for (Field field : bean.getClass().getFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            try {
+                putProperty(tree, field.getName(), field.get(bean));
+            } catch (IllegalAccessException e) {
+                // Public, can't happen
+            }
+        }
+        for (Method method : bean.getClass().getMethods()) {
+            String property = propertyName(method);
+            if (property == null) {
+                continue;
+            }
+            try {
+                putProperty(tree, property, method.invoke(bean));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Couldn't read " + property + " of " + bean, e);
+            }
+        }
+        return tree;
+    }
+
+    private static void putProperty(Map<String, Object> tree, String property, Object value) {
+        Object child = toTree(value);
+        if (child != null) {
+            tree.put(property, child);
+        }
+    }
+
+    /**
+     * @return property name of a getter, e.g. "gps" for getGPS, or null if it isn't one
+     */
+    private static String propertyName(Method method) {
+        if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length != 0
+                || method.getDeclaringClass() == Object.class) {
+            return null;
+        }
+        String name = method.getName();
+        String property;
+        if (name.startsWith("get") && name.length() > 3) {
+            property = name.substring(3);
+        } else if (name.startsWith("is") && name.length() > 2
+                && (method.getReturnType() == boolean.class || method.getReturnType() == Boolean.class)) {
+            property = name.substring(2);
+        } else {
+            return null;
+        }
+        // Lower-case the leading capitals, as Jackson does: GPS -> gps, LatitudeE7 -> latitudeE7
+        char[] chars = property.toCharArray();
+        for (int i = 0; i < chars.length && Character.isUpperCase(chars[i]); i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object convert(Object tree, Class<?> type, Type genericType) {
+        if (tree == null) {
+            return type.isPrimitive() ? convert(0L, type, null) : null;
+        }
+        if (type == Object.class) {
+            return copy(tree);
+        }
+        if (tree instanceof Number) {
+            Number number = (Number) tree;
+            if (type == int.class || type == Integer.class) {
+                return number.intValue();
+            } else if (type == long.class || type == Long.class) {
+                return number.longValue();
+            } else if (type == double.class || type == Double.class) {
+                return number.doubleValue();
+            } else if (type == float.class || type == Float.class) {
+                return number.floatValue();
+            }
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return tree instanceof Boolean ? tree : Boolean.valueOf(tree.toString());
+        }
+        if (type == String.class) {
+            return tree.toString();
+        }
+        if (type.isInstance(tree) && !(tree instanceof Map) && !(tree instanceof List)) {
+            return tree;
+        }
+        if (List.class.isAssignableFrom(type) && tree instanceof List) {
+            Class<?> elementType = typeArgument(genericType, 0);
+            List<Object> list = new ArrayList<>();
+            for (Object element : (List<Object>) tree) {
+                list.add(convert(element, elementType, null));
+            }
+            return list;
+        }
+        if (Map.class.isAssignableFrom(type) && tree instanceof Map) {
+            Class<?> valueType = typeArgument(genericType, 1);
+            Map<String, Object> map = new HashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) tree).entrySet()) {
+                map.put(entry.getKey(), convert(entry.getValue(), valueType, null));
+            }
+            return map;
+        }
+        if (tree instanceof Map) {
+            return treeToBean((Map<String, Object>) tree, type);
+        }
+        throw new IllegalArgumentException("Can't convert " + tree + " to " + type.getName());
+    }
+
+    private static Object treeToBean(Map<String, Object> tree, Class<?> type) {
+        Object bean;
+        try {
+            bean = type.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException(type.getName() + " needs a public no-arg constructor", e);
+        }
+        for (Map.Entry<String, Object> entry : tree.entrySet()) {
+            String property = entry.getKey();
+            try {
+                Method setter = setterFor(type, property);
+                if (setter != null) {
+                    setter.invoke(bean, convert(entry.getValue(), setter.getParameterTypes()[0],
+                            setter.getGenericParameterTypes()[0]));
+                    continue;
+                }
+                Field field = fieldFor(type, property);
+                if (field != null) {
+                    field.set(bean, convert(entry.getValue(), field.getType(), field.getGenericType()));
+                }
+            } catch (IllegalArgumentException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Couldn't set " + property + " of " + type.getName(), e);
+            }
+        }
+        return bean;
+    }
+
+    private static Method setterFor(Class<?> type, String property) {
+        String name = "set" + property;
+        for (Method method : type.getMethods()) {
+            if (method.getParameterTypes().length == 1 && method.getName().equalsIgnoreCase(name)
+                    && !Modifier.isStatic(method.getModifiers())) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static Field fieldFor(Class<?> type, String property) {
+        for (Field field : type.getFields()) {
+            if (field.getName().equalsIgnoreCase(property) && !Modifier.isStatic(field.getModifiers())) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static Class<?> typeArgument(Type genericType, int index) {
+        if (genericType instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+            if (index < arguments.length && arguments[index] instanceof Class) {
+                return (Class<?>) arguments[index];
+            }
+        }
+        return Object.class;
+    }
+}
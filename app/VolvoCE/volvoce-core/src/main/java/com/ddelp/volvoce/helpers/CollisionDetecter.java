@@ -0,0 +1,581 @@
+package com.ddelp.volvoce.helpers;
+
+import com.ddelp.volvoce.objects.HazardEnvelope;
+import com.ddelp.volvoce.objects.Machine;
+import com.ddelp.volvoce.objects.Worker;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Created by Denny on 5/16/16.
+ *
+ * Distances are measured in meters on the worksite's LocalProjection, which
+ * the PositionStores apply once per update, so comparing a pair is a squared
+ * distance check with no trig or square root. If the worker and machine
+ * stores end up on different projections the machines are re-projected onto
+ * the workers' one.
+ *
+ * Machine types with a HazardEnvelope (e.g. an excavator's swing radius or a
+ * haul truck's rear blind spot) are tested against that envelope, oriented
+ * by the machine heading, instead of the circular alert distance. Envelopes
+ * come from data and their rotated geometry is cached per type by
+ * HazardGeometry. The pair test itself lives in CollisionRules.
+ *
+ * Workers and machines are bucketed into SpatialHashes with cells slightly
+ * larger than the alert distance (or the largest envelope), so an entity is only compared against
+ * entities in its own and the neighbouring cells rather than against every
+ * entity on the site. Positions are read from PositionStores that are filled
+ * as updates arrive, so a detection pass doesn't parse or allocate.
+ *
+ * The detecter keeps the set of colliding worker/machine pairs. It can either
+ * recompute everything with detectCollisions, or be told about a single moved
+ * entity with workerUpdated/machineUpdated, in which case only the pairs
+ * involving that entity are re-evaluated. Either way the CollisionListener is
+ * only called for entities whose collision state changed.
+ *
+ * The grids are sized to the exit reach of the rules, so isWorkerNear and
+ * isMachineNear can tell if an entity is still within the exit margin of an
+ * alert with a single neighbourhood query.
+ *
+ * The map based detectCollisions runs on a private detecter sharing these
+ * rules, so it never rebinds the stores or fires the listener of this one.
+ */
+public class CollisionDetecter {
+
+    private static final String TAG = "CollisionDetecter";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    /** Cells are padded so rounding in the distance can't push a pair two cells apart */
+    private static final double CELL_PADDING = 1.001;
+    /** Smallest cell size in meters, used when the alert distance is zero or negative */
+    private static final double MIN_CELL_SIZE = 0.01;
+    /** Alert distance and hazard envelopes */
+    private final CollisionRules rules;
+    /** Collision state of the workers and machines */
+    private final Side workerSide;
+    private final Side machineSide;
+    /** Number of colliding worker/machine pairs */
+    private int pairCount;
+    /** Scratch buffer for the partners of an entity being re-evaluated */
+    private int[] candidates = new int[16];
+    /** Scratch buffer for the previous partners of an entity being re-evaluated */
+    private int[] previous = new int[16];
+    /** Query buffer for isWorkerNear/isMachineNear */
+    private final SpatialHash.Results nearby = new SpatialHash.Results();
+    /** Detecter and scratch stores for the map based detectCollisions, created on first use */
+    private CollisionDetecter mapDetecter;
+    private PositionStore scratchWorkers;
+    private PositionStore scratchMachines;
+    /** Listener for collision state changes */
+    private CollisionListener listener;
+
+    public CollisionDetecter() {
+        this(new CollisionRules());
+    }
+
+    /**
+     * @param rules Rules shared with the detecter that owns them
+     */
+    private CollisionDetecter(CollisionRules rules) {
+        this.rules = rules;
+        workerSide = new Side(true, cellSizeFor(rules.getExitReach()));
+        machineSide = new Side(false, cellSizeFor(rules.getExitReach()));
+        this.listener = null;
+    }
+
+    /**
+     * Set the alert threshold in degrees, as stored in Firebase. The threshold
+     * is converted to meters using the length of a degree of latitude.
+     *
+     * @param threshold Alert threshold in decimal-degree
+     */
+    public void setAlertThreshold(double threshold) {
+        LOG.info("New alert threshold set: " + threshold);
+        setAlertDistance(threshold * LocalProjection.METERS_PER_DEGREE);
+    }
+
+    /**
+     * Set the distance in meters under which a worker and machine collide
+     *
+     * @param meters Alert distance in meters
+     */
+    public void setAlertDistance(double meters) {
+        rules.setAlertDistance(meters);
+        updateCellSize();
+    }
+
+    /**
+     * Set the hazard envelopes of each machine type. Machines whose type has
+     * no envelope keep using the circular alert distance.
+     *
+     * @param envelopes Hazard envelopes, at most one per machine type
+     */
+    public void setHazardEnvelopes(List<HazardEnvelope> envelopes) {
+        rules.setHazardEnvelopes(envelopes);
+        updateCellSize();
+    }
+
+    /**
+     * Set how much further than the alert distance (or envelope) a pair must
+     * be before isWorkerNear/isMachineNear stop reporting it.
+     *
+     * @param meters Exit margin in meters
+     */
+    public void setExitMargin(double meters) {
+        LOG.info("New alert exit margin set: " + meters);
+        rules.setExitMargin(meters);
+        updateCellSize();
+    }
+
+    /**
+     * Size the grids to the largest reach of any machine, plus the exit
+     * margin, and recompute every pair, since they all depend on it.
+     */
+    private void updateCellSize() {
+        resizeGrids();
+        if (workerSide.store != null && machineSide.store != null) {
+            recomputeAll();
+        }
+    }
+
+    /**
+     * Size the grids to the exit reach of the rules, which may be shared
+     */
+    private void resizeGrids() {
+        double cellSize = cellSizeFor(rules.getExitReach());
+        workerSide.grid.setCellSize(cellSize);
+        machineSide.grid.setCellSize(cellSize);
+    }
+
+    /**
+     * Bind the worker and machine stores used by workerUpdated/machineUpdated
+     * and compute the collisions of every entity in them.
+     *
+     * @param workers Worker positions
+     * @param machines Machine positions
+     */
+    public void setPositionStores(PositionStore workers, PositionStore machines) {
+        if (workerSide.store != workers || machineSide.store != machines) {
+            workerSide.reset(workers);
+            machineSide.reset(machines);
+        }
+        recomputeAll();
+    }
+
+    /**
+     * Detect collisions between every worker and machine. Results are read
+     * back with {@link #isWorkerColliding(int)} and {@link #isMachineColliding(int)}
+     * and stay valid until the stores change.
+     *
+     * @param workers Worker positions
+     * @param machines Machine positions
+     * @return number of colliding worker/machine pairs
+     */
+    public int detectCollisions(PositionStore workers, PositionStore machines) {
+        setPositionStores(workers, machines);
+        return pairCount;
+    }
+
+    /**
+     * Re-evaluate only the pairs involving one worker after its position
+     * changed (or it was added to the bound worker store).
+     *
+     * @param index Index of the worker in the worker store
+     */
+    public void workerUpdated(int index) {
+        update(workerSide, machineSide, index);
+    }
+
+    /**
+     * Re-evaluate only the pairs involving one machine after its position
+     * changed (or it was added to the bound machine store).
+     *
+     * @param index Index of the machine in the machine store
+     */
+    public void machineUpdated(int index) {
+        update(machineSide, workerSide, index);
+    }
+
+    /**
+     * @return number of colliding worker/machine pairs
+     */
+    public int getCollisionCount() {
+        return pairCount;
+    }
+
+    /**
+     * @param index Index of the worker in the worker store
+     * @return flag if the worker is within the threshold of any machine
+     */
+    public boolean isWorkerColliding(int index) {
+        return workerSide.isColliding(index);
+    }
+
+    /**
+     * @param index Index of the machine in the machine store
+     * @return flag if the machine is within the threshold of any worker
+     */
+    public boolean isMachineColliding(int index) {
+        return machineSide.isColliding(index);
+    }
+
+    /**
+     * @param index Index of the worker in the worker store
+     * @return flag if the worker is colliding or within the exit margin of any machine
+     */
+    public boolean isWorkerNear(int index) {
+        return isNear(workerSide, machineSide, index);
+    }
+
+    /**
+     * @param index Index of the machine in the machine store
+     * @return flag if the machine is colliding or within the exit margin of any worker
+     */
+    public boolean isMachineNear(int index) {
+        return isNear(machineSide, workerSide, index);
+    }
+
+    /**
+     * Convenience wrapper that reads the position of every worker and
+     * machine and returns the colliding IDs. Leaves the bound stores, the
+     * results by index and the listener of this detecter untouched.
+     *
+     * @param workers Workers keyed by ID
+     * @param machines Machines keyed by ID
+     * @return Map of colliding Worker and Machine IDs
+     */
+    public Map<String, Boolean> detectCollisions(Map<String,Worker> workers,
+                                                 Map<String,Machine> machines) {
+        if (mapDetecter == null) {
+            mapDetecter = new CollisionDetecter(rules);
+            scratchWorkers = new PositionStore();
+            scratchMachines = new PositionStore();
+        }
+        scratchWorkers.clear();
+        scratchMachines.clear();
+        for (Worker worker : workers.values()) {
+            scratchWorkers.put(worker.getID(),
+                    GPSCodec.read(worker.getLatitudeE7(), worker.getLongitudeE7(), worker.getGPS()));
+        }
+        for (Machine machine : machines.values()) {
+            int index = scratchMachines.put(machine.getID(),
+                    GPSCodec.read(machine.getLatitudeE7(), machine.getLongitudeE7(), machine.getGPS()),
+                    machine.getVelocity(), machine.getDirection(), machine.getTimestamp());
+            scratchMachines.setType(index, machine.getType());
+        }
+        mapDetecter.resizeGrids();
+        mapDetecter.workerSide.reset(scratchWorkers);
+        mapDetecter.machineSide.reset(scratchMachines);
+        mapDetecter.recomputeAll();
+
+        Map<String, Boolean> collisionIDs = new HashMap<>();
+        for (int w = 0; w < scratchWorkers.size(); w++) {
+            if (mapDetecter.isWorkerColliding(w)) {
+                collisionIDs.put(scratchWorkers.getID(w), true);
+            }
+        }
+        for (int m = 0; m < scratchMachines.size(); m++) {
+            if (mapDetecter.isMachineColliding(m)) {
+                LOG.info("Collision detected! Machine: " + scratchMachines.getID(m));
+                collisionIDs.put(scratchMachines.getID(m), true);
+            }
+        }
+        return collisionIDs;
+    }
+
+    /********************************** Detection helpers **********************************/
+
+    /**
+     * Rebuild both grids and every pair from the bound stores
+     */
+    private void recomputeAll() {
+        PositionStore workers = workerSide.store;
+        PositionStore machines = machineSide.store;
+        alignProjections();
+        workerSide.ensureCapacity(workers.size());
+        machineSide.ensureCapacity(machines.size());
+        workerSide.fillGrid();
+        machineSide.fillGrid();
+        Arrays.fill(workerSide.partnerCount, 0);
+        Arrays.fill(machineSide.partnerCount, 0);
+        pairCount = 0;
+
+        for (int w = 0; w < workers.size(); w++) {
+            if (!workers.isLocated(w)) {
+                continue;
+            }
+            int found = machineSide.grid.queryNeighbours(workers.getX(w), workers.getY(w));
+            for (int i = 0; i < found; i++) {
+                int m = machineSide.grid.getResult(i);
+                if (rules.collides(workers, w, machines, m)) {
+                    workerSide.addPartner(w, m);
+                    machineSide.addPartner(m, w);
+                    pairCount++;
+                }
+            }
+        }
+        for (int w = 0; w < workers.size(); w++) {
+            refresh(workerSide, w);
+        }
+        for (int m = 0; m < machines.size(); m++) {
+            refresh(machineSide, m);
+        }
+    }
+
+    /**
+     * Re-evaluate the pairs of a single entity and notify the listener of any
+     * entity (on either side) whose collision state changed.
+     */
+    private void update(Side self, Side other, int index) {
+        if (self.store == null || other.store == null) {
+            return;
+        }
+        self.ensureCapacity(index + 1);
+        other.ensureCapacity(other.store.size());
+        if (alignProjections()) {
+            // Every machine moved onto a new frame
+            recomputeAll();
+            return;
+        }
+
+        // Find the current partners of this entity
+        int found = 0;
+        if (self.store.isLocated(index)) {
+            double x = self.store.getX(index);
+            double y = self.store.getY(index);
+            self.grid.put(index, x, y);
+            int neighbours = other.grid.queryNeighbours(x, y);
+            for (int i = 0; i < neighbours; i++) {
+                int j = other.grid.getResult(i);
+                boolean colliding = self.isWorkers
+                        ? rules.collides(self.store, index, other.store, j)
+                        : rules.collides(other.store, j, self.store, index);
+                if (colliding) {
+                    if (found == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, found * 2);
+                    }
+                    candidates[found++] = j;
+                }
+            }
+        } else {
+            self.grid.remove(index);
+        }
+
+        // Diff against the previous partners, keeping the other side in sync
+        int previousCount = self.partnerCount[index];
+        if (previous.length < previousCount) {
+            previous = new int[Math.max(previousCount, previous.length * 2)];
+        }
+        if (previousCount > 0) {
+            System.arraycopy(self.partners[index], 0, previous, 0, previousCount);
+        }
+        for (int i = 0; i < previousCount; i++) {
+            int j = previous[i];
+            if (!contains(candidates, found, j)) {
+                other.removePartner(j, index);
+                pairCount--;
+            }
+        }
+        for (int i = 0; i < found; i++) {
+            int j = candidates[i];
+            if (!contains(previous, previousCount, j)) {
+                other.addPartner(j, index);
+                pairCount++;
+            }
+        }
+        self.partnerCount[index] = 0;
+        for (int i = 0; i < found; i++) {
+            self.addPartner(index, candidates[i]);
+        }
+
+        refresh(self, index);
+        for (int i = 0; i < previousCount; i++) {
+            refresh(other, previous[i]);
+        }
+        for (int i = 0; i < found; i++) {
+            refresh(other, candidates[i]);
+        }
+    }
+
+    /**
+     * Update the collision flag of an entity from its pair count, notifying
+     * the listener the first time the entity is seen or when the flag flips.
+     */
+    private void refresh(Side side, int index) {
+        boolean colliding = side.partnerCount[index] > 0;
+        if (side.known[index] && side.colliding[index] == colliding) {
+            return;
+        }
+        side.known[index] = true;
+        side.colliding[index] = colliding;
+        if (listener != null) {
+            String id = side.store.getID(index);
+            if (side.isWorkers) {
+                listener.onWorkerCollisionChanged(index, id, colliding);
+            } else {
+                listener.onMachineCollisionChanged(index, id, colliding);
+            }
+        }
+    }
+
+    /**
+     * Test an entity against the exit zone of the other side. Only done on
+     * demand for entities holding an alert, so it isn't tracked per pair.
+     */
+    private boolean isNear(Side self, Side other, int index) {
+        if (self.isColliding(index)) {
+            return true;
+        }
+        if (self.store == null || other.store == null || index >= self.store.size()
+                || !self.store.isLocated(index)) {
+            return false;
+        }
+        int found = other.grid.queryNeighbours(self.store.getX(index), self.store.getY(index),
+                nearby);
+        for (int i = 0; i < found; i++) {
+            int j = nearby.get(i);
+            boolean near = self.isWorkers
+                    ? rules.isNear(self.store, index, other.store, j)
+                    : rules.isNear(other.store, j, self.store, index);
+            if (near) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Make sure workers and machines are measured on the same frame
+     *
+     * @return flag if the machines had to be re-projected
+     */
+    private boolean alignProjections() {
+        LocalProjection projection = workerSide.store.getProjection();
+        if (projection == null || machineSide.store.getProjection() == projection) {
+            return false;
+        }
+        machineSide.store.setProjection(projection);
+        machineSide.fillGrid();
+        return true;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Grid cell size for a given reach. Must never be smaller than the
+     * reach or the nine-cell neighbourhood would miss collisions.
+     */
+    private static double cellSizeFor(double reach) {
+        return Math.max(reach * CELL_PADDING, MIN_CELL_SIZE);
+    }
+
+    /**
+     * Grid, pair lists and collision flags for one kind of entity. Everything
+     * is indexed by the entity's index in its PositionStore.
+     */
+    private static class Side {
+        final boolean isWorkers;
+        final SpatialHash grid;
+        PositionStore store;
+        int[][] partners = new int[16][];
+        int[] partnerCount = new int[16];
+        boolean[] colliding = new boolean[16];
+        boolean[] known = new boolean[16];
+
+        Side(boolean isWorkers, double cellSize) {
+            this.isWorkers = isWorkers;
+            this.grid = new SpatialHash(cellSize);
+        }
+
+        void reset(PositionStore store) {
+            this.store = store;
+            grid.clear();
+            Arrays.fill(partnerCount, 0);
+            Arrays.fill(colliding, false);
+            Arrays.fill(known, false);
+        }
+
+        void fillGrid() {
+            if (grid.size() > store.size()) {
+                grid.clear();
+            }
+            for (int i = 0; i < store.size(); i++) {
+                if (store.isLocated(i)) {
+                    grid.put(i, store.getX(i), store.getY(i));
+                } else {
+                    grid.remove(i);
+                }
+            }
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity <= partnerCount.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, partnerCount.length * 2);
+            partners = Arrays.copyOf(partners, newCapacity);
+            partnerCount = Arrays.copyOf(partnerCount, newCapacity);
+            colliding = Arrays.copyOf(colliding, newCapacity);
+            known = Arrays.copyOf(known, newCapacity);
+        }
+
+        boolean isColliding(int index) {
+            return index < colliding.length && colliding[index];
+        }
+
+        void addPartner(int index, int partner) {
+            int[] list = partners[index];
+            int count = partnerCount[index];
+            if (list == null) {
+                list = new int[4];
+                partners[index] = list;
+            } else if (count == list.length) {
+                list = Arrays.copyOf(list, count * 2);
+                partners[index] = list;
+            }
+            list[count] = partner;
+            partnerCount[index] = count + 1;
+        }
+
+        void removePartner(int index, int partner) {
+            int[] list = partners[index];
+            int count = partnerCount[index];
+            for (int i = 0; i < count; i++) {
+                if (list[i] == partner) {
+                    list[i] = list[count - 1];
+                    partnerCount[index] = count - 1;
+                    return;
+                }
+            }
+        }
+    }
+
+    /********************************** Callback Implementation **********************************/
+
+    /**
+     * Interface definition for collision state callbacks
+     */
+    public interface CollisionListener {
+        public void onWorkerCollisionChanged(int index, String id, boolean colliding);
+        public void onMachineCollisionChanged(int index, String id, boolean colliding);
+    }
+
+    /**
+     * Assign the listener implementing events interface that will receive the events
+     *
+     * @param listener
+     */
+    public void setCollisionListener(CollisionListener listener) {
+        this.listener = listener;
+    }
+}
@@ -0,0 +1,255 @@
+package com.ddelp.volvoce.helpers;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Predicts worker/machine collisions from position, velocity and heading.
+ *
+ * Each entity is extrapolated from the time of its fix to now, then for every
+ * candidate pair the time and distance of closest approach are computed
+ * assuming both keep a constant velocity. A pair is flagged if it will come
+ * within the alert distance inside the prediction horizon, so the warning can
+ * go out before the pair is actually inside the threshold.
+ *
+ * Candidates come from a SpatialHash of machines whose cells are at least the
+ * alert distance plus the furthest the pair can close in the horizon, so a
+ * pass is one grid query per worker and allocates nothing.
+ */
+public class CollisionPredictor {
+
+    private static final String TAG = "CollisionPredictor";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    /** Fixes older than this are not extrapolated, their velocity is too stale */
+    private static final long MAX_EXTRAPOLATION = 5000;
+    /** Smallest cell size in meters */
+    private static final double MIN_CELL_SIZE = 1.0;
+    /** Alert distance in meters */
+    private double alertDistance = 0.0001 * LocalProjection.METERS_PER_DEGREE;
+    /** Prediction horizon in seconds */
+    private double horizon = 5.0;
+    /** Broadphase grid of extrapolated machine positions */
+    private final SpatialHash machineGrid;
+    /** Extrapolated positions for the current pass */
+    private double[] workerX = new double[16];
+    private double[] workerY = new double[16];
+    private double[] machineX = new double[16];
+    private double[] machineY = new double[16];
+    /** Predicted time to collision in seconds from the last pass, or -1 if none */
+    private double[] workerTimes = new double[16];
+    private double[] machineTimes = new double[16];
+
+    public CollisionPredictor() {
+        machineGrid = new SpatialHash(MIN_CELL_SIZE);
+        Arrays.fill(workerTimes, -1);
+        Arrays.fill(machineTimes, -1);
+    }
+
+    /**
+     * @param meters Distance in meters under which a worker and machine collide
+     */
+    public void setAlertDistance(double meters) {
+        alertDistance = meters;
+    }
+
+    /**
+     * @param threshold Alert threshold in decimal-degree, as stored in Firebase
+     */
+    public void setAlertThreshold(double threshold) {
+        setAlertDistance(threshold * LocalProjection.METERS_PER_DEGREE);
+    }
+
+    /**
+     * @param seconds How far ahead to predict collisions
+     */
+    public void setHorizon(double seconds) {
+        LOG.info("New prediction horizon set: " + seconds);
+        horizon = seconds;
+    }
+
+    public double getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * Predict collisions within the horizon. Results are read back with
+     * {@link #isWorkerPredicted(int)}, {@link #getWorkerTimeToCollision(int)}
+     * and their machine equivalents and stay valid until the next call.
+     *
+     * @param workers Worker positions
+     * @param machines Machine positions, on the same projection as the workers
+     * @param now Current time in milliseconds since epoch
+     * @return number of worker/machine pairs predicted to collide
+     */
+    public int predictCollisions(PositionStore workers, PositionStore machines, long now) {
+        ensureCapacity(workers.size(), machines.size());
+        Arrays.fill(workerTimes, -1);
+        Arrays.fill(machineTimes, -1);
+
+        // Extrapolate machines to now and find the fastest
+        double maxMachineSpeed = 0;
+        for (int m = 0; m < machines.size(); m++) {
+            if (!machines.isLocated(m)) {
+                continue;
+            }
+            double dt = age(machines.getTimestamp(m), now);
+            machineX[m] = machines.getX(m) + machines.getVelocityX(m) * dt;
+            machineY[m] = machines.getY(m) + machines.getVelocityY(m) * dt;
+            maxMachineSpeed = Math.max(maxMachineSpeed, speed(machines, m));
+        }
+        double maxWorkerSpeed = 0;
+        for (int w = 0; w < workers.size(); w++) {
+            if (!workers.isLocated(w)) {
+                continue;
+            }
+            double dt = age(workers.getTimestamp(w), now);
+            workerX[w] = workers.getX(w) + workers.getVelocityX(w) * dt;
+            workerY[w] = workers.getY(w) + workers.getVelocityY(w) * dt;
+            maxWorkerSpeed = Math.max(maxWorkerSpeed, speed(workers, w));
+        }
+
+        // Any pair that can collide in the horizon starts within this reach
+        double reach = alertDistance + (maxWorkerSpeed + maxMachineSpeed) * horizon;
+        machineGrid.setCellSize(cellSizeFor(reach));
+        if (machineGrid.size() > machines.size()) {
+            machineGrid.clear();
+        }
+        for (int m = 0; m < machines.size(); m++) {
+            if (machines.isLocated(m)) {
+                machineGrid.put(m, machineX[m], machineY[m]);
+            } else {
+                machineGrid.remove(m);
+            }
+        }
+
+        double alertDistanceSquared = alertDistance * alertDistance;
+        int pairs = 0;
+        for (int w = 0; w < workers.size(); w++) {
+            if (!workers.isLocated(w)) {
+                continue;
+            }
+            int candidates = machineGrid.queryNeighbours(workerX[w], workerY[w]);
+            for (int i = 0; i < candidates; i++) {
+                int m = machineGrid.getResult(i);
+                // Relative position and velocity of the machine seen from the worker
+                double rx = machineX[m] - workerX[w];
+                double ry = machineY[m] - workerY[w];
+                double vx = machines.getVelocityX(m) - workers.getVelocityX(w);
+                double vy = machines.getVelocityY(m) - workers.getVelocityY(w);
+                double vv = vx * vx + vy * vy;
+                double t = 0;
+                if (vv > 0) {
+                    t = -(rx * vx + ry * vy) / vv;
+                    t = Math.max(0, Math.min(t, horizon));
+                }
+                double cx = rx + vx * t;
+                double cy = ry + vy * t;
+                if (cx * cx + cy * cy > alertDistanceSquared) {
+                    continue;
+                }
+                // Closest approach is inside the threshold. Find when the pair
+                // first enters it, solving |r + v*t| = alertDistance.
+                double rr = rx * rx + ry * ry;
+                double entry = 0;
+                if (rr > alertDistanceSquared && vv > 0) {
+                    double rv = rx * vx + ry * vy;
+                    double discriminant = rv * rv - vv * (rr - alertDistanceSquared);
+                    entry = (-rv - Math.sqrt(Math.max(0, discriminant))) / vv;
+                }
+                workerTimes[w] = earliest(workerTimes[w], entry);
+                machineTimes[m] = earliest(machineTimes[m], entry);
+                pairs++;
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * @param index Index of the worker in the worker store
+     * @return flag if the worker is predicted to collide within the horizon
+     */
+    public boolean isWorkerPredicted(int index) {
+        return index < workerTimes.length && workerTimes[index] >= 0;
+    }
+
+    /**
+     * @param index Index of the machine in the machine store
+     * @return flag if the machine is predicted to collide within the horizon
+     */
+    public boolean isMachinePredicted(int index) {
+        return index < machineTimes.length && machineTimes[index] >= 0;
+    }
+
+    /**
+     * @param index Index of the worker in the worker store
+     * @return seconds until the worker enters the alert distance of a machine, 0 if
+     * it already has, or -1 if no collision is predicted
+     */
+    public double getWorkerTimeToCollision(int index) {
+        return index < workerTimes.length ? workerTimes[index] : -1;
+    }
+
+    /**
+     * @param index Index of the machine in the machine store
+     * @return seconds until the machine enters the alert distance of a worker, 0 if
+     * it already has, or -1 if no collision is predicted
+     */
+    public double getMachineTimeToCollision(int index) {
+        return index < machineTimes.length ? machineTimes[index] : -1;
+    }
+
+    /********************************** Prediction helpers **********************************/
+
+    /**
+     * @return seconds to extrapolate a fix taken at timestamp to now
+     */
+    private static double age(long timestamp, long now) {
+        if (timestamp <= 0) {
+            return 0;
+        }
+        long elapsed = now - timestamp;
+        if (elapsed <= 0 || elapsed > MAX_EXTRAPOLATION) {
+            return 0;
+        }
+        return elapsed / 1000.0;
+    }
+
+    private static double speed(PositionStore store, int index) {
+        double vx = store.getVelocityX(index);
+        double vy = store.getVelocityY(index);
+        return Math.sqrt(vx * vx + vy * vy);
+    }
+
+    private static double earliest(double current, double time) {
+        return current < 0 ? time : Math.min(current, time);
+    }
+
+    /**
+     * Round the reach up to a power of two so small speed changes between
+     * passes don't re-bucket the grid every time.
+     */
+    private static double cellSizeFor(double reach) {
+        double size = MIN_CELL_SIZE;
+        while (size < reach) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    private void ensureCapacity(int workerCount, int machineCount) {
+        if (workerX.length < workerCount) {
+            int capacity = Math.max(workerCount, workerX.length * 2);
+            workerX = new double[capacity];
+            workerY = new double[capacity];
+            workerTimes = new double[capacity];
+            Arrays.fill(workerTimes, -1);
+        }
+        if (machineX.length < machineCount) {
+            int capacity = Math.max(machineCount, machineX.length * 2);
+            machineX = new double[capacity];
+            machineY = new double[capacity];
+            machineTimes = new double[capacity];
+            Arrays.fill(machineTimes, -1);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.ddelp.volvoce.helpers;
+
+import com.ddelp.volvoce.objects.HazardEnvelope;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Narrowphase rules shared by the collision engines: the circular alert
+ * distance and the hazard envelope of each machine type.
+ *
+ * The alert distance and envelopes are where an alert is entered. An alert
+ * is only left once the pair is further apart than the exit margin beyond
+ * them, so a worker standing on the edge doesn't flap in and out with GPS
+ * jitter (see AlertStateMachine).
+ *
+ * Once configured the rules are only read, so one instance can be used by
+ * several detection threads at the same time.
+ */
+public class CollisionRules {
+
+    private static final String TAG = "CollisionRules";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    /** Alert distance in meters */
+    private volatile double alertDistance = 0.0001 * LocalProjection.METERS_PER_DEGREE;
+    /** Square of alertDistance, compared against squared pair distances */
+    private volatile double alertDistanceSquared = alertDistance * alertDistance;
+    /** Hazard geometry indexed by machine type, null for a circular alert distance */
+    private volatile HazardGeometry[] hazards = new HazardGeometry[0];
+    /** Furthest any hazard envelope reaches, in meters */
+    private volatile double hazardExtent = 0;
+    /** How much further than the enter distance a pair must be to leave an alert, in meters */
+    private volatile double exitMargin = 2.0;
+
+    /**
+     * @param meters Distance in meters under which a worker and machine collide
+     */
+    public void setAlertDistance(double meters) {
+        alertDistance = meters;
+        alertDistanceSquared = meters < 0 ? -1 : meters * meters;
+    }
+
+    public double getAlertDistance() {
+        return alertDistance;
+    }
+
+    /**
+     * Set the hazard envelopes of each machine type. Machines whose type has
+     * no envelope keep using the circular alert distance.
+     *
+     * @param envelopes Hazard envelopes, at most one per machine type
+     */
+    public void setHazardEnvelopes(List<HazardEnvelope> envelopes) {
+        int maxType = -1;
+        for (HazardEnvelope envelope : envelopes) {
+            maxType = Math.max(maxType, envelope.getType());
+        }
+        HazardGeometry[] geometries = new HazardGeometry[maxType + 1];
+        double extent = 0;
+        for (HazardEnvelope envelope : envelopes) {
+            if (envelope.getType() < 0) {
+                continue;
+            }
+            HazardGeometry geometry = new HazardGeometry(envelope);
+            geometries[envelope.getType()] = geometry;
+            extent = Math.max(extent, geometry.getExtent());
+            LOG.info("Hazard envelope set for machine type " + envelope.getType()
+                    + ": " + envelope.getName());
+        }
+        hazardExtent = extent;
+        hazards = geometries;
+    }
+
+    /**
+     * @param meters How much further than the enter distance a pair must be
+     *               to leave an alert
+     */
+    public void setExitMargin(double meters) {
+        exitMargin = Math.max(meters, 0);
+    }
+
+    public double getExitMargin() {
+        return exitMargin;
+    }
+
+    /**
+     * @return furthest distance in meters at which any machine can collide with a worker
+     */
+    public double getReach() {
+        return Math.max(alertDistance, hazardExtent);
+    }
+
+    /**
+     * @return furthest distance in meters at which any worker/machine pair is near
+     */
+    public double getExitReach() {
+        return getReach() + exitMargin;
+    }
+
+    /**
+     * Narrowphase test of one worker against one machine
+     *
+     * @param workers Worker positions
+     * @param w Index of the worker
+     * @param machines Machine positions, on the same projection as the workers
+     * @param m Index of the machine
+     * @return flag if the worker is inside the machine's hazard zone
+     */
+    public boolean collides(PositionStore workers, int w, PositionStore machines, int m) {
+        return within(workers, w, machines, m, 0);
+    }
+
+    /**
+     * Test of one worker against one machine with the zone grown by the exit
+     * margin. A pair that is near has not yet left its alert.
+     *
+     * @param workers Worker positions
+     * @param w Index of the worker
+     * @param machines Machine positions, on the same projection as the workers
+     * @param m Index of the machine
+     * @return flag if the worker is within the exit margin of the machine's hazard zone
+     */
+    public boolean isNear(PositionStore workers, int w, PositionStore machines, int m) {
+        return within(workers, w, machines, m, exitMargin);
+    }
+
+    private boolean within(PositionStore workers, int w, PositionStore machines, int m,
+                           double margin) {
+        double dx = workers.getX(w) - machines.getX(m);
+        double dy = workers.getY(w) - machines.getY(m);
+        int type = machines.getType(m);
+        HazardGeometry[] geometries = hazards;
+        HazardGeometry hazard = type >= 0 && type < geometries.length ? geometries[type] : null;
+        if (hazard == null) {
+            if (margin == 0) {
+                return dx * dx + dy * dy <= alertDistanceSquared;
+            }
+            double distance = alertDistance + margin;
+            return distance >= 0 && dx * dx + dy * dy <= distance * distance;
+        }
+        return hazard.contains(dx, dy, machines.getHeading(m), margin);
+    }
+}
@@ -0,0 +1,108 @@
+package com.ddelp.volvoce.helpers;
+
+/**
+ * Fixed-point GPS encoding.
+ *
+ * Coordinates are stored and sent as two ints in units of 1e-7 degree
+ * (about 1 cm), which covers the whole globe in 32 bits without the
+ * rounding a float gets at these magnitudes. A latitude/longitude pair can
+ * be packed into one long so parsing doesn't allocate.
+ *
+ * Data written before the numeric fields existed only has the legacy
+ * "latitude,longitude" string. {@link #read(int, int, String)} takes both
+ * and falls back to parsing the string when the numeric fields are unset.
+ */
+public final class GPSCodec {
+
+    /** Fixed-point units per degree */
+    public static final double UNITS_PER_DEGREE = 1e7;
+    /** Returned by parse/read when there is no valid location */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private GPSCodec() {
+    }
+
+    /**
+     * @param degrees Latitude or longitude in decimal-degree
+     * @return the coordinate in 1e-7 degree
+     */
+    public static int encode(double degrees) {
+        return (int) Math.round(degrees * UNITS_PER_DEGREE);
+    }
+
+    /**
+     * @param units Latitude or longitude in 1e-7 degree
+     * @return the coordinate in decimal-degree
+     */
+    public static double decode(int units) {
+        return units / UNITS_PER_DEGREE;
+    }
+
+    /**
+     * @return latitude and longitude in 1e-7 degree packed into a long
+     */
+    public static long pack(int latitude, int longitude) {
+        return ((long) latitude << 32) | (longitude & 0xffffffffL);
+    }
+
+    public static int latitude(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    public static int longitude(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Parse a legacy GPS string
+     *
+     * @param gps Coordinates formatted "latitude,longitude" in decimal-degree
+     * @return packed coordinates, or INVALID if the string can't be parsed
+     */
+    public static long parse(String gps) {
+        if (gps == null) {
+            return INVALID;
+        }
+        int comma = gps.indexOf(',');
+        if (comma < 0) {
+            return INVALID;
+        }
+        try {
+            double latitude = Double.parseDouble(gps.substring(0, comma).trim());
+            double longitude = Double.parseDouble(gps.substring(comma + 1).trim());
+            if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+                return INVALID;
+            }
+            return pack(encode(latitude), encode(longitude));
+        } catch (NumberFormatException e) {
+            return INVALID;
+        }
+    }
+
+    /**
+     * Read a location stored in both the numeric and the legacy format.
+     * (0,0) is taken as unset, it is in the ocean off Africa.
+     *
+     * @param latitude Latitude in 1e-7 degree, 0 if unset
+     * @param longitude Longitude in 1e-7 degree, 0 if unset
+     * @param legacy Legacy "latitude,longitude" string, may be null
+     * @return packed coordinates, or INVALID if neither format holds a location
+     */
+    public static long read(int latitude, int longitude, String legacy) {
+        if (latitude != 0 || longitude != 0) {
+            return pack(latitude, longitude);
+        }
+        return parse(legacy);
+    }
+
+    /**
+     * Format coordinates as a legacy GPS string, for logging and old readers
+     *
+     * @param latitude Latitude in 1e-7 degree
+     * @param longitude Longitude in 1e-7 degree
+     * @return "latitude,longitude" in decimal-degree
+     */
+    public static String format(int latitude, int longitude) {
+        return decode(latitude) + "," + decode(longitude);
+    }
+}
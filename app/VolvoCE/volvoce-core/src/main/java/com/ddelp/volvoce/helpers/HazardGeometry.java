@@ -0,0 +1,189 @@
+package com.ddelp.volvoce.helpers;
+
+import com.ddelp.volvoce.objects.HazardEnvelope;
+
+import java.util.List;
+
+/**
+ * Cached geometry of a HazardEnvelope for the collision narrowphase.
+ *
+ * Headings are quantized to whole degrees. When the geometry is built the
+ * envelope polygon is rotated into east/north meters for every heading and
+ * the axis-aligned bounding box of each is computed, so testing a point is a
+ * bounding box check followed, only if that passes, by a point-in-polygon
+ * test against the cached vertices. No trig is done per pair, and since the
+ * cache is never written after construction it can be read from several
+ * threads.
+ */
+public class HazardGeometry {
+
+    /** Number of cached headings (one per degree) */
+    private static final int HEADING_STEPS = 360;
+
+    private final int type;
+    private final double radiusSquared;
+    /** Polygon vertices in the machine frame (x right, y ahead), interleaved x,y */
+    private final double[] polygon;
+    /** Furthest any part of the envelope reaches from the machine */
+    private final double extent;
+
+    /** Rotated polygons and their bounding boxes per heading */
+    private final double[][] rotated;
+    private final double[] minX;
+    private final double[] maxX;
+    private final double[] minY;
+    private final double[] maxY;
+
+    public HazardGeometry(HazardEnvelope envelope) {
+        this.type = envelope.getType();
+        double radius = Math.max(envelope.getRadius(), 0);
+        this.radiusSquared = radius * radius;
+
+        List<Double> vertices = envelope.getPolygon();
+        int count = vertices == null || vertices.size() < 6 ? 0 : vertices.size() / 2;
+        this.polygon = new double[count * 2];
+        double furthest = radius;
+        for (int i = 0; i < count * 2; i += 2) {
+            polygon[i] = vertices.get(i);
+            polygon[i + 1] = vertices.get(i + 1);
+            furthest = Math.max(furthest, Math.hypot(polygon[i], polygon[i + 1]));
+        }
+        this.extent = furthest;
+
+        rotated = new double[count > 0 ? HEADING_STEPS : 0][];
+        minX = new double[rotated.length];
+        maxX = new double[rotated.length];
+        minY = new double[rotated.length];
+        maxY = new double[rotated.length];
+        for (int step = 0; step < rotated.length; step++) {
+            rotate(step);
+        }
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return furthest distance in meters from the machine covered by the envelope
+     */
+    public double getExtent() {
+        return extent;
+    }
+
+    /**
+     * Test if a point is inside the envelope
+     *
+     * @param dx Meters east of the machine
+     * @param dy Meters north of the machine
+     * @param heading Machine heading in degrees clockwise from north
+     * @return flag if the point is inside the envelope
+     */
+    public boolean contains(double dx, double dy, double heading) {
+        return contains(dx, dy, heading, 0);
+    }
+
+    /**
+     * Test if a point is inside the envelope grown by a margin on every side,
+     * used for the exit distance of an alert.
+     *
+     * @param dx Meters east of the machine
+     * @param dy Meters north of the machine
+     * @param heading Machine heading in degrees clockwise from north
+     * @param margin Meters to grow the envelope by
+     * @return flag if the point is inside the grown envelope
+     */
+    public boolean contains(double dx, double dy, double heading, double margin) {
+        double radius = Math.sqrt(radiusSquared) + margin;
+        if (radius >= 0 && dx * dx + dy * dy <= radius * radius) {
+            return true;
+        }
+        if (rotated.length == 0) {
+            return false;
+        }
+        int step = headingStep(heading);
+        double[] vertices = rotated[step];
+        // Bounding box prefilter
+        if (dx < minX[step] - margin || dx > maxX[step] + margin
+                || dy < minY[step] - margin || dy > maxY[step] + margin) {
+            return false;
+        }
+        // Crossing number point-in-polygon test
+        boolean inside = false;
+        int n = vertices.length;
+        for (int i = 0, j = n - 2; i < n; j = i, i += 2) {
+            double xi = vertices[i];
+            double yi = vertices[i + 1];
+            double xj = vertices[j];
+            double yj = vertices[j + 1];
+            if ((yi > dy) != (yj > dy) && dx < (xj - xi) * (dy - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        if (inside || margin <= 0) {
+            return inside;
+        }
+        // Outside the polygon, but maybe within the margin of one of its edges
+        double marginSquared = margin * margin;
+        for (int i = 0, j = n - 2; i < n; j = i, i += 2) {
+            if (segmentDistanceSquared(dx, dy, vertices[j], vertices[j + 1],
+                    vertices[i], vertices[i + 1]) <= marginSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return squared distance from (px,py) to the segment (ax,ay)-(bx,by)
+     */
+    private static double segmentDistanceSquared(double px, double py,
+                                                 double ax, double ay, double bx, double by) {
+        double sx = bx - ax;
+        double sy = by - ay;
+        double length = sx * sx + sy * sy;
+        double t = length > 0 ? ((px - ax) * sx + (py - ay) * sy) / length : 0;
+        t = Math.max(0, Math.min(1, t));
+        double x = px - (ax + sx * t);
+        double y = py - (ay + sy * t);
+        return x * x + y * y;
+    }
+
+    private static int headingStep(double heading) {
+        int step = (int) Math.round(heading) % HEADING_STEPS;
+        return step < 0 ? step + HEADING_STEPS : step;
+    }
+
+    /**
+     * Rotate the polygon into east/north meters for a heading and cache it
+     * along with its bounding box.
+     */
+    private void rotate(int step) {
+        double radians = Math.toRadians(step * 360.0 / HEADING_STEPS);
+        double sin = Math.sin(radians);
+        double cos = Math.cos(radians);
+        double[] vertices = new double[polygon.length];
+        double lowX = Double.MAX_VALUE;
+        double highX = -Double.MAX_VALUE;
+        double lowY = Double.MAX_VALUE;
+        double highY = -Double.MAX_VALUE;
+        for (int i = 0; i < polygon.length; i += 2) {
+            double right = polygon[i];
+            double ahead = polygon[i + 1];
+            // Right of the machine is (cos, -sin), ahead is (sin, cos) in east/north
+            double east = right * cos + ahead * sin;
+            double north = -right * sin + ahead * cos;
+            vertices[i] = east;
+            vertices[i + 1] = north;
+            lowX = Math.min(lowX, east);
+            highX = Math.max(highX, east);
+            lowY = Math.min(lowY, north);
+            highY = Math.max(highY, north);
+        }
+        minX[step] = lowX;
+        maxX[step] = highX;
+        minY[step] = lowY;
+        maxY[step] = highY;
+        rotated[step] = vertices;
+    }
+}
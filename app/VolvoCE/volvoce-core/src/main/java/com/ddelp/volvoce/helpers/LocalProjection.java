@@ -0,0 +1,90 @@
+package com.ddelp.volvoce.helpers;
+
+import java.util.logging.Logger;
+
+/**
+ * Equirectangular projection of latitude/longitude onto a local tangent plane
+ * in meters (x east, y north) around an origin on the worksite.
+ *
+ * Over the size of a worksite the error against true ground distance is far
+ * below GPS noise, and since cos(latitude) is computed once for the origin,
+ * projecting a point is two subtractions and two multiplications.
+ */
+public class LocalProjection {
+
+    /** Tag for logging */
+    private static final String TAG = "LocalProjection";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    /** WGS84 equatorial radius in meters */
+    public static final double EARTH_RADIUS = 6378137.0;
+    /** Meters in one degree of latitude (and of longitude at the equator) */
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180.0;
+
+    private final double originLatitude;
+    private final double originLongitude;
+    /** Meters per degree of longitude at the origin's latitude */
+    private final double metersPerDegreeLongitude;
+
+    public LocalProjection(double originLatitude, double originLongitude) {
+        this.originLatitude = originLatitude;
+        this.originLongitude = originLongitude;
+        this.metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLatitude));
+    }
+
+    /**
+     * Build a projection centred on a worksite's bounds
+     *
+     * @param topLeft TopLeft GPS coordinates formatted "latitude,longitude"
+     * @param bottomRight BottomRight GPS coordinates formatted "latitude,longitude"
+     * @return the projection, or null if the bounds couldn't be parsed
+     */
+    public static LocalProjection fromBounds(String topLeft, String bottomRight) {
+        LocalProjection projection = fromBounds(GPSCodec.parse(topLeft), GPSCodec.parse(bottomRight));
+        if (projection == null) {
+            LOG.fine("fromBounds: Invalid formatting of bounds: " + topLeft + " " + bottomRight);
+        }
+        return projection;
+    }
+
+    /**
+     * Build a projection centred on a worksite's bounds
+     *
+     * @param topLeft TopLeft coordinates packed by GPSCodec
+     * @param bottomRight BottomRight coordinates packed by GPSCodec
+     * @return the projection, or null if either corner is GPSCodec.INVALID
+     */
+    public static LocalProjection fromBounds(long topLeft, long bottomRight) {
+        if (topLeft == GPSCodec.INVALID || bottomRight == GPSCodec.INVALID) {
+            return null;
+        }
+        double top = GPSCodec.decode(GPSCodec.latitude(topLeft));
+        double left = GPSCodec.decode(GPSCodec.longitude(topLeft));
+        double bottom = GPSCodec.decode(GPSCodec.latitude(bottomRight));
+        double right = GPSCodec.decode(GPSCodec.longitude(bottomRight));
+        return new LocalProjection((top + bottom) / 2, (left + right) / 2);
+    }
+
+    public double getOriginLatitude() {
+        return originLatitude;
+    }
+
+    public double getOriginLongitude() {
+        return originLongitude;
+    }
+
+    /**
+     * @param longitude Longitude in decimal-degree
+     * @return meters east of the origin
+     */
+    public double toX(double longitude) {
+        return (longitude - originLongitude) * metersPerDegreeLongitude;
+    }
+
+    /**
+     * @param latitude Latitude in decimal-degree
+     * @return meters north of the origin
+     */
+    public double toY(double latitude) {
+        return (latitude - originLatitude) * METERS_PER_DEGREE;
+    }
+}
@@ -0,0 +1,199 @@
+package com.ddelp.volvoce.helpers;
+
+/**
+ * Constant-velocity Kalman filter fusing location fixes from any number of
+ * providers into one smoothed position, velocity and heading.
+ *
+ * The state is position and velocity on a local plane around the first fix.
+ * With isotropic noise the east and north axes are independent, so the
+ * filter is run as two 2x2 filters sharing the same gain, all in primitive
+ * fields: a fix costs a few dozen multiplications and allocates nothing.
+ *
+ * Each fix is weighted by its reported accuracy, so a 5 m GPS fix pulls the
+ * estimate far more than a 50 m network one, and the velocity comes from the
+ * fixes themselves rather than the provider's speed and bearing, which the
+ * network provider doesn't report at all.
+ */
+public class LocationFilter {
+
+    /** Default standard deviation of the acceleration in m/s^2, walking and machines on site */
+    public static final double DEFAULT_ACCELERATION_NOISE = 0.5;
+    /** Gap between fixes after which the estimate is too stale to keep, in ms */
+    public static final long DEFAULT_RESET_GAP = 1000 * 60 * 2;
+    /** Accuracy assumed for fixes that don't report one, in meters */
+    private static final double DEFAULT_ACCURACY = 50;
+    /** Standard deviation of the velocity before any movement was seen, in m/s */
+    private static final double INITIAL_SPEED_NOISE = 10;
+    /** Below this speed in m/s the heading is noise and the last one is kept */
+    private static final double MOVING_SPEED = 0.5;
+
+    private double accelerationVariance = DEFAULT_ACCELERATION_NOISE * DEFAULT_ACCELERATION_NOISE;
+    private long resetGap = DEFAULT_RESET_GAP;
+
+    private boolean initialised = false;
+    /** Origin of the local plane and its scale */
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerDegreeLongitude;
+    /** Time of the newest fix, in ms */
+    private long time;
+    /** State, meters east/north of the origin and m/s */
+    private double x;
+    private double y;
+    private double vx;
+    private double vy;
+    /** Covariance of position and velocity, the same for both axes */
+    private double pPos;
+    private double pCross;
+    private double pVel;
+    /** Heading of the last movement, in degrees clockwise from north */
+    private double heading;
+
+    /**
+     * @param metersPerSecondSquared Standard deviation of the acceleration, higher tracks
+     *                               turns faster but smooths less
+     */
+    public void setAccelerationNoise(double metersPerSecondSquared) {
+        accelerationVariance = metersPerSecondSquared * metersPerSecondSquared;
+    }
+
+    /**
+     * @param milliseconds Gap between fixes after which the filter starts over
+     */
+    public void setResetGap(long milliseconds) {
+        resetGap = milliseconds;
+    }
+
+    /**
+     * Forget the estimate, the next fix starts over
+     */
+    public void reset() {
+        initialised = false;
+    }
+
+    /**
+     * Fold a fix into the estimate
+     *
+     * @param latitude Latitude in decimal-degree
+     * @param longitude Longitude in decimal-degree
+     * @param accuracy Horizontal accuracy in meters, 0 or less if unknown
+     * @param time Time of the fix in ms, on a clock shared by every provider
+     * @return flag if the fix was used, fixes older than the estimate are ignored
+     */
+    public boolean update(double latitude, double longitude, double accuracy, long time) {
+        double variance = accuracy > 0 ? accuracy * accuracy : DEFAULT_ACCURACY * DEFAULT_ACCURACY;
+        if (!initialised || time - this.time > resetGap) {
+            start(latitude, longitude, variance, time);
+            return true;
+        }
+        if (time < this.time) {
+            return false;
+        }
+        predict((time - this.time) / 1000.0);
+        this.time = time;
+
+        // Measurement update, position only: H = [1 0]
+        double zx = (longitude - originLongitude) * metersPerDegreeLongitude;
+        double zy = (latitude - originLatitude) * LocalProjection.METERS_PER_DEGREE;
+        double s = pPos + variance;
+        double kPos = pPos / s;
+        double kVel = pCross / s;
+        double rx = zx - x;
+        double ry = zy - y;
+        x += kPos * rx;
+        y += kPos * ry;
+        vx += kVel * rx;
+        vy += kVel * ry;
+        double pPosOld = pPos;
+        double pCrossOld = pCross;
+        pPos = (1 - kPos) * pPosOld;
+        pCross = (1 - kPos) * pCrossOld;
+        pVel = pVel - kVel * pCrossOld;
+
+        if (getSpeed() >= MOVING_SPEED) {
+            heading = (Math.toDegrees(Math.atan2(vx, vy)) + 360) % 360;
+        }
+        return true;
+    }
+
+    /**
+     * @return flag if at least one fix has been seen since the last reset
+     */
+    public boolean hasEstimate() {
+        return initialised;
+    }
+
+    /**
+     * @return time of the newest fix folded in, in ms
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return smoothed latitude in decimal-degree
+     */
+    public double getLatitude() {
+        return originLatitude + y / LocalProjection.METERS_PER_DEGREE;
+    }
+
+    /**
+     * @return smoothed longitude in decimal-degree
+     */
+    public double getLongitude() {
+        return originLongitude + x / metersPerDegreeLongitude;
+    }
+
+    /**
+     * @return estimated speed in m/s
+     */
+    public double getSpeed() {
+        return Math.sqrt(vx * vx + vy * vy);
+    }
+
+    /**
+     * @return heading in degrees clockwise from north, held while standing still
+     */
+    public double getHeading() {
+        return heading;
+    }
+
+    /**
+     * @return standard deviation of the position on each axis in meters
+     */
+    public double getAccuracy() {
+        return Math.sqrt(pPos);
+    }
+
+    /********************************** Filter helpers **********************************/
+
+    private void start(double latitude, double longitude, double variance, long time) {
+        originLatitude = latitude;
+        originLongitude = longitude;
+        metersPerDegreeLongitude = LocalProjection.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        this.time = time;
+        x = 0;
+        y = 0;
+        vx = 0;
+        vy = 0;
+        pPos = variance;
+        pCross = 0;
+        pVel = INITIAL_SPEED_NOISE * INITIAL_SPEED_NOISE;
+        initialised = true;
+    }
+
+    /**
+     * Time update: F = [1 dt; 0 1], white acceleration noise
+     */
+    private void predict(double dt) {
+        if (dt <= 0) {
+            return;
+        }
+        x += vx * dt;
+        y += vy * dt;
+        double dt2 = dt * dt;
+        pPos += 2 * dt * pCross + dt2 * pVel + accelerationVariance * dt2 * dt2 / 4;
+        pCross += dt * pVel + accelerationVariance * dt2 * dt / 2;
+        pVel += accelerationVariance * dt2;
+    }
+}
@@ -0,0 +1,184 @@
+package com.ddelp.volvoce.helpers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compact binary trace of raw location fixes, so a shift on site can be
+ * replayed at a desk.
+ *
+ * A trace is a header (MAGIC, VERSION) followed by fixed-size records of
+ * RECORD_SIZE bytes, big-endian: provider byte, fix time and elapsed
+ * realtime as longs, latitude and longitude in GPSCodec units as ints, then
+ * accuracy, speed and bearing as floats (NaN when the provider had none).
+ * Reading fills one reused Fix, so replaying allocates nothing per fix.
+ */
+public final class LocationTrace {
+
+    /** First bytes of every trace, "VCLT" */
+    public static final int MAGIC = 0x56434c54;
+    public static final int VERSION = 1;
+    /** Bytes per fix */
+    public static final int RECORD_SIZE = 1 + 8 + 8 + 4 + 4 + 4 + 4 + 4;
+
+    /** Provider of a fix */
+    public static final byte PROVIDER_OTHER = 0;
+    public static final byte PROVIDER_GPS = 1;
+    public static final byte PROVIDER_NETWORK = 2;
+
+    private LocationTrace() {
+    }
+
+    /**
+     * @param provider Provider name as reported by the platform, e.g. "gps"
+     * @return the provider code stored in the trace
+     */
+    public static byte providerCode(String provider) {
+        if ("gps".equals(provider)) {
+            return PROVIDER_GPS;
+        } else if ("network".equals(provider)) {
+            return PROVIDER_NETWORK;
+        }
+        return PROVIDER_OTHER;
+    }
+
+    /**
+     * @param code Provider code stored in the trace
+     * @return the provider name
+     */
+    public static String providerName(byte code) {
+        switch (code) {
+            case PROVIDER_GPS:
+                return "gps";
+            case PROVIDER_NETWORK:
+                return "network";
+            default:
+                return "other";
+        }
+    }
+
+    /**
+     * One raw fix
+     */
+    public static class Fix {
+        public byte provider;
+        /** Fix time in UTC milliseconds */
+        public long time;
+        /** Time since boot in nanoseconds, monotonic and shared by every provider */
+        public long elapsedRealtimeNanos;
+        public int latitudeE7;
+        public int longitudeE7;
+        /** Horizontal accuracy in meters, NaN if unknown */
+        public float accuracy;
+        /** Speed in m/s, NaN if unknown */
+        public float speed;
+        /** Bearing in degrees clockwise from north, NaN if unknown */
+        public float bearing;
+    }
+
+    /**
+     * Appends fixes to a trace
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private long count = 0;
+
+        /**
+         * @param out Stream to write to, the header is written straight away
+         */
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+        }
+
+        public void write(Fix fix) throws IOException {
+            write(fix.provider, fix.time, fix.elapsedRealtimeNanos, fix.latitudeE7, fix.longitudeE7,
+                    fix.accuracy, fix.speed, fix.bearing);
+        }
+
+        public void write(byte provider, long time, long elapsedRealtimeNanos, int latitudeE7,
+                          int longitudeE7, float accuracy, float speed, float bearing)
+                throws IOException {
+            out.writeByte(provider);
+            out.writeLong(time);
+            out.writeLong(elapsedRealtimeNanos);
+            out.writeInt(latitudeE7);
+            out.writeInt(longitudeE7);
+            out.writeFloat(accuracy);
+            out.writeFloat(speed);
+            out.writeFloat(bearing);
+            count++;
+        }
+
+        /**
+         * @return number of fixes written
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads fixes back from a trace
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+
+        /**
+         * @param in Stream to read from, the header is checked straight away
+         * @throws IOException if the stream isn't a trace of a known version
+         */
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("Not a location trace");
+            }
+            int version = this.in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported location trace version " + version);
+            }
+        }
+
+        /**
+         * @param fix Fix to fill with the next record
+         * @return false at the end of the trace, a truncated last record is ignored
+         */
+        public boolean next(Fix fix) throws IOException {
+            try {
+                fix.provider = in.readByte();
+                fix.time = in.readLong();
+                fix.elapsedRealtimeNanos = in.readLong();
+                fix.latitudeE7 = in.readInt();
+                fix.longitudeE7 = in.readInt();
+                fix.accuracy = in.readFloat();
+                fix.speed = in.readFloat();
+                fix.bearing = in.readFloat();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
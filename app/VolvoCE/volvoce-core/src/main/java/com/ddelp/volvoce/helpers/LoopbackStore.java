@@ -0,0 +1,644 @@
+package com.ddelp.volvoce.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * In-memory RealtimeStore that loops writes straight back to its listeners,
+ * for load testing the sync code without the live service.
+ *
+ * Every write and initial listener callback is delayed by the latency, and
+ * a write is lost with probability dropRate (its CompletionListener gets an
+ * error, like a write the server never acknowledged). With no latency
+ * everything runs on the calling thread, otherwise on one delivery thread
+ * in the order it was sent. While disconnected, writes wait like they do
+ * in the Firebase client and go out on reconnect.
+ *
+ * Listeners are called on whichever thread applied the write unless a
+ * callback executor is set. On Android give it one posting to the main
+ * looper (VolvoCE.setStore does), since the activities' listeners touch
+ * views and assume the main thread like with FirebaseStore.
+ *
+ * Value listeners are called on every write that touches their path, child
+ * listeners only for children whose value actually changed.
+ */
+public class LoopbackStore implements RealtimeStore {
+
+    /** Tag for logging */
+    private static final String TAG = "LoopbackStore";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    /** Error passed to the CompletionListener of a dropped write */
+    public static final String ERROR_DROPPED = "Write dropped";
+
+    /** The database, nested Maps of tree values */
+    private final Map<String, Object> root = new LinkedHashMap<>();
+    /** Registered value and child listeners */
+    private final List<Registration> registrations = new ArrayList<>();
+    /** Writes sent while disconnected */
+    private final List<Runnable> offlineWrites = new ArrayList<>();
+    private final Random random;
+    /** Delivery thread, created on first use with a latency */
+    private ScheduledExecutorService scheduler;
+    /** Thread listeners are called on, null to call them where the write is applied */
+    private volatile Executor callbackExecutor;
+    /** Delay of every write and initial callback in milliseconds */
+    private volatile long latency;
+    /** Probability of losing a write */
+    private volatile double dropRate;
+    private boolean connected = true;
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    public LoopbackStore() {
+        this(0, 0, System.nanoTime());
+    }
+
+    /**
+     * @param latency Delay of every write and initial callback in milliseconds
+     * @param dropRate Probability of losing a write, 0 to 1
+     * @param seed Random seed for drops, the same seed drops the same writes
+     */
+    public LoopbackStore(long latency, double dropRate, long seed) {
+        this.latency = latency;
+        this.dropRate = dropRate;
+        this.random = new Random(seed);
+        write(split(CONNECTED_PATH), true);
+    }
+
+    /**
+     * @param milliseconds Delay of every write and initial callback
+     */
+    public void setLatency(long milliseconds) {
+        latency = milliseconds;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @param executor Executor every listener is called through, e.g. one posting to the
+     *                 Android main looper, null to call listeners on the delivering thread
+     */
+    public void setCallbackExecutor(Executor executor) {
+        callbackExecutor = executor;
+    }
+
+    /**
+     * @param probability Probability of losing a write, 0 to 1
+     */
+    public void setDropRate(double probability) {
+        dropRate = probability;
+    }
+
+    public double getDropRate() {
+        return dropRate;
+    }
+
+    /**
+     * @return number of writes sent
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return number of writes lost to the drop rate
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Simulate losing or regaining the connection. Reported on CONNECTED_PATH.
+     *
+     * @param connected Flag if the store is reachable
+     */
+    public void setConnected(boolean connected) {
+        List<Runnable> queued;
+        synchronized (this) {
+            if (this.connected == connected) {
+                return;
+            }
+            this.connected = connected;
+            queued = new ArrayList<>(offlineWrites);
+            offlineWrites.clear();
+        }
+        LOG.info((connected ? "Connected, sending " : "Disconnected, holding ") + queued.size() + " writes");
+        apply(Collections.<String, Object>singletonMap(CONNECTED_PATH, connected));
+        if (connected) {
+            for (Runnable write : queued) {
+                deliver(write);
+            }
+        }
+    }
+
+    /**
+     * Stop the delivery thread, writes still scheduled are discarded
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /********************************** RealtimeStore **********************************/
+
+    @Override
+    public void setValue(String path, Object value) {
+        setValue(path, value, null);
+    }
+
+    @Override
+    public void setValue(String path, Object value, CompletionListener listener) {
+        send(Collections.singletonMap(normalise(path), BeanMapper.toTree(value)), listener);
+    }
+
+    @Override
+    public void updateChildren(String path, Map<String, Object> update, CompletionListener listener) {
+        String base = normalise(path);
+        Map<String, Object> changes = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            String child = normalise(entry.getKey());
+            changes.put(base.isEmpty() ? child : base + "/" + child, BeanMapper.toTree(entry.getValue()));
+        }
+        send(changes, listener);
+    }
+
+    @Override
+    public void addValueListener(String path, final ValueListener listener) {
+        final Registration registration = new Registration(normalise(path), listener, null);
+        final RealtimeStore.Snapshot snapshot;
+        synchronized (this) {
+            registrations.add(registration);
+            snapshot = snapshot(registration.segments);
+        }
+        deliverCallback(new Runnable() {
+            @Override
+            public void run() {
+                if (registration.active) {
+                    listener.onDataChange(snapshot);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void addSingleValueListener(String path, final ValueListener listener) {
+        final RealtimeStore.Snapshot snapshot;
+        synchronized (this) {
+            snapshot = snapshot(split(normalise(path)));
+        }
+        deliverCallback(new Runnable() {
+            @Override
+            public void run() {
+                listener.onDataChange(snapshot);
+            }
+        });
+    }
+
+    @Override
+    public void removeValueListener(String path, ValueListener listener) {
+        remove(normalise(path), listener);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void addChildListener(String path, final ChildListener listener) {
+        final Registration registration = new Registration(normalise(path), null, listener);
+        final List<RealtimeStore.Snapshot> children = new ArrayList<>();
+        synchronized (this) {
+            registrations.add(registration);
+            Object value = read(registration.segments);
+            if (value instanceof Map) {
+                for (Map.Entry<String, Object> child : ((Map<String, Object>) value).entrySet()) {
+                    children.add(new TreeSnapshot(child.getKey(), BeanMapper.copy(child.getValue())));
+                }
+            }
+        }
+        deliverCallback(new Runnable() {
+            @Override
+            public void run() {
+                for (RealtimeStore.Snapshot child : children) {
+                    if (registration.active) {
+                        listener.onChildAdded(child);
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void removeChildListener(String path, ChildListener listener) {
+        remove(normalise(path), listener);
+    }
+
+    /********************************** Delivery helpers **********************************/
+
+    /**
+     * Send a write, held while disconnected
+     */
+    private void send(final Map<String, Object> changes, final CompletionListener listener) {
+        sentCount.incrementAndGet();
+        Runnable write = new Runnable() {
+            @Override
+            public void run() {
+                if (dropRate > 0 && random.nextDouble() < dropRate) {
+                    droppedCount.incrementAndGet();
+                    if (listener != null) {
+                        callback(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onComplete(ERROR_DROPPED);
+                            }
+                        });
+                    }
+                    return;
+                }
+                apply(changes);
+                if (listener != null) {
+                    callback(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onComplete(null);
+                        }
+                    });
+                }
+            }
+        };
+        synchronized (this) {
+            if (!connected) {
+                offlineWrites.add(write);
+                return;
+            }
+        }
+        deliver(write);
+    }
+
+    /**
+     * Run now without a latency, otherwise on the delivery thread after it
+     */
+    private void deliver(Runnable runnable) {
+        long delay = latency;
+        if (delay <= 0) {
+            runnable.run();
+            return;
+        }
+        synchronized (this) {
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, TAG);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            scheduler.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Deliver a runnable that only calls listeners, see callback
+     */
+    private void deliverCallback(final Runnable runnable) {
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                callback(runnable);
+            }
+        });
+    }
+
+    /**
+     * Call a listener through the callback executor, if any
+     */
+    private void callback(Runnable runnable) {
+        Executor executor = callbackExecutor;
+        if (executor == null) {
+            runnable.run();
+        } else {
+            executor.execute(runnable);
+        }
+    }
+
+    /**
+     * Apply changes to the tree as one atomic update, then call the listeners they affect
+     *
+     * @param changes Normalised path to tree value
+     */
+    private void apply(Map<String, Object> changes) {
+        List<Runnable> events = new ArrayList<>();
+        synchronized (this) {
+            // Children each child listener may see change, with their value before the write
+            List<Map<String, Object>> before = new ArrayList<>(registrations.size());
+            for (Registration registration : registrations) {
+                before.add(registration.childListener != null ? childrenBefore(registration, changes) : null);
+            }
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                write(split(change.getKey()), change.getValue());
+            }
+            for (int i = 0; i < registrations.size(); i++) {
+                Registration registration = registrations.get(i);
+                if (registration.childListener != null) {
+                    childEvents(registration, before.get(i), events);
+                } else if (registration.isAffectedBy(changes.keySet())) {
+                    valueEvent(registration, events);
+                }
+            }
+        }
+        for (Runnable event : events) {
+            callback(event);
+        }
+    }
+
+    /**
+     * @return child key to copied value before the write, for every child the changes may touch
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> childrenBefore(Registration registration, Map<String, Object> changes) {
+        Map<String, Object> before = null;
+        for (String path : changes.keySet()) {
+            if (!registration.isAffectedBy(path)) {
+                continue;
+            }
+            if (before == null) {
+                before = new LinkedHashMap<>();
+            }
+            String child = registration.childKey(path);
+            if (child != null) {
+                List<String> segments = new ArrayList<>(registration.segments);
+                segments.add(child);
+                before.put(child, BeanMapper.copy(read(segments)));
+            } else {
+                // Written at or above the listener, any child may have changed
+                Object value = read(registration.segments);
+                if (value instanceof Map) {
+                    for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                        before.put(entry.getKey(), BeanMapper.copy(entry.getValue()));
+                    }
+                }
+                before.put(null, null); // Marks that children may also have been added
+            }
+        }
+        return before;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void childEvents(final Registration registration, Map<String, Object> before,
+                             List<Runnable> events) {
+        if (before == null) {
+            return;
+        }
+        Set<String> keys = new LinkedHashSet<>(before.keySet());
+        if (keys.remove(null)) {
+            Object value = read(registration.segments);
+            if (value instanceof Map) {
+                keys.addAll(((Map<String, Object>) value).keySet());
+            }
+        }
+        final ChildListener listener = registration.childListener;
+        for (String key : keys) {
+            List<String> segments = new ArrayList<>(registration.segments);
+            segments.add(key);
+            Object now = read(segments);
+            Object old = before.get(key);
+            if (old == null && now != null) {
+                final RealtimeStore.Snapshot snapshot = new TreeSnapshot(key, BeanMapper.copy(now));
+                events.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (registration.active) {
+                            listener.onChildAdded(snapshot);
+                        }
+                    }
+                });
+            } else if (old != null && now == null) {
+                final RealtimeStore.Snapshot snapshot = new TreeSnapshot(key, old);
+                events.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (registration.active) {
+                            listener.onChildRemoved(snapshot);
+                        }
+                    }
+                });
+            } else if (old != null && !old.equals(now)) {
+                final RealtimeStore.Snapshot snapshot = new TreeSnapshot(key, BeanMapper.copy(now));
+                events.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (registration.active) {
+                            listener.onChildChanged(snapshot);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private void valueEvent(final Registration registration, List<Runnable> events) {
+        final RealtimeStore.Snapshot snapshot = snapshot(registration.segments);
+        events.add(new Runnable() {
+            @Override
+            public void run() {
+                if (registration.active) {
+                    registration.valueListener.onDataChange(snapshot);
+                }
+            }
+        });
+    }
+
+    private synchronized void remove(String path, Object listener) {
+        for (int i = 0; i < registrations.size(); i++) {
+            Registration registration = registrations.get(i);
+            if (registration.path.equals(path) && (registration.valueListener == listener
+                    || registration.childListener == listener)) {
+                registration.active = false;
+                registrations.remove(i);
+                return;
+            }
+        }
+    }
+
+    /********************************** Tree helpers **********************************/
+
+    private RealtimeStore.Snapshot snapshot(List<String> segments) {
+        String key = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        return new TreeSnapshot(key, BeanMapper.copy(read(segments)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object read(List<String> segments) {
+        Object node = root;
+        for (String segment : segments) {
+            if (node instanceof Map) {
+                node = ((Map<String, Object>) node).get(segment);
+            } else if (node instanceof List) {
+                int index = parseIndex(segment);
+                List<Object> list = (List<Object>) node;
+                node = index >= 0 && index < list.size() ? list.get(index) : null;
+            } else {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Replace the value at a path, null deletes it and any parents left empty
+     */
+    @SuppressWarnings("unchecked")
+    private void write(List<String> segments, Object value) {
+        if (segments.isEmpty()) {
+            Object connectedValue = read(split(CONNECTED_PATH));
+            root.clear();
+            if (value instanceof Map) {
+                root.putAll((Map<String, Object>) value);
+            }
+            write(split(CONNECTED_PATH), connectedValue);
+            return;
+        }
+        List<Map<String, Object>> parents = new ArrayList<>(segments.size());
+        Map<String, Object> node = root;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            parents.add(node);
+            Object child = node.get(segments.get(i));
+            if (child instanceof List) {
+                child = listToMap((List<Object>) child);
+                node.put(segments.get(i), child);
+            }
+            if (!(child instanceof Map)) {
+                if (value == null) {
+                    return; // Nothing to delete
+                }
+                child = new LinkedHashMap<String, Object>();
+                node.put(segments.get(i), child);
+            }
+            node = (Map<String, Object>) child;
+        }
+        String last = segments.get(segments.size() - 1);
+        if (value != null) {
+            node.put(last, value);
+            return;
+        }
+        node.remove(last);
+        // Prune parents left empty, as Firebase doesn't keep empty nodes
+        for (int i = parents.size() - 1; i >= 0 && node.isEmpty(); i--) {
+            Map<String, Object> parent = parents.get(i);
+            parent.remove(segments.get(i));
+            node = parent;
+        }
+    }
+
+    private static Map<String, Object> listToMap(List<Object> list) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) != null) {
+                map.put(String.valueOf(i), list.get(i));
+            }
+        }
+        return map;
+    }
+
+    private static int parseIndex(String segment) {
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return path without leading, trailing or repeated "/"
+     */
+    private static String normalise(String path) {
+        StringBuilder normalised = new StringBuilder(path.length());
+        for (String segment : split(path)) {
+            if (normalised.length() > 0) {
+                normalised.append('/');
+            }
+            normalised.append(segment);
+        }
+        return normalised.toString();
+    }
+
+    private static List<String> split(String path) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                segments.add(path.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    /**
+     * A value or child listener on a path
+     */
+    private static class Registration {
+        final String path;
+        final List<String> segments;
+        final ValueListener valueListener;
+        final ChildListener childListener;
+        /** Cleared on removal, so events already collected aren't delivered */
+        volatile boolean active = true;
+
+        Registration(String path, ValueListener valueListener, ChildListener childListener) {
+            this.path = path;
+            this.segments = split(path);
+            this.valueListener = valueListener;
+            this.childListener = childListener;
+        }
+
+        /**
+         * @return flag if a write to the path can change this registration's value
+         */
+        boolean isAffectedBy(String written) {
+            return path.isEmpty() || written.isEmpty() || written.equals(path)
+                    || written.startsWith(path + "/") || path.startsWith(written + "/");
+        }
+
+        boolean isAffectedBy(Set<String> written) {
+            for (String path : written) {
+                if (isAffectedBy(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return key of the child a write below this path lands in, null if it is at or above it
+         */
+        String childKey(String written) {
+            if (written.length() <= path.length() || !(path.isEmpty() || written.startsWith(path + "/"))) {
+                return null;
+            }
+            int start = path.isEmpty() ? 0 : path.length() + 1;
+            int end = written.indexOf('/', start);
+            return end < 0 ? written.substring(start) : written.substring(start, end);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.ddelp.volvoce.helpers;
+
+/**
+ * Detects from accelerometer samples that a still device started moving, so
+ * location sampling can leave SamplingPolicy's low rate without waiting for
+ * the next fix.
+ *
+ * Gravity is tracked with a low-pass filter and subtracted. The device is
+ * moving once what remains exceeds THRESHOLD in MIN_HITS samples within
+ * WINDOW, so a single jolt such as the phone being put down doesn't count.
+ */
+public class MotionDetector {
+
+    /** Acceleration in m/s^2 above gravity that counts as movement, walking peaks at 2-4 */
+    public static final double THRESHOLD = 1.0;
+    /** Samples above the threshold needed within WINDOW */
+    public static final int MIN_HITS = 3;
+    /** Time in milliseconds the hits have to fall in */
+    public static final long WINDOW = 2000;
+    /** Weight of the old gravity estimate for each sample */
+    private static final double GRAVITY_SMOOTHING = 0.8;
+
+    private final double[] gravity = new double[3];
+    private boolean initialised = false;
+    /** Samples above the threshold since firstHitAt */
+    private int hits = 0;
+    private long firstHitAt = 0;
+
+    /**
+     * Fold in an accelerometer sample
+     *
+     * @param x Acceleration along x in m/s^2, gravity included
+     * @param y Acceleration along y in m/s^2, gravity included
+     * @param z Acceleration along z in m/s^2, gravity included
+     * @param time Time of the sample in milliseconds
+     * @return flag if the device has just been detected moving
+     */
+    public boolean update(double x, double y, double z, long time) {
+        if (!initialised) {
+            gravity[0] = x;
+            gravity[1] = y;
+            gravity[2] = z;
+            initialised = true;
+            return false;
+        }
+        gravity[0] = GRAVITY_SMOOTHING * gravity[0] + (1 - GRAVITY_SMOOTHING) * x;
+        gravity[1] = GRAVITY_SMOOTHING * gravity[1] + (1 - GRAVITY_SMOOTHING) * y;
+        gravity[2] = GRAVITY_SMOOTHING * gravity[2] + (1 - GRAVITY_SMOOTHING) * z;
+        double dx = x - gravity[0];
+        double dy = y - gravity[1];
+        double dz = z - gravity[2];
+        if (dx * dx + dy * dy + dz * dz < THRESHOLD * THRESHOLD) {
+            return false;
+        }
+        if (hits == 0 || time - firstHitAt > WINDOW) {
+            hits = 0;
+            firstHitAt = time;
+        }
+        if (++hits < MIN_HITS) {
+            return false;
+        }
+        hits = 0;
+        return true;
+    }
+
+    /**
+     * Forget the gravity estimate and hits, e.g. when the sensor is registered again
+     */
+    public void reset() {
+        initialised = false;
+        hits = 0;
+    }
+}
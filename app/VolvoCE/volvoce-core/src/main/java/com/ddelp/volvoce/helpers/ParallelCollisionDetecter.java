@@ -0,0 +1,335 @@
+package com.ddelp.volvoce.helpers;
+
+import com.ddelp.volvoce.objects.HazardEnvelope;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Batch collision detection over many worksites on a ForkJoinPool.
+ *
+ * Work is split by worksite first. Within a worksite the machines are put in
+ * a SpatialHash, then the workers are recursively bisected along the longer
+ * side of their bounding box into spatial tiles until a tile is small enough
+ * to check sequentially. Every tile reads the shared machine grid with its own
+ * query buffer, owns the collision flags of its workers and returns the
+ * machines it hit, which are merged up the task tree as the tiles join, so no
+ * locks are needed.
+ *
+ * Small inputs are run sequentially on the calling thread.
+ *
+ * Note: ForkJoinPool needs API 21, so on older devices use CollisionDetecter.
+ * The common pool needs API 24, so the default constructor creates its own.
+ */
+public class ParallelCollisionDetecter {
+
+    /** Below this many entities in total, don't bother with the pool */
+    private static final int SEQUENTIAL_THRESHOLD = 2048;
+    /** Tiles with at most this many workers are checked sequentially */
+    private static final int TILE_SIZE = 512;
+    /** Cells are padded so rounding in the distance can't push a pair two cells apart */
+    private static final double CELL_PADDING = 1.001;
+    /** Smallest cell size in meters */
+    private static final double MIN_CELL_SIZE = 0.01;
+
+    private final ForkJoinPool pool;
+    /** Alert distance and hazard envelopes */
+    private final CollisionRules rules = new CollisionRules();
+    /** Per worksite state, reused between passes */
+    private final List<Site> sites = new ArrayList<>();
+
+    public ParallelCollisionDetecter() {
+        this(new ForkJoinPool());
+    }
+
+    public ParallelCollisionDetecter(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param threshold Alert threshold in decimal-degree, as stored in Firebase
+     */
+    public void setAlertThreshold(double threshold) {
+        rules.setAlertDistance(threshold * LocalProjection.METERS_PER_DEGREE);
+    }
+
+    /**
+     * @param meters Distance in meters under which a worker and machine collide
+     */
+    public void setAlertDistance(double meters) {
+        rules.setAlertDistance(meters);
+    }
+
+    /**
+     * @param envelopes Hazard envelopes, at most one per machine type
+     */
+    public void setHazardEnvelopes(List<HazardEnvelope> envelopes) {
+        rules.setHazardEnvelopes(envelopes);
+    }
+
+    /**
+     * Detect collisions on every worksite. Results are read back with
+     * {@link #isWorkerColliding(int, int)} and {@link #isMachineColliding(int, int)}
+     * and stay valid until the next call.
+     *
+     * @param workers Worker positions of each worksite
+     * @param machines Machine positions of each worksite, on the same projection
+     *                 as the workers of that worksite
+     * @return number of colliding worker/machine pairs over all worksites
+     */
+    public int detectCollisions(List<PositionStore> workers, List<PositionStore> machines) {
+        int siteCount = workers.size();
+        int entities = 0;
+        while (sites.size() < siteCount) {
+            sites.add(new Site());
+        }
+        double cellSize = Math.max(rules.getReach() * CELL_PADDING, MIN_CELL_SIZE);
+        for (int i = 0; i < siteCount; i++) {
+            sites.get(i).prepare(workers.get(i), machines.get(i), cellSize);
+            entities += workers.get(i).size() + machines.get(i).size();
+        }
+
+        if (entities < SEQUENTIAL_THRESHOLD) {
+            int pairs = 0;
+            for (int i = 0; i < siteCount; i++) {
+                pairs += sites.get(i).detectSequentially();
+            }
+            return pairs;
+        }
+        SitesTask task = new SitesTask(siteCount);
+        pool.invoke(task);
+        return task.pairs;
+    }
+
+    /**
+     * @param site Index of the worksite in the lists given to detectCollisions
+     * @param index Index of the worker in that worksite's store
+     * @return flag if the worker collided in the last pass
+     */
+    public boolean isWorkerColliding(int site, int index) {
+        return sites.get(site).workerCollisions[index];
+    }
+
+    /**
+     * @param site Index of the worksite in the lists given to detectCollisions
+     * @param index Index of the machine in that worksite's store
+     * @return flag if the machine collided in the last pass
+     */
+    public boolean isMachineColliding(int site, int index) {
+        return sites.get(site).machineCollisions[index];
+    }
+
+    /**
+     * Forks one task per worksite
+     */
+    private class SitesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int siteCount;
+        private int pairs;
+
+        SitesTask(int siteCount) {
+            this.siteCount = siteCount;
+        }
+
+        @Override
+        protected void compute() {
+            List<TileTask> tasks = new ArrayList<>(siteCount);
+            for (int i = 0; i < siteCount; i++) {
+                Site site = sites.get(i);
+                tasks.add(new TileTask(site, 0, site.workerCount));
+            }
+            invokeAll(tasks);
+            for (int i = 0; i < siteCount; i++) {
+                pairs += sites.get(i).merge(tasks.get(i).getRawResult());
+            }
+        }
+    }
+
+    /**
+     * Checks a tile of workers, splitting it in two along its longer side
+     * while it has more than TILE_SIZE workers.
+     */
+    private class TileTask extends RecursiveTask<TileResult> {
+        private static final long serialVersionUID = 1L;
+        private final Site site;
+        private final int from;
+        private final int to;
+
+        TileTask(Site site, int from, int to) {
+            this.site = site;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TileResult compute() {
+            if (to - from <= TILE_SIZE) {
+                return site.detectTile(from, to, new TileResult());
+            }
+            int middle = site.bisect(from, to);
+            TileTask left = new TileTask(site, from, middle);
+            TileTask right = new TileTask(site, middle, to);
+            left.fork();
+            TileResult result = right.compute();
+            return result.merge(left.join());
+        }
+    }
+
+    /**
+     * Pair count and hit machines of one tile or of several merged tiles
+     */
+    private static class TileResult {
+        int pairs;
+        int[] machines = new int[16];
+        int machineCount;
+        final SpatialHash.Results candidates = new SpatialHash.Results();
+
+        void addMachine(int m) {
+            if (machineCount == machines.length) {
+                machines = Arrays.copyOf(machines, machineCount * 2);
+            }
+            machines[machineCount++] = m;
+        }
+
+        TileResult merge(TileResult other) {
+            TileResult larger = machineCount >= other.machineCount ? this : other;
+            TileResult smaller = larger == this ? other : this;
+            for (int i = 0; i < smaller.machineCount; i++) {
+                larger.addMachine(smaller.machines[i]);
+            }
+            larger.pairs += smaller.pairs;
+            return larger;
+        }
+    }
+
+    /**
+     * Machine grid, worker order and results of one worksite
+     */
+    private class Site {
+        PositionStore workers;
+        PositionStore machines;
+        final SpatialHash machineGrid = new SpatialHash(MIN_CELL_SIZE);
+        /** Located workers, reordered into tiles by bisect */
+        int[] workerOrder = new int[16];
+        int workerCount;
+        boolean[] workerCollisions = new boolean[16];
+        boolean[] machineCollisions = new boolean[16];
+
+        /**
+         * Build the machine grid and reset the results. Runs on the calling
+         * thread before any task reads the site.
+         */
+        void prepare(PositionStore workers, PositionStore machines, double cellSize) {
+            if (this.machines != machines || machineGrid.size() > machines.size()) {
+                machineGrid.clear();
+            }
+            this.workers = workers;
+            this.machines = machines;
+            machineGrid.setCellSize(cellSize);
+            for (int m = 0; m < machines.size(); m++) {
+                if (machines.isLocated(m)) {
+                    machineGrid.put(m, machines.getX(m), machines.getY(m));
+                } else {
+                    machineGrid.remove(m);
+                }
+            }
+            if (workerOrder.length < workers.size()) {
+                workerOrder = new int[Math.max(workers.size(), workerOrder.length * 2)];
+            }
+            if (workerCollisions.length < workers.size()) {
+                workerCollisions = new boolean[workerOrder.length];
+            }
+            if (machineCollisions.length < machines.size()) {
+                machineCollisions = new boolean[Math.max(machines.size(), machineCollisions.length * 2)];
+            }
+            Arrays.fill(workerCollisions, false);
+            Arrays.fill(machineCollisions, false);
+            workerCount = 0;
+            for (int w = 0; w < workers.size(); w++) {
+                if (workers.isLocated(w)) {
+                    workerOrder[workerCount++] = w;
+                }
+            }
+        }
+
+        int detectSequentially() {
+            return merge(detectTile(0, workerCount, new TileResult()));
+        }
+
+        /**
+         * Check the workers in workerOrder[from..to). Only this tile writes
+         * the flags of these workers.
+         */
+        TileResult detectTile(int from, int to, TileResult result) {
+            for (int i = from; i < to; i++) {
+                int w = workerOrder[i];
+                int found = machineGrid.queryNeighbours(workers.getX(w), workers.getY(w),
+                        result.candidates);
+                for (int c = 0; c < found; c++) {
+                    int m = result.candidates.get(c);
+                    if (rules.collides(workers, w, machines, m)) {
+                        workerCollisions[w] = true;
+                        result.addMachine(m);
+                        result.pairs++;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Set the flags of the machines hit by the tiles. Runs after every
+         * tile of the site has joined.
+         */
+        int merge(TileResult result) {
+            for (int i = 0; i < result.machineCount; i++) {
+                machineCollisions[result.machines[i]] = true;
+            }
+            return result.pairs;
+        }
+
+        /**
+         * Split workerOrder[from..to) at the middle of its longer side,
+         * partitioning it in place.
+         *
+         * @return index of the first worker in the second half
+         */
+        int bisect(int from, int to) {
+            double minX = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE;
+            double minY = Double.MAX_VALUE;
+            double maxY = -Double.MAX_VALUE;
+            for (int i = from; i < to; i++) {
+                int w = workerOrder[i];
+                minX = Math.min(minX, workers.getX(w));
+                maxX = Math.max(maxX, workers.getX(w));
+                minY = Math.min(minY, workers.getY(w));
+                maxY = Math.max(maxY, workers.getY(w));
+            }
+            boolean splitX = maxX - minX >= maxY - minY;
+            double split = splitX ? (minX + maxX) / 2 : (minY + maxY) / 2;
+            int low = from;
+            int high = to - 1;
+            while (low <= high) {
+                int w = workerOrder[low];
+                double value = splitX ? workers.getX(w) : workers.getY(w);
+                if (value < split) {
+                    low++;
+                } else {
+                    workerOrder[low] = workerOrder[high];
+                    workerOrder[high] = w;
+                    high--;
+                }
+            }
+            if (low == from || low == to) {
+                // Every worker is at the same spot, split by count instead
+                return (from + to) >>> 1;
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.ddelp.volvoce.helpers;
+
+/**
+ * A point with latitude/longitude rather than X/Y
+ * Note: on a map latitude is Y and longitude is X
+ */
+public class PointGPS {
+    double latitude;
+    double longitude;
+
+    public PointGPS() {
+        this.latitude = 0;
+        this.longitude = 0;
+    }
+
+    public PointGPS(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+}
@@ -0,0 +1,348 @@
+package com.ddelp.volvoce.helpers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Struct-of-arrays store of entity positions.
+ *
+ * Each Worker/Machine ID is given a dense int index the first time it is seen
+ * and its latitude/longitude are kept in parallel double arrays. GPS strings
+ * are parsed once when an update arrives from Firebase, so the collision
+ * loop can read positions by index without parsing or allocating.
+ *
+ * Positions are also projected once per update into meters on the worksite's
+ * LocalProjection. Until a projection is set the store anchors one on the
+ * first position it receives.
+ *
+ * Velocity is kept projected as meters/second east/north along with the
+ * heading and time of the fix, for collision prediction and for orienting
+ * machine hazard envelopes. Machines also keep their type.
+ */
+public class PositionStore {
+
+    /** Tag for logging */
+    private static final String TAG = "PositionStore";
+    private static final Logger LOG = Logger.getLogger(TAG);
+
+    /** Entity ID to dense index */
+    private final Map<String, Integer> indices;
+    /** Dense index to entity ID */
+    private String[] ids;
+    private double[] latitudes;
+    private double[] longitudes;
+    /** Projected positions in meters east/north of the projection origin */
+    private double[] xs;
+    private double[] ys;
+    /** Projected velocity in meters/second east/north */
+    private double[] vxs;
+    private double[] vys;
+    /** Heading in degrees clockwise from north */
+    private double[] headings;
+    /** Time of each fix in milliseconds since epoch, 0 if unknown */
+    private long[] timestamps;
+    /** Entity type (e.g. Machine.MACHINE_TYPE_NONE) */
+    private int[] types;
+    /** Projection used for xs/ys */
+    private LocalProjection projection;
+    /** Flag if the projection was anchored on the first position rather than set */
+    private boolean anchoredProjection;
+    /** Flag if the entity has a valid position */
+    private boolean[] located;
+    private int size;
+
+    public PositionStore() {
+        this(16);
+    }
+
+    public PositionStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        indices = new HashMap<>(capacity * 2);
+        ids = new String[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        vxs = new double[capacity];
+        vys = new double[capacity];
+        headings = new double[capacity];
+        timestamps = new long[capacity];
+        types = new int[capacity];
+        located = new boolean[capacity];
+        size = 0;
+    }
+
+    /**
+     * Add or update an entity from a legacy GPS string
+     *
+     * @param id Entity ID
+     * @param gps Coordinates formatted "latitude,longitude" in decimal-degree
+     * @return dense index of the entity
+     */
+    public int put(String id, String gps) {
+        long packed = GPSCodec.parse(gps);
+        if (packed == GPSCodec.INVALID) {
+            LOG.fine("put: Invalid formatting of gps for " + id + ": " + gps);
+        }
+        return put(id, packed);
+    }
+
+    /**
+     * Add or update an entity from fixed-point coordinates
+     *
+     * @param id Entity ID
+     * @param packed Coordinates packed by GPSCodec, GPSCodec.INVALID if unknown
+     * @return dense index of the entity
+     */
+    public int put(String id, long packed) {
+        int index = indexFor(id);
+        if (packed == GPSCodec.INVALID) {
+            located[index] = false;
+            return index;
+        }
+        latitudes[index] = GPSCodec.decode(GPSCodec.latitude(packed));
+        longitudes[index] = GPSCodec.decode(GPSCodec.longitude(packed));
+        located[index] = true;
+        project(index);
+        return index;
+    }
+
+    /**
+     * Add or update an entity
+     *
+     * @param id Entity ID
+     * @param latitude Latitude in decimal-degree
+     * @param longitude Longitude in decimal-degree
+     * @return dense index of the entity
+     */
+    public int put(String id, double latitude, double longitude) {
+        int index = indexFor(id);
+        latitudes[index] = latitude;
+        longitudes[index] = longitude;
+        located[index] = true;
+        project(index);
+        return index;
+    }
+
+    /**
+     * Add or update an entity from a GPS string along with its motion
+     *
+     * @param id Entity ID
+     * @param gps Coordinates formatted "latitude,longitude" in decimal-degree
+     * @param speed Speed over ground in meters/second
+     * @param heading Heading in degrees clockwise from north
+     * @param timestamp Time of the fix in milliseconds since epoch, 0 if unknown
+     * @return dense index of the entity
+     */
+    public int put(String id, String gps, double speed, double heading, long timestamp) {
+        int index = put(id, gps);
+        setMotion(index, speed, heading, timestamp);
+        return index;
+    }
+
+    /**
+     * Add or update an entity from fixed-point coordinates along with its motion
+     *
+     * @param id Entity ID
+     * @param packed Coordinates packed by GPSCodec, GPSCodec.INVALID if unknown
+     * @param speed Speed over ground in meters/second
+     * @param heading Heading in degrees clockwise from north
+     * @param timestamp Time of the fix in milliseconds since epoch, 0 if unknown
+     * @return dense index of the entity
+     */
+    public int put(String id, long packed, double speed, double heading, long timestamp) {
+        int index = put(id, packed);
+        setMotion(index, speed, heading, timestamp);
+        return index;
+    }
+
+    /**
+     * Set the motion of an entity already in the store
+     *
+     * @param index Dense index
+     * @param speed Speed over ground in meters/second
+     * @param heading Heading in degrees clockwise from north
+     * @param timestamp Time of the fix in milliseconds since epoch, 0 if unknown
+     */
+    public void setMotion(int index, double speed, double heading, long timestamp) {
+        double radians = Math.toRadians(heading);
+        vxs[index] = speed * Math.sin(radians);
+        vys[index] = speed * Math.cos(radians);
+        headings[index] = heading;
+        timestamps[index] = timestamp;
+    }
+
+    /**
+     * @param index Dense index
+     * @param type Entity type (e.g. Machine.MACHINE_TYPE_NONE)
+     */
+    public void setType(int index, int type) {
+        types[index] = type;
+    }
+
+    /**
+     * @param index Dense index
+     * @return entity type
+     */
+    public int getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * @param id Entity ID
+     * @return dense index of the entity or -1 if it isn't in the store
+     */
+    public int indexOf(String id) {
+        Integer index = indices.get(id);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return number of entities in the store. Valid indices are 0..size()-1
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getID(int index) {
+        return ids[index];
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    /**
+     * @param index Dense index
+     * @return meters east of the projection origin
+     */
+    public double getX(int index) {
+        return xs[index];
+    }
+
+    /**
+     * @param index Dense index
+     * @return meters north of the projection origin
+     */
+    public double getY(int index) {
+        return ys[index];
+    }
+
+    /**
+     * @param index Dense index
+     * @return velocity in meters/second east
+     */
+    public double getVelocityX(int index) {
+        return vxs[index];
+    }
+
+    /**
+     * @param index Dense index
+     * @return velocity in meters/second north
+     */
+    public double getVelocityY(int index) {
+        return vys[index];
+    }
+
+    /**
+     * @param index Dense index
+     * @return heading in degrees clockwise from north
+     */
+    public double getHeading(int index) {
+        return headings[index];
+    }
+
+    /**
+     * @param index Dense index
+     * @return time of the fix in milliseconds since epoch, 0 if unknown
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * Set the projection used for getX/getY and re-project every position
+     *
+     * @param projection Local projection of the worksite
+     */
+    public void setProjection(LocalProjection projection) {
+        this.projection = projection;
+        this.anchoredProjection = false;
+        for (int i = 0; i < size; i++) {
+            if (located[i]) {
+                project(i);
+            }
+        }
+    }
+
+    public LocalProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * @param index Dense index
+     * @return flag if the entity has a valid position
+     */
+    public boolean isLocated(int index) {
+        return located[index];
+    }
+
+    /**
+     * Remove every entity from the store. Array capacity is kept.
+     */
+    public void clear() {
+        indices.clear();
+        Arrays.fill(ids, 0, size, null);
+        Arrays.fill(located, 0, size, false);
+        Arrays.fill(vxs, 0, size, 0);
+        Arrays.fill(vys, 0, size, 0);
+        Arrays.fill(headings, 0, size, 0);
+        Arrays.fill(timestamps, 0, size, 0);
+        Arrays.fill(types, 0, size, 0);
+        size = 0;
+        if (anchoredProjection) {
+            projection = null;
+            anchoredProjection = false;
+        }
+    }
+
+    private void project(int index) {
+        if (projection == null) {
+            projection = new LocalProjection(latitudes[index], longitudes[index]);
+            anchoredProjection = true;
+        }
+        xs[index] = projection.toX(longitudes[index]);
+        ys[index] = projection.toY(latitudes[index]);
+    }
+
+    private int indexFor(String id) {
+        Integer existing = indices.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            vxs = Arrays.copyOf(vxs, capacity);
+            vys = Arrays.copyOf(vys, capacity);
+            headings = Arrays.copyOf(headings, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            types = Arrays.copyOf(types, capacity);
+            located = Arrays.copyOf(located, capacity);
+        }
+        int index = size++;
+        ids[index] = id;
+        indices.put(id, index);
+        return index;
+    }
+}
@@ -0,0 +1,128 @@
+package com.ddelp.volvoce.helpers;
+
+import java.util.Map;
+
+/**
+ * The parts of a realtime database the app uses: set, multi-path update,
+ * and value and child listeners on a path.
+ *
+ * Paths are relative to the database root with "/" between segments, e.g.
+ * "positions/worksite1". Values follow Firebase: Boolean, Long, Double,
+ * String, null (deletes the node), Lists, Maps of those, or beans read
+ * through their getters.
+ *
+ * FirebaseStore talks to the live service, LoopbackStore keeps the tree in
+ * memory with configurable latency and drop rate so the sync code can be
+ * load tested offline.
+ */
+public interface RealtimeStore {
+
+    /** Path the store reports its connection state on, as a Boolean */
+    public static final String CONNECTED_PATH = ".info/connected";
+
+    /**
+     * Replace the value at a path
+     *
+     * @param path Path from the database root
+     * @param value New value, null to delete the node
+     */
+    public void setValue(String path, Object value);
+
+    /**
+     * Replace the value at a path
+     *
+     * @param path Path from the database root
+     * @param value New value, null to delete the node
+     * @param listener Called once the write is acknowledged or failed, may be null
+     */
+    public void setValue(String path, Object value, CompletionListener listener);
+
+    /**
+     * Write several children of a path in one atomic update
+     *
+     * @param path Path from the database root
+     * @param update Child path (may contain "/") to new value
+     * @param listener Called once the write is acknowledged or failed, may be null
+     */
+    public void updateChildren(String path, Map<String, Object> update, CompletionListener listener);
+
+    /**
+     * Listen to the value at a path. The listener is called with the current
+     * value straight away and again on every change.
+     */
+    public void addValueListener(String path, ValueListener listener);
+
+    /**
+     * Read the value at a path once
+     */
+    public void addSingleValueListener(String path, ValueListener listener);
+
+    public void removeValueListener(String path, ValueListener listener);
+
+    /**
+     * Listen to the children of a path. onChildAdded is called for every
+     * existing child straight away.
+     */
+    public void addChildListener(String path, ChildListener listener);
+
+    public void removeChildListener(String path, ChildListener listener);
+
+    /********************************** Callback Implementation **********************************/
+
+    /**
+     * Immutable copy of the data at a path
+     */
+    public interface Snapshot {
+        /**
+         * @return last segment of the path, null for the root
+         */
+        public String getKey();
+
+        /**
+         * @return the value as Boolean, Long, Double, String, List or Map, null if there is none
+         */
+        public Object getValue();
+
+        /**
+         * @param type Class to convert to, e.g. a bean with setters
+         * @return the converted value, null if there is none
+         */
+        public <T> T getValue(Class<T> type);
+
+        public boolean exists();
+
+        public Iterable<Snapshot> getChildren();
+    }
+
+    /**
+     * Interface definition for value callbacks
+     */
+    public interface ValueListener {
+        public void onDataChange(Snapshot snapshot);
+
+        public void onCancelled(String error);
+    }
+
+    /**
+     * Interface definition for child callbacks
+     */
+    public interface ChildListener {
+        public void onChildAdded(Snapshot snapshot);
+
+        public void onChildChanged(Snapshot snapshot);
+
+        public void onChildRemoved(Snapshot snapshot);
+
+        public void onCancelled(String error);
+    }
+
+    /**
+     * Interface definition for write completion callbacks
+     */
+    public interface CompletionListener {
+        /**
+         * @param error Why the write failed, null if it succeeded
+         */
+        public void onComplete(String error);
+    }
+}
@@ -0,0 +1,132 @@
+package com.ddelp.volvoce.helpers;
+
+/**
+ * Chooses how often a device should take location fixes over a long shift.
+ *
+ * The device doesn't see the machines itself, so proximity comes from the
+ * last collision result: while the worksite has this worker in alert, and
+ * for a cooldown after, the worker is close to a machine and fixes are
+ * taken at the high rate. Otherwise a moving worker gets the medium rate and
+ * one that has stood still for a while the low rate.
+ *
+ * At the low rate fixes are far apart, so a worker who starts walking would
+ * go unseen for longer than it takes to cross an alert distance if the
+ * policy were only re-evaluated when a fix arrives. Movement has to be
+ * reported through motionDetected instead (e.g. from a MotionDetector on the
+ * accelerometer), which moves the device back to the medium rate at once.
+ * The low rate also asks for LOW_MIN_DISTANCE of movement between fixes.
+ * Devices that can't detect movement any other way should set a short low
+ * interval with setLowInterval.
+ */
+public class SamplingPolicy {
+
+    /** Interval in milliseconds while near a machine */
+    public static final long HIGH_INTERVAL = 1000;
+    /** Interval in milliseconds while moving away from machines */
+    public static final long MEDIUM_INTERVAL = 3000;
+    /** Interval in milliseconds while standing still away from machines */
+    public static final long LOW_INTERVAL = 15000;
+    /** Movement in meters a fix needs while standing still, well inside the 9-11 m alert distances */
+    public static final float LOW_MIN_DISTANCE = 2.5f;
+    /** Default time in milliseconds to stay at the high rate after an alert clears */
+    public static final long DEFAULT_COOLDOWN = 30000;
+    /** Default time in milliseconds without movement before dropping to the low rate */
+    public static final long DEFAULT_STILL_TIME = 60000;
+    /** Below this speed in m/s the device is standing still */
+    private static final double MOVING_SPEED = 0.5;
+
+    private long cooldown = DEFAULT_COOLDOWN;
+    private long stillTime = DEFAULT_STILL_TIME;
+    private long lowInterval = LOW_INTERVAL;
+
+    /** Time of the last alert and the last movement in milliseconds */
+    private long lastHazardAt = Long.MIN_VALUE;
+    private long lastMovingAt = Long.MIN_VALUE;
+    /** Minimum distance of the rate last chosen */
+    private float minDistance = 0;
+    /** Flag if the rate last chosen is the low rate */
+    private boolean still = false;
+
+    /**
+     * @param milliseconds Time to stay at the high rate after an alert clears
+     */
+    public void setCooldown(long milliseconds) {
+        cooldown = milliseconds;
+    }
+
+    /**
+     * @param milliseconds Time without movement before dropping to the low rate
+     */
+    public void setStillTime(long milliseconds) {
+        stillTime = milliseconds;
+    }
+
+    /**
+     * @param milliseconds Interval while standing still away from machines
+     */
+    public void setLowInterval(long milliseconds) {
+        lowInterval = milliseconds;
+    }
+
+    /**
+     * Report that the device started moving between fixes. Call update
+     * afterwards to get the new rate.
+     *
+     * @param now Current time in milliseconds
+     */
+    public void motionDetected(long now) {
+        lastMovingAt = now;
+    }
+
+    /**
+     * @param alerting Flag if the worksite has this device in alert
+     * @param speed Current speed in m/s
+     * @param now Current time in milliseconds
+     * @return interval in milliseconds fixes should be taken at, see getMinDistance
+     */
+    public long update(boolean alerting, double speed, long now) {
+        if (alerting) {
+            lastHazardAt = now;
+        }
+        if (speed >= MOVING_SPEED) {
+            lastMovingAt = now;
+        }
+        minDistance = 0;
+        still = false;
+        if (lastHazardAt != Long.MIN_VALUE && now - lastHazardAt < cooldown) {
+            return HIGH_INTERVAL;
+        }
+        if (lastMovingAt != Long.MIN_VALUE && now - lastMovingAt < stillTime) {
+            return MEDIUM_INTERVAL;
+        }
+        minDistance = LOW_MIN_DISTANCE;
+        still = true;
+        return lowInterval;
+    }
+
+    /**
+     * @return minimum movement in meters between fixes at the rate last chosen by update,
+     * 0 unless standing still
+     */
+    public float getMinDistance() {
+        return minDistance;
+    }
+
+    /**
+     * @return flag if update last chose the low rate, movement should then be
+     * reported through motionDetected
+     */
+    public boolean isStill() {
+        return still;
+    }
+
+    /**
+     * Forget the history, e.g. when the device changes worksite
+     */
+    public void reset() {
+        lastHazardAt = Long.MIN_VALUE;
+        lastMovingAt = Long.MIN_VALUE;
+        minDistance = 0;
+        still = false;
+    }
+}
@@ -0,0 +1,331 @@
+package com.ddelp.volvoce.helpers;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid spatial hash used as a collision broadphase.
+ *
+ * Entities are identified by dense int IDs (0..n-1) and bucketed into square
+ * cells of side cellSize. As long as the cell size is at least the search
+ * radius, every neighbour of a point is in the point's own cell or one of the
+ * eight cells around it, so a query only has to walk those nine buckets.
+ *
+ * Cells are kept in an open addressed table keyed on the (x,y) cell index and
+ * each cell holds a doubly linked list of entity IDs threaded through int
+ * arrays, so inserting, moving and querying do not allocate once the arrays
+ * have grown to fit the worksite.
+ *
+ * Queries that pass their own Results buffer only read the hash, so several
+ * threads can query it at once as long as nothing modifies it meanwhile.
+ */
+public class SpatialHash {
+
+    private static final int NONE = -1;
+    private static final int INITIAL_SLOTS = 64;
+
+    /** Side length of a cell, in the same units as the inserted coordinates */
+    private double cellSize;
+
+    /** Cell table (open addressing, linear probing) */
+    private long[] slotX;
+    private long[] slotY;
+    private int[] slotHead;
+    private boolean[] slotUsed;
+    private int slotCount;
+
+    /** Per entity state, indexed by entity ID */
+    private double[] entityX;
+    private double[] entityY;
+    private int[] entitySlot;
+    private int[] entityNext;
+    private int[] entityPrev;
+    private int size;
+
+    /** Reusable query result buffer */
+    private final Results results = new Results();
+
+    public SpatialHash(double cellSize) {
+        this.cellSize = cellSize;
+        allocateSlots(INITIAL_SLOTS);
+        entityX = new double[16];
+        entityY = new double[16];
+        entitySlot = new int[16];
+        entityNext = new int[16];
+        entityPrev = new int[16];
+        Arrays.fill(entitySlot, NONE);
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Change the cell size. Every entity currently in the hash is re-bucketed
+     * so queries stay correct without the caller having to re-insert them.
+     *
+     * @param cellSize New cell side length
+     */
+    public void setCellSize(double cellSize) {
+        if (cellSize == this.cellSize) {
+            return;
+        }
+        this.cellSize = cellSize;
+        rehash(slotUsed.length);
+    }
+
+    /**
+     * Remove every entity and cell from the hash. Array capacity is kept.
+     */
+    public void clear() {
+        Arrays.fill(slotUsed, false);
+        Arrays.fill(slotHead, NONE);
+        Arrays.fill(entitySlot, NONE);
+        slotCount = 0;
+        size = 0;
+    }
+
+    /**
+     * @return number of entities in the hash
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int id) {
+        return id < entitySlot.length && entitySlot[id] != NONE;
+    }
+
+    /**
+     * Insert an entity, or move it if it is already in the hash.
+     *
+     * @param id Dense entity ID
+     * @param x X coordinate
+     * @param y Y coordinate
+     */
+    public void put(int id, double x, double y) {
+        ensureEntityCapacity(id + 1);
+        long cx = cellIndex(x);
+        long cy = cellIndex(y);
+        int current = entitySlot[id];
+        entityX[id] = x;
+        entityY[id] = y;
+        if (current != NONE) {
+            if (slotX[current] == cx && slotY[current] == cy) {
+                return; // Still in the same cell
+            }
+            unlink(id);
+        } else {
+            size++;
+        }
+        link(id, findOrCreateSlot(cx, cy));
+    }
+
+    /**
+     * Remove an entity from the hash
+     *
+     * @param id Dense entity ID
+     */
+    public void remove(int id) {
+        if (!contains(id)) {
+            return;
+        }
+        unlink(id);
+        size--;
+    }
+
+    /**
+     * Collect the IDs of every entity in the cell containing (x,y) and in the
+     * eight surrounding cells. Results are read back with {@link #getResult(int)}
+     * and are only valid until the next query.
+     *
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return number of candidates found
+     */
+    public int queryNeighbours(double x, double y) {
+        return queryNeighbours(x, y, results);
+    }
+
+    /**
+     * @param i Index into the results of the last query
+     * @return the entity ID at that index
+     */
+    public int getResult(int i) {
+        return results.ids[i];
+    }
+
+    /**
+     * Collect the IDs of every entity in the cell containing (x,y) and in the
+     * eight surrounding cells into a caller owned buffer.
+     *
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @param out Buffer to fill, its previous contents are discarded
+     * @return number of candidates found
+     */
+    public int queryNeighbours(double x, double y, Results out) {
+        out.count = 0;
+        long cx = cellIndex(x);
+        long cy = cellIndex(y);
+        for (long ix = cx - 1; ix <= cx + 1; ix++) {
+            for (long iy = cy - 1; iy <= cy + 1; iy++) {
+                int slot = findSlot(ix, iy);
+                if (slot == NONE) {
+                    continue;
+                }
+                for (int id = slotHead[slot]; id != NONE; id = entityNext[id]) {
+                    out.add(id);
+                }
+            }
+        }
+        return out.count;
+    }
+
+    public double getX(int id) {
+        return entityX[id];
+    }
+
+    public double getY(int id) {
+        return entityY[id];
+    }
+
+    /********************************** Internal helpers **********************************/
+
+    private long cellIndex(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+    private static int hash(long cx, long cy) {
+        long h = cx * 0x9E3779B97F4A7C15L + cy * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32)) & 0x7fffffff;
+    }
+
+    private int findSlot(long cx, long cy) {
+        int mask = slotUsed.length - 1;
+        int slot = hash(cx, cy) & mask;
+        while (slotUsed[slot]) {
+            if (slotX[slot] == cx && slotY[slot] == cy) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private int findOrCreateSlot(long cx, long cy) {
+        int slot = findSlot(cx, cy);
+        if (slot != NONE) {
+            return slot;
+        }
+        if ((slotCount + 1) * 2 > slotUsed.length) {
+            // Rebuild before the table gets half full. Empty cells left behind by
+            // moving entities are dropped, so the table is sized to the live cells.
+            rehash(INITIAL_SLOTS);
+        }
+        int mask = slotUsed.length - 1;
+        slot = hash(cx, cy) & mask;
+        while (slotUsed[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        slotUsed[slot] = true;
+        slotX[slot] = cx;
+        slotY[slot] = cy;
+        slotHead[slot] = NONE;
+        slotCount++;
+        return slot;
+    }
+
+    private void link(int id, int slot) {
+        int head = slotHead[slot];
+        entityPrev[id] = NONE;
+        entityNext[id] = head;
+        if (head != NONE) {
+            entityPrev[head] = id;
+        }
+        slotHead[slot] = id;
+        entitySlot[id] = slot;
+    }
+
+    private void unlink(int id) {
+        int slot = entitySlot[id];
+        int prev = entityPrev[id];
+        int next = entityNext[id];
+        if (prev != NONE) {
+            entityNext[prev] = next;
+        } else {
+            slotHead[slot] = next;
+        }
+        if (next != NONE) {
+            entityPrev[next] = prev;
+        }
+        entitySlot[id] = NONE;
+    }
+
+    private void allocateSlots(int capacity) {
+        slotX = new long[capacity];
+        slotY = new long[capacity];
+        slotHead = new int[capacity];
+        slotUsed = new boolean[capacity];
+        Arrays.fill(slotHead, NONE);
+        slotCount = 0;
+    }
+
+    /**
+     * Rebuild the cell table, re-bucketing every entity with the current cell size
+     */
+    private void rehash(int capacity) {
+        int[] live = new int[size];
+        int n = 0;
+        for (int id = 0; id < entitySlot.length && n < size; id++) {
+            if (entitySlot[id] != NONE) {
+                live[n++] = id;
+            }
+        }
+        int minCapacity = INITIAL_SLOTS;
+        while (minCapacity < n * 4) {
+            minCapacity *= 2;
+        }
+        allocateSlots(Math.max(capacity, minCapacity));
+        for (int i = 0; i < n; i++) {
+            int id = live[i];
+            link(id, findOrCreateSlot(cellIndex(entityX[id]), cellIndex(entityY[id])));
+        }
+    }
+
+    private void ensureEntityCapacity(int capacity) {
+        if (capacity <= entitySlot.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, entitySlot.length * 2);
+        int oldCapacity = entitySlot.length;
+        entityX = Arrays.copyOf(entityX, newCapacity);
+        entityY = Arrays.copyOf(entityY, newCapacity);
+        entityNext = Arrays.copyOf(entityNext, newCapacity);
+        entityPrev = Arrays.copyOf(entityPrev, newCapacity);
+        entitySlot = Arrays.copyOf(entitySlot, newCapacity);
+        Arrays.fill(entitySlot, oldCapacity, newCapacity, NONE);
+    }
+
+    /**
+     * Growable buffer of entity IDs returned by a query
+     */
+    public static class Results {
+        private int[] ids = new int[16];
+        private int count;
+
+        public int size() {
+            return count;
+        }
+
+        public int get(int i) {
+            return ids[i];
+        }
+
+        void add(int id) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.ddelp.volvoce.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Feeds a recorded LocationTrace back to a listener, either at the pace it
+ * was recorded (1x) or as fast as the listener takes it. Pacing follows the
+ * elapsed realtime of the fixes, so gaps and bursts between the GPS and
+ * network providers replay exactly as they happened. Runs on the calling
+ * thread and allocates nothing per fix. Long gaps are waited out in short
+ * steps, so stop takes effect promptly even at 1x.
+ */
+public class TraceReplayer {
+
+    /** Longest single sleep while waiting for the next fix, in milliseconds */
+    private static final long MAX_SLEEP = 100;
+
+    private final LocationTrace.Reader reader;
+    private final boolean realtime;
+    private final LocationTrace.Fix fix = new LocationTrace.Fix();
+    private volatile boolean stopped = false;
+
+    /**
+     * @param in Recorded trace
+     * @param realtime Flag to replay at the recorded pace, otherwise at maximum speed
+     * @throws IOException if the stream isn't a location trace
+     */
+    public TraceReplayer(InputStream in, boolean realtime) throws IOException {
+        this.reader = new LocationTrace.Reader(in);
+        this.realtime = realtime;
+    }
+
+    /**
+     * Replay the whole trace, then close it
+     *
+     * @param listener Listener receiving every fix, the Fix is reused for the next one
+     * @return number of fixes replayed
+     */
+    public long run(FixListener listener) throws IOException {
+        long count = 0;
+        long firstElapsed = 0;
+        long start = System.nanoTime();
+        try {
+            while (!stopped && reader.next(fix)) {
+                if (realtime) {
+                    if (count == 0) {
+                        firstElapsed = fix.elapsedRealtimeNanos;
+                    }
+                    if (!waitUntil(fix.elapsedRealtimeNanos - firstElapsed, start)) {
+                        break;
+                    }
+                }
+                listener.onFix(fix);
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    /**
+     * Sleep until an offset from the start of the replay, in steps of at most MAX_SLEEP
+     *
+     * @param offset Nanoseconds from the start of the replay
+     * @param start System.nanoTime at the start of the replay
+     * @return false if the replay was stopped or interrupted meanwhile
+     */
+    private boolean waitUntil(long offset, long start) {
+        long wait;
+        while ((wait = offset - (System.nanoTime() - start)) > 0) {
+            if (stopped) {
+                return false;
+            }
+            try {
+                long step = Math.min(wait, MAX_SLEEP * 1000000);
+                Thread.sleep(step / 1000000, (int) (step % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !stopped;
+    }
+
+    /**
+     * Stop a replay in progress after the current fix, from any thread
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Interface definition for replayed fixes
+     */
+    public interface FixListener {
+        public void onFix(LocationTrace.Fix fix);
+    }
+}
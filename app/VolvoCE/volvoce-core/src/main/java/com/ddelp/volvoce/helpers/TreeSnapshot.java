@@ -0,0 +1,65 @@
+package com.ddelp.volvoce.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot over a copied tree value of LoopbackStore
+ */
+class TreeSnapshot implements RealtimeStore.Snapshot {
+
+    private final String key;
+    private final Object value;
+
+    /**
+     * @param key Last segment of the path
+     * @param value Tree value, must not be shared with the store
+     */
+    TreeSnapshot(String key, Object value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public <T> T getValue(Class<T> type) {
+        return BeanMapper.fromTree(value, type);
+    }
+
+    @Override
+    public boolean exists() {
+        return value != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterable<RealtimeStore.Snapshot> getChildren() {
+        List<RealtimeStore.Snapshot> children = new ArrayList<>();
+        if (value instanceof Map) {
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                children.add(new TreeSnapshot(entry.getKey(), entry.getValue()));
+            }
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            for (int i = 0; i < list.size(); i++) {
+                children.add(new TreeSnapshot(String.valueOf(i), list.get(i)));
+            }
+        }
+        return children;
+    }
+
+    @Override
+    public String toString() {
+        return "TreeSnapshot{" + key + "=" + value + "}";
+    }
+}
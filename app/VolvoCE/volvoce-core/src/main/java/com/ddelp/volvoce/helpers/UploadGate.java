@@ -0,0 +1,138 @@
+package com.ddelp.volvoce.helpers;
+
+/**
+ * Decides when a device's location is worth uploading.
+ *
+ * Fixes are offered as they come in and only the newest matters, so a burst
+ * of fixes between two checks coalesces into one upload. A fix is sent when
+ * the device has moved at least minDisplacement since the last upload, or
+ * when its speed or heading changed enough to throw off collision
+ * prediction, but never more often than minInterval. If nothing was sent for
+ * maxSilence the newest fix is sent anyway as a heartbeat, so a worker
+ * standing still doesn't look offline.
+ */
+public class UploadGate {
+
+    /** Default minimum movement in meters before a new upload */
+    public static final double DEFAULT_MIN_DISPLACEMENT = 2.0;
+    /** Default longest time in milliseconds without an upload */
+    public static final long DEFAULT_MAX_SILENCE = 15000;
+    /** Default shortest time in milliseconds between uploads */
+    public static final long DEFAULT_MIN_INTERVAL = 500;
+    /** Speed change in m/s that is worth an upload on its own */
+    private static final double SPEED_CHANGE = 1.0;
+    /** Heading change in degrees that is worth an upload on its own while moving */
+    private static final double HEADING_CHANGE = 30;
+    /** Below this speed in m/s the heading is noise */
+    private static final double MOVING_SPEED = 0.5;
+
+    private double minDisplacement = DEFAULT_MIN_DISPLACEMENT;
+    private long maxSilence = DEFAULT_MAX_SILENCE;
+    private long minInterval = DEFAULT_MIN_INTERVAL;
+
+    /** Last uploaded fix */
+    private boolean hasSent = false;
+    private double sentLatitude;
+    private double sentLongitude;
+    private double sentSpeed;
+    private double sentHeading;
+    private long sentFixTime;
+    /** Time of the last upload in milliseconds */
+    private long sentAt;
+
+    /**
+     * @param meters Minimum movement before a new upload
+     */
+    public void setMinDisplacement(double meters) {
+        minDisplacement = meters;
+    }
+
+    /**
+     * @param milliseconds Longest time without an upload
+     */
+    public void setMaxSilence(long milliseconds) {
+        maxSilence = milliseconds;
+    }
+
+    /**
+     * @param milliseconds Shortest time between uploads
+     */
+    public void setMinInterval(long milliseconds) {
+        minInterval = milliseconds;
+    }
+
+    /**
+     * @param latitude Latitude of the newest fix in decimal-degree
+     * @param longitude Longitude of the newest fix in decimal-degree
+     * @param speed Speed in m/s
+     * @param heading Heading in degrees clockwise from north
+     * @param fixTime Time of the fix in milliseconds
+     * @param now Current time in milliseconds
+     * @return flag if the fix should be uploaded now
+     */
+    public boolean shouldSend(double latitude, double longitude, double speed, double heading,
+                              long fixTime, long now) {
+        if (!hasSent) {
+            return true;
+        }
+        long silence = now - sentAt;
+        if (silence >= maxSilence) {
+            return true;
+        }
+        if (silence < minInterval || fixTime == sentFixTime) {
+            return false;
+        }
+        if (distance(latitude, longitude, sentLatitude, sentLongitude) >= minDisplacement) {
+            return true;
+        }
+        if (Math.abs(speed - sentSpeed) >= SPEED_CHANGE) {
+            return true;
+        }
+        return Math.max(speed, sentSpeed) >= MOVING_SPEED
+                && headingDifference(heading, sentHeading) >= HEADING_CHANGE;
+    }
+
+    /**
+     * Record that a fix was uploaded
+     *
+     * @param latitude Latitude in decimal-degree
+     * @param longitude Longitude in decimal-degree
+     * @param speed Speed in m/s
+     * @param heading Heading in degrees clockwise from north
+     * @param fixTime Time of the fix in milliseconds
+     * @param now Current time in milliseconds
+     */
+    public void sent(double latitude, double longitude, double speed, double heading,
+                     long fixTime, long now) {
+        hasSent = true;
+        sentLatitude = latitude;
+        sentLongitude = longitude;
+        sentSpeed = speed;
+        sentHeading = heading;
+        sentFixTime = fixTime;
+        sentAt = now;
+    }
+
+    /**
+     * Forget the last upload, so the next fix is sent straight away
+     */
+    public void reset() {
+        hasSent = false;
+    }
+
+    /**
+     * Equirectangular distance in meters, accurate enough over a few meters
+     */
+    private static double distance(double latitude1, double longitude1,
+                                   double latitude2, double longitude2) {
+        double dy = (latitude1 - latitude2) * LocalProjection.METERS_PER_DEGREE;
+        double dx = (longitude1 - longitude2) * LocalProjection.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians((latitude1 + latitude2) / 2));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static double headingDifference(double heading1, double heading2) {
+        double difference = Math.abs(heading1 - heading2) % 360;
+        return difference > 180 ? 360 - difference : difference;
+    }
+}
@@ -0,0 +1,42 @@
+package com.ddelp.volvoce.helpers;
+
+/**
+ * Stores the GPS coordinates of the worksite edges
+ */
+public class WorksiteGPS {
+    double top;
+    double bottom;
+    double left;
+    double right;
+
+    public WorksiteGPS(double top, double bottom, double left, double right) {
+        this.top = top;
+        this.bottom = bottom;
+        this.left = left;
+        this.right = right;
+    }
+
+    public double getTop() {
+        return top;
+    }
+
+    public double getBottom() {
+        return bottom;
+    }
+
+    public double getLeft() {
+        return left;
+    }
+
+    public double getRight() {
+        return right;
+    }
+
+    public double getWidth() {
+        return Math.abs(right - left);
+    }
+
+    public double getHeight() {
+        return Math.abs(bottom - top);
+    }
+}
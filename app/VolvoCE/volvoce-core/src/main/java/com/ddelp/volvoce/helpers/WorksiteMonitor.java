@@ -0,0 +1,294 @@
+package com.ddelp.volvoce.helpers;
+
+import com.ddelp.volvoce.objects.HazardEnvelope;
+import com.ddelp.volvoce.objects.Machine;
+import com.ddelp.volvoce.objects.Worker;
+
+import java.util.List;
+
+/**
+ * Collision monitoring of one worksite, independent of Android and Firebase.
+ *
+ * Positions go in with workerUpdated/machineUpdated as they arrive. The
+ * CollisionDetecter re-evaluates the moved entity straight away (or on the
+ * next tick if incremental detection is off), the CollisionPredictor runs on
+ * every tick, and both feed an AlertStateMachine per side. The AlertListener
+ * is only called when an entity's alert actually changes, so callers just
+ * forward the events (to Firebase, a log, a test).
+ *
+ * tick must be called periodically, it also releases alerts once their
+ * dwell time has run out. Every call takes the current time, which dwell
+ * times are measured with, so it must not go backwards between calls.
+ * Not thread-safe, call everything from one thread.
+ */
+public class WorksiteMonitor {
+
+    private final PositionStore workerPositions = new PositionStore();
+    private final PositionStore machinePositions = new PositionStore();
+    private final CollisionDetecter collisionDetecter = new CollisionDetecter();
+    private final CollisionPredictor collisionPredictor = new CollisionPredictor();
+    private final AlertStateMachine workerAlerts = new AlertStateMachine();
+    private final AlertStateMachine machineAlerts = new AlertStateMachine();
+    /** Re-evaluate collisions as positions arrive instead of on every tick */
+    private final boolean incremental;
+    /** Time of the last tick or update, used for the alert transitions it causes */
+    private long now;
+    /** Listener for alert transitions */
+    private AlertListener listener;
+
+    public WorksiteMonitor() {
+        this(true);
+    }
+
+    /**
+     * @param incremental Flag to re-evaluate collisions as positions arrive
+     *                    rather than recomputing every pair on each tick
+     */
+    public WorksiteMonitor(boolean incremental) {
+        this.incremental = incremental;
+        this.listener = null;
+        if (incremental) {
+            collisionDetecter.setCollisionListener(collisionListener);
+            collisionDetecter.setPositionStores(workerPositions, machinePositions);
+        }
+    }
+
+    /**
+     * Measure distances on the given projection, e.g. one centred on the worksite
+     *
+     * @param projection Projection shared by workers and machines
+     */
+    public void setProjection(LocalProjection projection) {
+        workerPositions.setProjection(projection);
+        machinePositions.setProjection(projection);
+        if (incremental) {
+            collisionDetecter.setPositionStores(workerPositions, machinePositions);
+        }
+    }
+
+    /**
+     * @param threshold Alert threshold in decimal-degree, as stored in Firebase
+     */
+    public void setAlertThreshold(double threshold) {
+        collisionDetecter.setAlertThreshold(threshold);
+        collisionPredictor.setAlertThreshold(threshold);
+    }
+
+    /**
+     * @param meters Distance in meters under which a worker and machine collide
+     */
+    public void setAlertDistance(double meters) {
+        collisionDetecter.setAlertDistance(meters);
+        collisionPredictor.setAlertDistance(meters);
+    }
+
+    /**
+     * @param meters How much further than the alert distance a pair must be to leave an alert
+     */
+    public void setExitMargin(double meters) {
+        collisionDetecter.setExitMargin(meters);
+    }
+
+    /**
+     * @param envelopes Hazard envelopes, at most one per machine type
+     */
+    public void setHazardEnvelopes(List<HazardEnvelope> envelopes) {
+        collisionDetecter.setHazardEnvelopes(envelopes);
+    }
+
+    /**
+     * @param seconds How far ahead to predict collisions
+     */
+    public void setPredictionHorizon(double seconds) {
+        collisionPredictor.setHorizon(seconds);
+    }
+
+    /**
+     * @param onTime Minimum time in milliseconds an alert stays on
+     * @param offTime Minimum time in milliseconds an alert stays off
+     */
+    public void setDwellTimes(long onTime, long offTime) {
+        workerAlerts.setDwellTimes(onTime, offTime);
+        machineAlerts.setDwellTimes(onTime, offTime);
+    }
+
+    /**
+     * Add or move a worker
+     *
+     * @param worker Worker with its latest GPS, velocity, direction and timestamp
+     * @param now Time the update arrived in milliseconds since epoch
+     * @return index of the worker in the worker store
+     */
+    public int workerUpdated(Worker worker, long now) {
+        this.now = now;
+        int index = workerPositions.put(worker.getID(),
+                GPSCodec.read(worker.getLatitudeE7(), worker.getLongitudeE7(), worker.getGPS()),
+                worker.getVelocity(), worker.getDirection(), worker.getTimestamp());
+        if (incremental) {
+            collisionDetecter.workerUpdated(index);
+        }
+        return index;
+    }
+
+    /**
+     * Add or move a machine
+     *
+     * @param machine Machine with its latest type, GPS, velocity, direction and timestamp
+     * @param now Time the update arrived in milliseconds since epoch
+     * @return index of the machine in the machine store
+     */
+    public int machineUpdated(Machine machine, long now) {
+        this.now = now;
+        int index = machinePositions.put(machine.getID(),
+                GPSCodec.read(machine.getLatitudeE7(), machine.getLongitudeE7(), machine.getGPS()),
+                machine.getVelocity(), machine.getDirection(), machine.getTimestamp());
+        machinePositions.setType(index, machine.getType());
+        if (incremental) {
+            collisionDetecter.machineUpdated(index);
+        }
+        return index;
+    }
+
+    /**
+     * Drop a worker or machine that left the worksite. It stays in its store
+     * so indices don't move, but is no longer located, takes no part in
+     * collisions, and any alert it held is released straight away through
+     * the AlertListener.
+     *
+     * @param id Worker/Machine ID
+     * @param now Time the removal arrived in milliseconds since epoch
+     * @return flag if the entity was known
+     */
+    public boolean entityRemoved(String id, long now) {
+        this.now = now;
+        int index = workerPositions.indexOf(id);
+        if (index >= 0) {
+            workerPositions.put(id, GPSCodec.INVALID, 0, 0, 0);
+            boolean wasAlerting = workerAlerts.release(index, now);
+            if (incremental) {
+                collisionDetecter.workerUpdated(index);
+            }
+            if (wasAlerting && listener != null) {
+                listener.onAlertChanged(id, false);
+            }
+            return true;
+        }
+        index = machinePositions.indexOf(id);
+        if (index >= 0) {
+            machinePositions.put(id, GPSCodec.INVALID, 0, 0, 0);
+            boolean wasAlerting = machineAlerts.release(index, now);
+            if (incremental) {
+                collisionDetecter.machineUpdated(index);
+            }
+            if (wasAlerting && listener != null) {
+                listener.onAlertChanged(id, false);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Predict collisions and re-evaluate the alert of every entity
+     *
+     * @param now Current time in milliseconds since epoch
+     */
+    public void tick(long now) {
+        this.now = now;
+        if (!incremental) {
+            collisionDetecter.detectCollisions(workerPositions, machinePositions);
+        }
+        collisionPredictor.predictCollisions(workerPositions, machinePositions, now);
+        for (int i = 0; i < workerPositions.size(); i++) {
+            updateWorkerAlert(i);
+        }
+        for (int i = 0; i < machinePositions.size(); i++) {
+            updateMachineAlert(i);
+        }
+    }
+
+    public PositionStore getWorkerPositions() {
+        return workerPositions;
+    }
+
+    public PositionStore getMachinePositions() {
+        return machinePositions;
+    }
+
+    /**
+     * @param id Worker/Machine ID
+     * @return flag if the entity is currently alerted
+     */
+    public boolean isAlerting(String id) {
+        int index = workerPositions.indexOf(id);
+        if (index >= 0) {
+            return workerAlerts.isAlerting(index);
+        }
+        index = machinePositions.indexOf(id);
+        return index >= 0 && machineAlerts.isAlerting(index);
+    }
+
+    /********************************** Alert helpers **********************************/
+
+    /**
+     * Listener to re-evaluate alerts as soon as a collision starts or ends
+     */
+    private final CollisionDetecter.CollisionListener collisionListener =
+            new CollisionDetecter.CollisionListener() {
+        @Override
+        public void onWorkerCollisionChanged(int index, String id, boolean colliding) {
+            updateWorkerAlert(index);
+        }
+
+        @Override
+        public void onMachineCollisionChanged(int index, String id, boolean colliding) {
+            updateMachineAlert(index);
+        }
+    };
+
+    /**
+     * A Worker enters an alert if it is colliding now or predicted to collide within the
+     * horizon, and leaves it once it is clear of the exit margin and the dwell time is over
+     */
+    private void updateWorkerAlert(int index) {
+        boolean enter = collisionDetecter.isWorkerColliding(index)
+                || collisionPredictor.isWorkerPredicted(index);
+        // Only an alert in progress is held by the exit zone, so skip the query otherwise
+        boolean hold = enter || (workerAlerts.isAlerting(index) && collisionDetecter.isWorkerNear(index));
+        if (workerAlerts.update(index, enter, hold, now) && listener != null) {
+            listener.onAlertChanged(workerPositions.getID(index), workerAlerts.isAlerting(index));
+        }
+    }
+
+    /**
+     * A Machine enters an alert if it is colliding now or predicted to collide within the
+     * horizon, and leaves it once it is clear of the exit margin and the dwell time is over
+     */
+    private void updateMachineAlert(int index) {
+        boolean enter = collisionDetecter.isMachineColliding(index)
+                || collisionPredictor.isMachinePredicted(index);
+        // Only an alert in progress is held by the exit zone, so skip the query otherwise
+        boolean hold = enter || (machineAlerts.isAlerting(index) && collisionDetecter.isMachineNear(index));
+        if (machineAlerts.update(index, enter, hold, now) && listener != null) {
+            listener.onAlertChanged(machinePositions.getID(index), machineAlerts.isAlerting(index));
+        }
+    }
+
+    /********************************** Callback Implementation **********************************/
+
+    /**
+     * Interface definition for alert transition callbacks
+     */
+    public interface AlertListener {
+        public void onAlertChanged(String id, boolean alert);
+    }
+
+    /**
+     * Assign the listener implementing events interface that will receive the events
+     *
+     * @param listener
+     */
+    public void setAlertListener(AlertListener listener) {
+        this.listener = listener;
+    }
+}
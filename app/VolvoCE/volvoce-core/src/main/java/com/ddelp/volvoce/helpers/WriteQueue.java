@@ -0,0 +1,277 @@
+package com.ddelp.volvoce.helpers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Write-ahead queue of outbound mutations, compacted to the latest value per path.
+ *
+ * Every write is recorded here (and in the Journal, so it survives a restart)
+ * before it is sent. While the device is offline writes to the same path
+ * replace each other, so a tablet that lost LTE for ten minutes replays one
+ * position and one alert per entity rather than every fix it took. Map
+ * values are merged field by field and sent as a multi-path update, the same
+ * as updateChildren on the node, a null value deletes the node. A Map
+ * written after a queued delete replaces the whole node instead, so fields
+ * it doesn't name are still deleted.
+ *
+ * Batches are taken oldest first with nextBatch and removed with completed
+ * once the server has acknowledged them. A path written again while its
+ * batch was in flight stays queued with the newer value. Writes queued
+ * together with putAll are never split across batches, so they reach the
+ * server as one atomic update. Groups aren't journaled, restored writes are
+ * batched one by one.
+ * Not thread-safe, call everything from one thread.
+ */
+public class WriteQueue {
+
+    /** Tag for logging */
+    private static final String TAG = "WriteQueue";
+    private static final Logger LOG = Logger.getLogger(TAG);
+
+    /** Latest value of every queued path, oldest first */
+    private final LinkedHashMap<String, Object> pending = new LinkedHashMap<>();
+    /** Queued paths whose Map value replaces the node rather than updating its fields */
+    private final Set<String> replaced = new HashSet<>();
+    /** Group of every path queued by putAll, paths written on their own have none */
+    private final Map<String, Group> groups = new HashMap<>();
+    /** Persistent copy of the queue, may be null */
+    private Journal journal;
+
+    public WriteQueue() {
+        this(null);
+    }
+
+    /**
+     * @param journal Persistent copy of the queue, may be null
+     */
+    public WriteQueue(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Restore writes that were still queued when the app last stopped. Paths
+     * written since take precedence over the restored value.
+     *
+     * @param writes Path to value, oldest first
+     * @param replacedPaths Paths whose Map value replaces the node, see Journal.write
+     */
+    public void restore(Map<String, Object> writes, Collection<String> replacedPaths) {
+        for (Map.Entry<String, Object> entry : writes.entrySet()) {
+            if (!pending.containsKey(entry.getKey())) {
+                pending.put(entry.getKey(), entry.getValue());
+                if (replacedPaths.contains(entry.getKey()) && entry.getValue() instanceof Map) {
+                    replaced.add(entry.getKey());
+                }
+            }
+        }
+        LOG.info("Restored " + writes.size() + " queued writes");
+    }
+
+    /**
+     * Queue a write
+     *
+     * @param path Path from the database root, e.g. "alerts/<id>"
+     * @param value New value, a Map of fields to update or null to delete the node
+     */
+    public void put(String path, Object value) {
+        enqueue(path, value, null);
+    }
+
+    /**
+     * Queue several writes that must reach the server together. They are kept
+     * in one batch even if that takes it past maxPaths.
+     *
+     * @param writes Path from the database root to new value, see put
+     */
+    public void putAll(Map<String, Object> writes) {
+        Group group = new Group();
+        for (Map.Entry<String, Object> entry : writes.entrySet()) {
+            enqueue(entry.getKey(), entry.getValue(), group);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void enqueue(String path, Object value, Group group) {
+        leaveGroup(path);
+        if (group != null) {
+            groups.put(path, group);
+            group.size++;
+        }
+        boolean queued = pending.containsKey(path);
+        Object previous = pending.remove(path);
+        if (!(value instanceof Map)) {
+            replaced.remove(path);
+        } else if (queued && previous == null) {
+            // The node is deleted first, so the fields replace it rather than update it
+            replaced.add(path);
+        } else if (previous instanceof Map) {
+            // Merge like updateChildren would, the newer fields win
+            Map<String, Object> merged = new LinkedHashMap<>((Map<String, Object>) previous);
+            merged.putAll((Map<String, Object>) value);
+            value = merged;
+        }
+        pending.put(path, value);
+        if (journal != null) {
+            journal.write(path, value, replaced.contains(path));
+        }
+    }
+
+    /**
+     * @return number of queued paths
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Take the oldest queued writes without removing them
+     *
+     * @param maxPaths Maximum number of paths in the batch, unless the oldest
+     *                 write belongs to a larger putAll group, which is taken whole
+     * @return the batch, or null if nothing is queued
+     */
+    public Batch nextBatch(int maxPaths) {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        Batch batch = new Batch(Math.min(maxPaths, pending.size()));
+        // Paths of a group are always adjacent, every write is queued at the back
+        int groupRemaining = 0;
+        Iterator<Map.Entry<String, Object>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+            if (groupRemaining == 0) {
+                Group group = groups.get(entry.getKey());
+                int needed = group == null ? 1 : group.size;
+                if (batch.size() > 0 && batch.size() + needed > maxPaths) {
+                    break;
+                }
+                groupRemaining = needed;
+            }
+            batch.add(entry.getKey(), entry.getValue(), replaced.contains(entry.getKey()));
+            groupRemaining--;
+        }
+        return batch;
+    }
+
+    /**
+     * Remove a batch the server has acknowledged. Paths written again since
+     * the batch was taken keep their newer value.
+     *
+     * @param batch Batch returned by nextBatch
+     */
+    public void completed(Batch batch) {
+        for (int i = 0; i < batch.paths.size(); i++) {
+            String path = batch.paths.get(i);
+            if (pending.containsKey(path) && pending.get(path) == batch.values.get(i)) {
+                pending.remove(path);
+                replaced.remove(path);
+                leaveGroup(path);
+                if (journal != null) {
+                    journal.delete(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget every queued write
+     */
+    public void clear() {
+        if (journal != null) {
+            for (String path : pending.keySet()) {
+                journal.delete(path);
+            }
+        }
+        pending.clear();
+        replaced.clear();
+        groups.clear();
+    }
+
+    /**
+     * @param path Path that was written again or removed
+     */
+    private void leaveGroup(String path) {
+        Group group = groups.remove(path);
+        if (group != null) {
+            group.size--;
+        }
+    }
+
+    /**
+     * Writes queued by one putAll
+     */
+    private static class Group {
+        /** Number of queued paths still in the group */
+        int size;
+    }
+
+    /**
+     * Writes sent together as one multi-path update
+     */
+    public static class Batch {
+        private final List<String> paths;
+        private final List<Object> values;
+        private final Map<String, Object> update = new LinkedHashMap<>();
+
+        Batch(int capacity) {
+            paths = new ArrayList<>(capacity);
+            values = new ArrayList<>(capacity);
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(String path, Object value, boolean replace) {
+            paths.add(path);
+            values.add(value);
+            if (value instanceof Map && !replace) {
+                for (Map.Entry<String, Object> field : ((Map<String, Object>) value).entrySet()) {
+                    update.put(path + "/" + field.getKey(), field.getValue());
+                }
+            } else {
+                update.put(path, value);
+            }
+        }
+
+        /**
+         * @return number of paths in the batch
+         */
+        public int size() {
+            return paths.size();
+        }
+
+        /**
+         * @return the batch as a multi-path update from the database root
+         */
+        public Map<String, Object> getUpdate() {
+            return update;
+        }
+    }
+
+    /**
+     * Persistent copy of the queue. Called on the queue's thread, so
+     * implementations should hand the work off rather than block.
+     */
+    public interface Journal {
+        /**
+         * @param path Queued path
+         * @param value Latest value of the path
+         * @param replace Flag if a Map value replaces the node rather than updating its fields
+         */
+        public void write(String path, Object value, boolean replace);
+
+        public void delete(String path);
+    }
+}
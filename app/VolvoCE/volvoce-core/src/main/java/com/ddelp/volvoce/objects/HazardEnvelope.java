@@ -0,0 +1,74 @@
+package com.ddelp.volvoce.objects;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hazard zone around a type of Machine, stored in Firebase under
+ * hazard_envelopes/<type>.
+ *
+ * The zone is the union of a circle of the given radius around the machine
+ * and a polygon given in the machine's own frame in meters: x to the right
+ * of the machine and y in the direction it is heading. The polygon is a flat
+ * list of x,y pairs so it maps directly onto the Firebase tree.
+ */
+public class HazardEnvelope {
+    private int type;
+    private String name;
+    private double radius;
+    private List<Double> polygon;
+
+    public HazardEnvelope() {
+        this(Machine.MACHINE_TYPE_NONE, null, 0);
+    }
+
+    public HazardEnvelope(int type, String name, double radius) {
+        this.type = type;
+        this.name = name;
+        this.radius = radius;
+        this.polygon = new ArrayList<>();
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    public int getType() {
+        return this.type;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setRadius(double radius) {
+        this.radius = radius;
+    }
+
+    public double getRadius() {
+        return this.radius;
+    }
+
+    public void setPolygon(List<Double> polygon) {
+        this.polygon = polygon;
+    }
+
+    public List<Double> getPolygon() {
+        return this.polygon;
+    }
+
+    /**
+     * Append a vertex to the polygon
+     *
+     * @param x Meters to the right of the machine
+     * @param y Meters ahead of the machine
+     */
+    public void addVertex(double x, double y) {
+        polygon.add(x);
+        polygon.add(y);
+    }
+}
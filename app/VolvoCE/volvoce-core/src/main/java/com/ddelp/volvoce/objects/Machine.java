@@ -0,0 +1,133 @@
+package com.ddelp.volvoce.objects;
+
+import com.ddelp.volvoce.helpers.GPSCodec;
+
+/**
+ * Created by Denny on 5/9/16.
+ */
+public class Machine {
+    public static final int MACHINE_TYPE_NONE = 0;
+    public static final int MACHINE_TYPE_EXCAVATOR = 1;
+    public static final int MACHINE_TYPE_HAUL_TRUCK = 2;
+
+    private String id;
+    private int type;
+    /** Legacy coordinates formatted "latitude,longitude", only read for old data */
+    private String gps;
+    /** Latitude in 1e-7 degree, see GPSCodec */
+    private int latitudeE7;
+    /** Longitude in 1e-7 degree, see GPSCodec */
+    private int longitudeE7;
+    private String worksite;
+    /** Speed over ground in meters/second */
+    private double velocity;
+    /** Heading in degrees clockwise from north */
+    private double direction;
+    /** Time of the GPS fix in milliseconds since epoch */
+    private long timestamp;
+
+    public Machine() {
+    }
+
+    public Machine(String id) {
+        this(id, MACHINE_TYPE_NONE, null, null);
+    }
+
+    public Machine(String id, int type) {
+        this(id, type, null, null);
+    }
+
+    public Machine(String id, int type, String gps) {
+        this(id, type, gps, null);
+    }
+
+    public Machine(String id, int type, String gps, String worksite) {
+        this.id = id;
+        this.type = type;
+        setLocation(GPSCodec.parse(gps));
+        this.worksite = worksite;
+    }
+
+    public void setID(String id) {
+        this.id = id;
+    }
+
+    public String getID() {
+        return this.id;
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    public int getType() {
+        return this.type;
+    }
+
+    public void setGPS(String gps) {
+        this.gps = gps;
+    }
+
+    public String getGPS() {
+        return this.gps;
+    }
+
+    public void setLatitudeE7(int latitudeE7) {
+        this.latitudeE7 = latitudeE7;
+    }
+
+    public int getLatitudeE7() {
+        return this.latitudeE7;
+    }
+
+    public void setLongitudeE7(int longitudeE7) {
+        this.longitudeE7 = longitudeE7;
+    }
+
+    public int getLongitudeE7() {
+        return this.longitudeE7;
+    }
+
+    public void setWorksite(String worksite) {
+        this.worksite = worksite;
+    }
+
+    public String getWorksite() {
+        return this.worksite;
+    }
+
+    public void setVelocity(double velocity) {
+        this.velocity = velocity;
+    }
+
+    public double getVelocity() {
+        return this.velocity;
+    }
+
+    public void setDirection(double direction) {
+        this.direction = direction;
+    }
+
+    public double getDirection() {
+        return this.direction;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @param packed Coordinates packed by GPSCodec, GPSCodec.INVALID if unknown
+     */
+    private void setLocation(long packed) {
+        if (packed == GPSCodec.INVALID) {
+            return;
+        }
+        this.latitudeE7 = GPSCodec.latitude(packed);
+        this.longitudeE7 = GPSCodec.longitude(packed);
+    }
+}
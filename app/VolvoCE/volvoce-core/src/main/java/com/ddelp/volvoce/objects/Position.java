@@ -0,0 +1,123 @@
+package com.ddelp.volvoce.objects;
+
+import com.ddelp.volvoce.helpers.GPSCodec;
+
+/**
+ * Latest fix of a Worker or Machine, stored in Firebase under
+ * positions/<worksite>/<id> so a worksite's positions can be streamed from
+ * a single node. Names and other details stay under workers/ and machines/.
+ */
+public class Position {
+    public static final String KIND_WORKER = "worker";
+    public static final String KIND_MACHINE = "machine";
+
+    /** KIND_WORKER or KIND_MACHINE */
+    private String kind;
+    /** Machine type, MACHINE_TYPE_NONE for workers */
+    private int type;
+    /** Legacy coordinates formatted "latitude,longitude", only read for old data */
+    private String gps;
+    /** Latitude in 1e-7 degree, see GPSCodec */
+    private int latitudeE7;
+    /** Longitude in 1e-7 degree, see GPSCodec */
+    private int longitudeE7;
+    /** Speed over ground in meters/second */
+    private double velocity;
+    /** Heading in degrees clockwise from north */
+    private double direction;
+    /** Time of the GPS fix in milliseconds since epoch */
+    private long timestamp;
+
+    public Position() {
+        this.kind = KIND_WORKER;
+        this.type = Machine.MACHINE_TYPE_NONE;
+    }
+
+    public Position(String kind, int type, String gps) {
+        this.kind = kind;
+        this.type = type;
+        setLocation(GPSCodec.parse(gps));
+    }
+
+    public Position(String kind, int type, int latitudeE7, int longitudeE7) {
+        this.kind = kind;
+        this.type = type;
+        this.latitudeE7 = latitudeE7;
+        this.longitudeE7 = longitudeE7;
+    }
+
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+
+    public String getKind() {
+        return this.kind;
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    public int getType() {
+        return this.type;
+    }
+
+    public void setGPS(String gps) {
+        this.gps = gps;
+    }
+
+    public String getGPS() {
+        return this.gps;
+    }
+
+    public void setLatitudeE7(int latitudeE7) {
+        this.latitudeE7 = latitudeE7;
+    }
+
+    public int getLatitudeE7() {
+        return this.latitudeE7;
+    }
+
+    public void setLongitudeE7(int longitudeE7) {
+        this.longitudeE7 = longitudeE7;
+    }
+
+    public int getLongitudeE7() {
+        return this.longitudeE7;
+    }
+
+    public void setVelocity(double velocity) {
+        this.velocity = velocity;
+    }
+
+    public double getVelocity() {
+        return this.velocity;
+    }
+
+    public void setDirection(double direction) {
+        this.direction = direction;
+    }
+
+    public double getDirection() {
+        return this.direction;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @param packed Coordinates packed by GPSCodec, GPSCodec.INVALID if unknown
+     */
+    private void setLocation(long packed) {
+        if (packed == GPSCodec.INVALID) {
+            return;
+        }
+        this.latitudeE7 = GPSCodec.latitude(packed);
+        this.longitudeE7 = GPSCodec.longitude(packed);
+    }
+}
@@ -0,0 +1,134 @@
+package com.ddelp.volvoce.objects;
+
+import com.ddelp.volvoce.helpers.GPSCodec;
+
+/**
+ * Created by Denny on 5/5/16.
+ *
+ * Worker class to old ID, name, and GPS
+ */
+public class Worker {
+    private String id;
+    /** Legacy coordinates formatted "latitude,longitude", only read for old data */
+    private String gps;
+    /** Latitude in 1e-7 degree, see GPSCodec */
+    private int latitudeE7;
+    /** Longitude in 1e-7 degree, see GPSCodec */
+    private int longitudeE7;
+    private String name;
+    private String worksite;
+    /** Speed over ground in meters/second */
+    private double velocity;
+    /** Heading in degrees clockwise from north */
+    private double direction;
+    /** Time of the GPS fix in milliseconds since epoch */
+    private long timestamp;
+
+    public Worker() {
+    }
+
+    public Worker(String id) {
+        this.id = id;
+    }
+
+    public Worker(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public Worker(String id, String name, String gps) {
+        this.id = id;
+        this.name = name;
+        setLocation(GPSCodec.parse(gps));
+    }
+
+    public Worker(String id, String name, String gps, String worksite) {
+        this.id = id;
+        this.name = name;
+        setLocation(GPSCodec.parse(gps));
+        this.worksite = worksite;
+    }
+
+    public void setID(String id) {
+        this.id = id;
+    }
+
+    public String getID() {
+        return this.id;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setGPS(String gps) {
+        this.gps = gps;
+    }
+
+    public String getGPS() {
+        return this.gps;
+    }
+
+    public void setLatitudeE7(int latitudeE7) {
+        this.latitudeE7 = latitudeE7;
+    }
+
+    public int getLatitudeE7() {
+        return this.latitudeE7;
+    }
+
+    public void setLongitudeE7(int longitudeE7) {
+        this.longitudeE7 = longitudeE7;
+    }
+
+    public int getLongitudeE7() {
+        return this.longitudeE7;
+    }
+
+    public void setWorksite(String worksite) {
+        this.worksite = worksite;
+    }
+
+    public String getWorksite() {
+        return this.worksite;
+    }
+
+    public void setVelocity(double velocity) {
+        this.velocity = velocity;
+    }
+
+    public double getVelocity() {
+        return this.velocity;
+    }
+
+    public void setDirection(double direction) {
+        this.direction = direction;
+    }
+
+    public double getDirection() {
+        return this.direction;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @param packed Coordinates packed by GPSCodec, GPSCodec.INVALID if unknown
+     */
+    private void setLocation(long packed) {
+        if (packed == GPSCodec.INVALID) {
+            return;
+        }
+        this.latitudeE7 = GPSCodec.latitude(packed);
+        this.longitudeE7 = GPSCodec.longitude(packed);
+    }
+}
@@ -1,5 +1,6 @@
 package com.ddelp.volvoce.objects;
 
+import com.ddelp.volvoce.helpers.GPSCodec;
 import com.ddelp.volvoce.objects.Machine;
 import com.ddelp.volvoce.objects.Worker;
 
@@ -14,8 +15,14 @@ import java.util.HashMap;
  */
 public class Worksite {
     public String name;
+    /** Legacy bounds formatted "latitude,longitude", only read for old data */
     public String topLeft;
     public String bottomRight;
+    /** Bounds in 1e-7 degree, see GPSCodec */
+    public int topE7;
+    public int leftE7;
+    public int bottomE7;
+    public int rightE7;
     public HashMap<String,Boolean> workers;
     public HashMap<String,Boolean> machines;
 
@@ -29,8 +36,7 @@ public class Worksite {
 
     public Worksite(String name, String topLeft, String bottomRight) {
         this.name = name;
-        this.topLeft = topLeft;
-        this.bottomRight = bottomRight;
+        setBounds(GPSCodec.parse(topLeft), GPSCodec.parse(bottomRight));
         this.workers = new HashMap<>();
         this.machines = new HashMap<>();
     }
@@ -59,6 +65,38 @@ public class Worksite {
         return bottomRight;
     }
 
+    public void setTopE7(int topE7) {
+        this.topE7 = topE7;
+    }
+
+    public int getTopE7() {
+        return topE7;
+    }
+
+    public void setLeftE7(int leftE7) {
+        this.leftE7 = leftE7;
+    }
+
+    public int getLeftE7() {
+        return leftE7;
+    }
+
+    public void setBottomE7(int bottomE7) {
+        this.bottomE7 = bottomE7;
+    }
+
+    public int getBottomE7() {
+        return bottomE7;
+    }
+
+    public void setRightE7(int rightE7) {
+        this.rightE7 = rightE7;
+    }
+
+    public int getRightE7() {
+        return rightE7;
+    }
+
     public void addWorker(Worker worker) {
         addWorker(worker.getID());
     }
@@ -96,4 +134,19 @@ public class Worksite {
             this.workers.put(worker.getID(), true);
         }
     }
+
+    /**
+     * @param topLeft TopLeft coordinates packed by GPSCodec, GPSCodec.INVALID if unknown
+     * @param bottomRight BottomRight coordinates packed by GPSCodec, GPSCodec.INVALID if unknown
+     */
+    private void setBounds(long topLeft, long bottomRight) {
+        if (topLeft != GPSCodec.INVALID) {
+            this.topE7 = GPSCodec.latitude(topLeft);
+            this.leftE7 = GPSCodec.longitude(topLeft);
+        }
+        if (bottomRight != GPSCodec.INVALID) {
+            this.bottomE7 = GPSCodec.latitude(bottomRight);
+            this.rightE7 = GPSCodec.longitude(bottomRight);
+        }
+    }
 }
@@ -0,0 +1,87 @@
+package com.ddelp.volvoce.helpers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Alerts enter in the enter zone, leave outside the exit zone, and respect
+ * their minimum on and off times.
+ */
+public class AlertStateMachineTest {
+
+    private static final long ON_TIME = 3000;
+    private static final long OFF_TIME = 1000;
+
+    private AlertStateMachine alerts;
+
+    @Before
+    public void setUp() {
+        alerts = new AlertStateMachine();
+        alerts.setDwellTimes(ON_TIME, OFF_TIME);
+    }
+
+    @Test
+    public void firstEvaluationIsATransition() {
+        assertTrue(alerts.update(0, false, false, 0));
+        assertFalse(alerts.isAlerting(0));
+        assertTrue(alerts.update(1, true, true, 0));
+        assertTrue(alerts.isAlerting(1));
+    }
+
+    @Test
+    public void alertStaysOnForMinOnTime() {
+        alerts.update(0, true, true, 0);
+        assertFalse(alerts.update(0, false, false, ON_TIME - 1));
+        assertTrue(alerts.isAlerting(0));
+        assertTrue(alerts.update(0, false, false, ON_TIME));
+        assertFalse(alerts.isAlerting(0));
+    }
+
+    @Test
+    public void alertStaysOffForMinOffTime() {
+        alerts.update(0, true, true, 0);
+        alerts.update(0, false, false, ON_TIME);
+        assertFalse(alerts.update(0, true, true, ON_TIME + OFF_TIME - 1));
+        assertFalse(alerts.isAlerting(0));
+        assertTrue(alerts.update(0, true, true, ON_TIME + OFF_TIME));
+        assertTrue(alerts.isAlerting(0));
+    }
+
+    @Test
+    public void exitZoneHoldsAlertButDoesNotRaiseIt() {
+        alerts.update(0, true, true, 0);
+        // Jitter just outside the enter zone doesn't release the alert
+        for (long now = ON_TIME; now < 10 * ON_TIME; now += 250) {
+            assertFalse(alerts.update(0, false, true, now));
+            assertTrue(alerts.isAlerting(0));
+        }
+        assertTrue(alerts.update(0, false, false, 10 * ON_TIME));
+
+        // Nor does the exit zone alone raise one
+        for (long now = 11 * ON_TIME; now < 20 * ON_TIME; now += 250) {
+            assertFalse(alerts.update(0, false, true, now));
+            assertFalse(alerts.isAlerting(0));
+        }
+    }
+
+    @Test
+    public void releaseIgnoresDwellTime() {
+        alerts.update(0, true, true, 0);
+        assertTrue(alerts.release(0, 1));
+        assertFalse(alerts.isAlerting(0));
+        assertFalse(alerts.release(0, 2));
+        // Released entities don't report the release again
+        assertFalse(alerts.update(0, false, false, 3));
+    }
+
+    @Test
+    public void clearForgetsEveryEntity() {
+        alerts.update(0, true, true, 0);
+        alerts.clear();
+        assertFalse(alerts.isAlerting(0));
+        assertTrue(alerts.update(0, false, false, 1));
+    }
+}
@@ -0,0 +1,231 @@
+package com.ddelp.volvoce.helpers;
+
+import com.ddelp.volvoce.objects.HazardEnvelope;
+import com.ddelp.volvoce.objects.Machine;
+import com.ddelp.volvoce.objects.Worker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The spatial hash broadphase and incremental updates must find exactly the
+ * pairs a brute force comparison of every worker with every machine finds.
+ */
+public class CollisionDetecterTest {
+
+    private static final double ORIGIN_LATITUDE = 45.0;
+    private static final double ORIGIN_LONGITUDE = -93.0;
+    private static final int MACHINE_TYPES = 3;
+
+    private Random random;
+    private LocalProjection projection;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        projection = new LocalProjection(ORIGIN_LATITUDE, ORIGIN_LONGITUDE);
+    }
+
+    @Test
+    public void broadphaseMatchesBruteForce() {
+        for (int site = 0; site < 50; site++) {
+            double size = 20 + random.nextDouble() * 500;
+            PositionStore workers = randomStore("w", 1 + random.nextInt(300), size, false);
+            PositionStore machines = randomStore("m", 1 + random.nextInt(60), size, true);
+            CollisionDetecter detecter = new CollisionDetecter();
+            detecter.setHazardEnvelopes(envelopes());
+
+            int pairs = detecter.detectCollisions(workers, machines);
+
+            assertMatchesBruteForce("site " + site, detecter, workers, machines);
+            assertEquals("site " + site, bruteForcePairs(workers, machines), pairs);
+        }
+    }
+
+    @Test
+    public void incrementalMatchesFullRecompute() {
+        double size = 150;
+        PositionStore workers = randomStore("w", 100, size, false);
+        PositionStore machines = randomStore("m", 20, size, true);
+        final Map<String, Boolean> reported = new HashMap<>();
+        CollisionDetecter detecter = new CollisionDetecter();
+        detecter.setHazardEnvelopes(envelopes());
+        detecter.setCollisionListener(new CollisionDetecter.CollisionListener() {
+            @Override
+            public void onWorkerCollisionChanged(int index, String id, boolean colliding) {
+                reported.put(id, colliding);
+            }
+
+            @Override
+            public void onMachineCollisionChanged(int index, String id, boolean colliding) {
+                reported.put(id, colliding);
+            }
+        });
+        detecter.setPositionStores(workers, machines);
+
+        for (int step = 1; step <= 5000; step++) {
+            if (random.nextBoolean()) {
+                int index = moveRandomEntity(workers, "w", size, false);
+                detecter.workerUpdated(index);
+            } else {
+                int index = moveRandomEntity(machines, "m", size, true);
+                detecter.machineUpdated(index);
+            }
+            if (step % 250 == 0) {
+                CollisionDetecter full = new CollisionDetecter();
+                full.setHazardEnvelopes(envelopes());
+                int pairs = full.detectCollisions(workers, machines);
+                assertEquals("step " + step, pairs, detecter.getCollisionCount());
+                for (int w = 0; w < workers.size(); w++) {
+                    assertEquals("step " + step, full.isWorkerColliding(w), detecter.isWorkerColliding(w));
+                    assertEquals("step " + step, detecter.isWorkerColliding(w), reported.get(workers.getID(w)));
+                }
+                for (int m = 0; m < machines.size(); m++) {
+                    assertEquals("step " + step, full.isMachineColliding(m), detecter.isMachineColliding(m));
+                    assertEquals("step " + step, detecter.isMachineColliding(m), reported.get(machines.getID(m)));
+                }
+            }
+        }
+        assertMatchesBruteForce("end", detecter, workers, machines);
+    }
+
+    @Test
+    public void mapDetectionLeavesBoundStoresAlone() {
+        PositionStore workers = randomStore("w", 50, 100, false);
+        PositionStore machines = randomStore("m", 10, 100, true);
+        final int[] events = new int[1];
+        CollisionDetecter detecter = new CollisionDetecter();
+        detecter.setHazardEnvelopes(envelopes());
+        detecter.setPositionStores(workers, machines);
+        detecter.setCollisionListener(new CollisionDetecter.CollisionListener() {
+            @Override
+            public void onWorkerCollisionChanged(int index, String id, boolean colliding) {
+                events[0]++;
+            }
+
+            @Override
+            public void onMachineCollisionChanged(int index, String id, boolean colliding) {
+                events[0]++;
+            }
+        });
+
+        Map<String, Worker> workerMap = new HashMap<>();
+        Map<String, Machine> machineMap = new HashMap<>();
+        Worker worker = new Worker("other worker");
+        worker.setLatitudeE7(GPSCodec.encode(ORIGIN_LATITUDE));
+        worker.setLongitudeE7(GPSCodec.encode(ORIGIN_LONGITUDE));
+        workerMap.put(worker.getID(), worker);
+        Machine machine = new Machine("other machine", 0);
+        machine.setLatitudeE7(GPSCodec.encode(ORIGIN_LATITUDE));
+        machine.setLongitudeE7(GPSCodec.encode(ORIGIN_LONGITUDE));
+        machineMap.put(machine.getID(), machine);
+        assertEquals(2, detecter.detectCollisions(workerMap, machineMap).size());
+
+        assertEquals(0, events[0]);
+        for (int step = 0; step < 200; step++) {
+            detecter.workerUpdated(moveRandomEntity(workers, "w", 100, false));
+        }
+        assertMatchesBruteForce("after map detection", detecter, workers, machines);
+    }
+
+    /********************************** Helpers **********************************/
+
+    private void assertMatchesBruteForce(String message, CollisionDetecter detecter,
+                                         PositionStore workers, PositionStore machines) {
+        CollisionRules rules = new CollisionRules();
+        rules.setHazardEnvelopes(envelopes());
+        boolean[] machineColliding = new boolean[machines.size()];
+        for (int w = 0; w < workers.size(); w++) {
+            boolean colliding = false;
+            for (int m = 0; m < machines.size(); m++) {
+                if (workers.isLocated(w) && machines.isLocated(m)
+                        && rules.collides(workers, w, machines, m)) {
+                    colliding = true;
+                    machineColliding[m] = true;
+                }
+            }
+            assertEquals(message + ", worker " + w, colliding, detecter.isWorkerColliding(w));
+        }
+        for (int m = 0; m < machines.size(); m++) {
+            assertEquals(message + ", machine " + m, machineColliding[m], detecter.isMachineColliding(m));
+        }
+    }
+
+    private int bruteForcePairs(PositionStore workers, PositionStore machines) {
+        CollisionRules rules = new CollisionRules();
+        rules.setHazardEnvelopes(envelopes());
+        int pairs = 0;
+        for (int w = 0; w < workers.size(); w++) {
+            for (int m = 0; m < machines.size(); m++) {
+                if (workers.isLocated(w) && machines.isLocated(m)
+                        && rules.collides(workers, w, machines, m)) {
+                    pairs++;
+                }
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Machines of type 0 use the alert distance, type 1 a swing radius and
+     * type 2 a rear blind spot oriented by the heading
+     */
+    private static List<HazardEnvelope> envelopes() {
+        List<HazardEnvelope> envelopes = new ArrayList<>();
+        envelopes.add(new HazardEnvelope(1, "excavator", 20));
+        HazardEnvelope truck = new HazardEnvelope(2, "haul truck", 0);
+        truck.addVertex(-3, 2);
+        truck.addVertex(3, 2);
+        truck.addVertex(3, -25);
+        truck.addVertex(-3, -25);
+        envelopes.add(truck);
+        return envelopes;
+    }
+
+    private PositionStore randomStore(String prefix, int count, double size, boolean machines) {
+        PositionStore store = new PositionStore();
+        store.setProjection(projection);
+        for (int i = 0; i < count; i++) {
+            place(store, prefix + i, size, machines);
+        }
+        return store;
+    }
+
+    /**
+     * Move an entity anywhere on the site, lose its fix, or add a new one
+     *
+     * @return index of the entity
+     */
+    private int moveRandomEntity(PositionStore store, String prefix, double size, boolean machines) {
+        if (random.nextInt(50) == 0) {
+            return place(store, prefix + store.size(), size, machines);
+        }
+        String id = store.getID(random.nextInt(store.size()));
+        if (random.nextInt(20) == 0) {
+            return store.put(id, GPSCodec.INVALID);
+        }
+        return place(store, id, size, machines);
+    }
+
+    private int place(PositionStore store, String id, double size, boolean machines) {
+        double x = random.nextDouble() * size;
+        double y = random.nextDouble() * size;
+        double latitude = ORIGIN_LATITUDE + y / LocalProjection.METERS_PER_DEGREE;
+        double longitude = ORIGIN_LONGITUDE + x / (LocalProjection.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(ORIGIN_LATITUDE)));
+        int index = store.put(id, latitude, longitude);
+        if (machines) {
+            store.setType(index, random.nextInt(MACHINE_TYPES));
+            store.setMotion(index, 0, random.nextDouble() * 360, 0);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,97 @@
+package com.ddelp.volvoce.helpers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The filter converges on the true position and velocity from noisy fixes,
+ * closer than the raw fixes themselves.
+ */
+public class LocationFilterTest {
+
+    private static final double LATITUDE = 45.0;
+    private static final double LONGITUDE = -93.0;
+    /** GPS noise in meters, per axis */
+    private static final double NOISE = 5;
+    private static final double METERS_PER_DEGREE_LONGITUDE =
+            LocalProjection.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+
+    private Random random;
+    private LocationFilter filter;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        filter = new LocationFilter();
+    }
+
+    @Test
+    public void stationaryFixesConverge() {
+        double rawError = 0;
+        double filteredError = 0;
+        for (int second = 0; second < 300; second++) {
+            double x = random.nextGaussian() * NOISE;
+            double y = random.nextGaussian() * NOISE;
+            assertTrue(filter.update(latitude(y), longitude(x), NOISE, second * 1000L));
+            if (second >= 200) {
+                rawError += Math.hypot(x, y);
+                filteredError += error(0, 0);
+            }
+        }
+        assertTrue("filtered " + filteredError / 100 + " m, raw " + rawError / 100 + " m",
+                filteredError < rawError * 0.7);
+        assertTrue("speed " + filter.getSpeed(), filter.getSpeed() < 1);
+    }
+
+    @Test
+    public void constantVelocityConverges() {
+        double speed = 1.5;
+        for (int second = 0; second < 180; second++) {
+            double x = speed * second;
+            filter.update(latitude(random.nextGaussian() * NOISE),
+                    longitude(x + random.nextGaussian() * NOISE), NOISE, second * 1000L);
+        }
+        assertEquals(speed, filter.getSpeed(), 0.5);
+        assertEquals(90, filter.getHeading(), 20);
+        assertTrue("error " + error(speed * 179, 0), error(speed * 179, 0) < 5);
+    }
+
+    @Test
+    public void olderFixesAreIgnored() {
+        assertTrue(filter.update(LATITUDE, LONGITUDE, NOISE, 1000));
+        assertFalse(filter.update(latitude(100), LONGITUDE, NOISE, 500));
+        assertEquals(0, error(0, 0), 1e-6);
+    }
+
+    @Test
+    public void startsOverAfterALongGap() {
+        filter.setResetGap(60000);
+        filter.update(LATITUDE, LONGITUDE, NOISE, 0);
+        filter.update(latitude(500), LONGITUDE, NOISE, 60001);
+        assertEquals(0, error(0, 500), 1e-6);
+        assertEquals(0, filter.getSpeed(), 1e-6);
+    }
+
+    private static double latitude(double y) {
+        return LATITUDE + y / LocalProjection.METERS_PER_DEGREE;
+    }
+
+    private static double longitude(double x) {
+        return LONGITUDE + x / METERS_PER_DEGREE_LONGITUDE;
+    }
+
+    /**
+     * @return distance in meters from the estimate to a point x meters east and y meters north
+     */
+    private double error(double x, double y) {
+        double dx = (filter.getLongitude() - LONGITUDE) * METERS_PER_DEGREE_LONGITUDE - x;
+        double dy = (filter.getLatitude() - LATITUDE) * LocalProjection.METERS_PER_DEGREE - y;
+        return Math.hypot(dx, dy);
+    }
+}
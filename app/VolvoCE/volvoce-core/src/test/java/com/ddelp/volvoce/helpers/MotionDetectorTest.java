@@ -0,0 +1,71 @@
+package com.ddelp.volvoce.helpers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Walking is detected within a couple of seconds, while sensor noise and a
+ * single jolt are not.
+ */
+public class MotionDetectorTest {
+
+    private static final double GRAVITY = 9.81;
+    /** SENSOR_DELAY_NORMAL delivers about 5 samples a second */
+    private static final long SAMPLE_PERIOD = 200;
+
+    private Random random;
+    private MotionDetector detector;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        detector = new MotionDetector();
+    }
+
+    @Test
+    public void stillDeviceIsNotMoving() {
+        for (long time = 0; time < 600000; time += SAMPLE_PERIOD) {
+            assertFalse(detector.update(noise(), noise(), GRAVITY + noise(), time));
+        }
+    }
+
+    @Test
+    public void singleJoltIsNotMoving() {
+        long time = 0;
+        for (; time < 5000; time += SAMPLE_PERIOD) {
+            detector.update(noise(), noise(), GRAVITY + noise(), time);
+        }
+        assertFalse(detector.update(3, 0, GRAVITY + 5, time));
+        for (time += SAMPLE_PERIOD; time < 10000; time += SAMPLE_PERIOD) {
+            assertFalse(detector.update(noise(), noise(), GRAVITY + noise(), time));
+        }
+    }
+
+    @Test
+    public void walkingIsDetected() {
+        long time = 0;
+        for (; time < 5000; time += SAMPLE_PERIOD) {
+            detector.update(noise(), noise(), GRAVITY + noise(), time);
+        }
+        long start = time;
+        boolean moving = false;
+        for (; !moving && time < start + 3000; time += SAMPLE_PERIOD) {
+            // Two steps a second, bouncing about 2.5 m/s^2 vertically
+            double bounce = 2.5 * Math.sin(2 * Math.PI * 2 * (time - start) / 1000.0 + 0.7);
+            moving = detector.update(noise(), noise(), GRAVITY + bounce + noise(), time);
+        }
+        assertTrue(moving);
+    }
+
+    /**
+     * @return accelerometer noise of a phone lying still, in m/s^2
+     */
+    private double noise() {
+        return random.nextGaussian() * 0.05;
+    }
+}
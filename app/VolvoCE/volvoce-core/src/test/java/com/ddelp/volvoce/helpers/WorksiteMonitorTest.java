@@ -0,0 +1,98 @@
+package com.ddelp.volvoce.helpers;
+
+import com.ddelp.volvoce.objects.Machine;
+import com.ddelp.volvoce.objects.Worker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Alert transitions raised between ticks are timed from the update that
+ * caused them, and an entity leaving the worksite drops its alert at once.
+ */
+public class WorksiteMonitorTest {
+
+    private static final double LATITUDE = 45.0;
+    private static final double LONGITUDE = -93.0;
+    private static final long ON_TIME = 3000;
+
+    private WorksiteMonitor monitor;
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        events.clear();
+        monitor = new WorksiteMonitor(true);
+        monitor.setProjection(new LocalProjection(LATITUDE, LONGITUDE));
+        monitor.setAlertDistance(10);
+        monitor.setDwellTimes(ON_TIME, 1000);
+        monitor.setAlertListener(new WorksiteMonitor.AlertListener() {
+            @Override
+            public void onAlertChanged(String id, boolean alert) {
+                events.add(id + " " + alert);
+            }
+        });
+        monitor.machineUpdated(machineAt(0), 0);
+        monitor.workerUpdated(workerAt(100), 0);
+        monitor.tick(0);
+        events.clear();
+    }
+
+    @Test
+    public void dwellIsTimedFromTheUpdate() {
+        monitor.tick(1000);
+        monitor.workerUpdated(workerAt(2), 1200);
+        assertEquals(Arrays.asList("m true", "w true"), sorted(events));
+        monitor.workerUpdated(workerAt(100), 1200 + ON_TIME - 200);
+
+        // ON_TIME after the last tick before the alert, but not yet after the update raising it
+        monitor.tick(1000 + ON_TIME + 100);
+        assertTrue(monitor.isAlerting("w"));
+        monitor.tick(1200 + ON_TIME);
+        assertFalse(monitor.isAlerting("w"));
+        assertFalse(monitor.isAlerting("m"));
+    }
+
+    @Test
+    public void removedWorkerReleasesItsAlertAtOnce() {
+        monitor.workerUpdated(workerAt(2), 1200);
+        events.clear();
+
+        assertTrue(monitor.entityRemoved("w", 1300));
+        assertEquals(Arrays.asList("w false"), events);
+        // The machine is still there, so its alert keeps its dwell time
+        assertTrue(monitor.isAlerting("m"));
+        monitor.tick(1200 + ON_TIME);
+        assertFalse(monitor.isAlerting("m"));
+        assertFalse(monitor.entityRemoved("unknown", 1400));
+    }
+
+    private static Worker workerAt(double metersNorth) {
+        Worker worker = new Worker("w");
+        worker.setLatitudeE7(GPSCodec.encode(LATITUDE + metersNorth / LocalProjection.METERS_PER_DEGREE));
+        worker.setLongitudeE7(GPSCodec.encode(LONGITUDE));
+        return worker;
+    }
+
+    private static Machine machineAt(double metersNorth) {
+        Machine machine = new Machine("m", 0);
+        machine.setLatitudeE7(GPSCodec.encode(LATITUDE + metersNorth / LocalProjection.METERS_PER_DEGREE));
+        machine.setLongitudeE7(GPSCodec.encode(LONGITUDE));
+        return machine;
+    }
+
+    private static List<String> sorted(List<String> events) {
+        List<String> copy = new ArrayList<>(events);
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,205 @@
+package com.ddelp.volvoce.helpers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes are compacted to the latest value per path, sent oldest first, and
+ * only removed once acknowledged if they weren't written again meanwhile.
+ */
+public class WriteQueueTest {
+
+    private WriteQueue queue;
+    private final List<String> journalWrites = new ArrayList<>();
+    private final List<String> journalDeletes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        journalWrites.clear();
+        journalDeletes.clear();
+        queue = new WriteQueue(new WriteQueue.Journal() {
+            @Override
+            public void write(String path, Object value, boolean replace) {
+                journalWrites.add(path);
+            }
+
+            @Override
+            public void delete(String path) {
+                journalDeletes.add(path);
+            }
+        });
+    }
+
+    @Test
+    public void compactsToLatestValuePerPath() {
+        queue.put("alerts/a", true);
+        queue.put("alerts/b", true);
+        queue.put("alerts/a", false);
+
+        assertEquals(2, queue.size());
+        Map<String, Object> update = queue.nextBatch(10).getUpdate();
+        // A rewritten path moves to the back
+        assertEquals(Arrays.asList("alerts/b", "alerts/a"), new ArrayList<>(update.keySet()));
+        assertEquals(false, update.get("alerts/a"));
+        assertEquals(Arrays.asList("alerts/a", "alerts/b", "alerts/a"), journalWrites);
+    }
+
+    @Test
+    public void mergesMapFieldsLikeUpdateChildren() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("latitudeE7", 1);
+        first.put("gps", "45,-93");
+        queue.put("positions/site/a", first);
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("latitudeE7", 2);
+        second.put("gps", null);
+        queue.put("positions/site/a", second);
+
+        assertEquals(1, queue.size());
+        Map<String, Object> update = queue.nextBatch(10).getUpdate();
+        assertEquals(2, update.get("positions/site/a/latitudeE7"));
+        assertTrue(update.containsKey("positions/site/a/gps"));
+        assertNull(update.get("positions/site/a/gps"));
+    }
+
+    @Test
+    public void nullDeletesTheNode() {
+        queue.put("positions/site/a", Collections.<String, Object>singletonMap("latitudeE7", 1));
+        queue.put("positions/site/a", null);
+
+        Map<String, Object> update = queue.nextBatch(10).getUpdate();
+        assertEquals(1, update.size());
+        assertTrue(update.containsKey("positions/site/a"));
+        assertNull(update.get("positions/site/a"));
+    }
+
+    @Test
+    public void mapAfterDeleteReplacesTheNode() {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("latitudeE7", 1);
+        queue.put("positions/site/a", null);
+        queue.put("positions/site/a", fields);
+        queue.put("positions/site/a", Collections.<String, Object>singletonMap("longitudeE7", 2));
+
+        Map<String, Object> update = queue.nextBatch(10).getUpdate();
+        assertEquals(1, update.size());
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("latitudeE7", 1);
+        expected.put("longitudeE7", 2);
+        assertEquals(expected, update.get("positions/site/a"));
+    }
+
+    @Test
+    public void restoredReplaceStillReplacesTheNode() {
+        Map<String, Object> restored = new LinkedHashMap<>();
+        restored.put("positions/site/a", Collections.<String, Object>singletonMap("latitudeE7", 1));
+        restored.put("positions/site/b", Collections.<String, Object>singletonMap("latitudeE7", 1));
+        queue.restore(restored, Collections.singleton("positions/site/a"));
+
+        Map<String, Object> update = queue.nextBatch(10).getUpdate();
+        assertTrue(update.get("positions/site/a") instanceof Map);
+        assertEquals(1, update.get("positions/site/b/latitudeE7"));
+    }
+
+    @Test
+    public void batchesAreOldestFirstAndLimited() {
+        for (int i = 0; i < 5; i++) {
+            queue.put("alerts/" + i, true);
+        }
+        WriteQueue.Batch batch = queue.nextBatch(2);
+
+        assertEquals(2, batch.size());
+        assertEquals(Arrays.asList("alerts/0", "alerts/1"), new ArrayList<>(batch.getUpdate().keySet()));
+        // Taking a batch doesn't remove it, only an acknowledgement does
+        assertEquals(5, queue.size());
+        queue.completed(batch);
+        assertEquals(3, queue.size());
+        assertEquals(Arrays.asList("alerts/0", "alerts/1"), journalDeletes);
+        assertEquals("alerts/2", queue.nextBatch(1).getUpdate().keySet().iterator().next());
+    }
+
+    @Test
+    public void putAllIsNeverSplit() {
+        queue.put("positions/site/a", null);
+        Map<String, Object> alerts = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) {
+            alerts.put("alerts/" + i, true);
+        }
+        queue.putAll(alerts);
+        queue.put("positions/site/b", null);
+
+        // The group doesn't fit after the oldest write, so it waits for the next batch
+        WriteQueue.Batch batch = queue.nextBatch(3);
+        assertEquals(Collections.singleton("positions/site/a"), batch.getUpdate().keySet());
+        queue.completed(batch);
+        // and is then taken whole even though it is larger than the limit
+        batch = queue.nextBatch(3);
+        assertEquals(alerts.keySet(), batch.getUpdate().keySet());
+        queue.completed(batch);
+        assertEquals(Collections.singleton("positions/site/b"), queue.nextBatch(3).getUpdate().keySet());
+    }
+
+    @Test
+    public void pathWrittenAgainLeavesItsGroup() {
+        Map<String, Object> alerts = new LinkedHashMap<>();
+        for (int i = 0; i < 4; i++) {
+            alerts.put("alerts/" + i, true);
+        }
+        queue.putAll(alerts);
+        queue.put("alerts/1", false);
+
+        WriteQueue.Batch batch = queue.nextBatch(3);
+        assertEquals(Arrays.asList("alerts/0", "alerts/2", "alerts/3"),
+                new ArrayList<>(batch.getUpdate().keySet()));
+        queue.completed(batch);
+        assertEquals(false, queue.nextBatch(3).getUpdate().get("alerts/1"));
+    }
+
+    @Test
+    public void pathWrittenWhileInFlightStaysQueued() {
+        queue.put("alerts/a", true);
+        queue.put("alerts/b", true);
+        WriteQueue.Batch inFlight = queue.nextBatch(10);
+        queue.put("alerts/a", false);
+
+        queue.completed(inFlight);
+
+        assertEquals(1, queue.size());
+        assertEquals(Collections.singletonList("alerts/b"), journalDeletes);
+        assertEquals(false, queue.nextBatch(10).getUpdate().get("alerts/a"));
+    }
+
+    @Test
+    public void emptyQueueHasNoBatch() {
+        assertNull(queue.nextBatch(10));
+        queue.put("alerts/a", true);
+        queue.completed(queue.nextBatch(10));
+        assertTrue(queue.isEmpty());
+        assertNull(queue.nextBatch(10));
+    }
+
+    @Test
+    public void restoredWritesDontReplaceNewerOnes() {
+        queue.put("alerts/a", false);
+        Map<String, Object> restored = new LinkedHashMap<>();
+        restored.put("alerts/a", true);
+        restored.put("alerts/b", true);
+        queue.restore(restored, Collections.<String>emptySet());
+
+        assertEquals(2, queue.size());
+        Map<String, Object> update = queue.nextBatch(10).getUpdate();
+        assertEquals(false, update.get("alerts/a"));
+        assertEquals(true, update.get("alerts/b"));
+    }
+}